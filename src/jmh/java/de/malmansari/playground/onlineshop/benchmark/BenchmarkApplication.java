@@ -0,0 +1,61 @@
+package de.malmansari.playground.onlineshop.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import de.malmansari.playground.onlineshop.OnlineShopApplication;
+
+/**
+ * <pre>
+ * Starts the online shop against the embedded H2 database, 
+ * without a web server by default, and adds the benchmark 
+ * products.
+ * 
+ * The benchmark products have the ids {@link #FIRST_PRODUCT_ID}
+ * up to {@link #FIRST_PRODUCT_ID} + {@link #PRODUCTS} - 1 and 
+ * enough stock to never sell out during a run.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+final class BenchmarkApplication {
+	static final long FIRST_PRODUCT_ID = 1000;
+
+	static final int PRODUCTS = 64;
+
+	private static final long STOCK = Long.MAX_VALUE / 4;
+
+	private BenchmarkApplication() {
+	}
+
+	static ConfigurableApplicationContext start(final String... properties) {
+		return start(WebApplicationType.NONE, properties);
+	}
+
+	static ConfigurableApplicationContext start(final WebApplicationType type, final String... properties) {
+		// as arguments the properties override application.properties, default properties would not
+		List<String> args = new ArrayList<>();
+		args.add("--spring.jpa.show-sql=false");
+		args.add("--logging.level.root=WARN");
+		for (String property : properties) {
+			args.add("--" + property);
+		}
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(OnlineShopApplication.class)
+				.web(type)
+				.run(args.toArray(new String[0]));
+
+		List<Object[]> products = new ArrayList<>();
+		for (int i = 0; i < PRODUCTS; i++) {
+			products.add(new Object[] { FIRST_PRODUCT_ID + i, "Benchmark Product " + i, STOCK });
+		}
+		context.getBean(JdbcTemplate.class)
+				.batchUpdate("INSERT INTO product (id, name, stock) VALUES (?, ?, ?)", products);
+		return context;
+	}
+}
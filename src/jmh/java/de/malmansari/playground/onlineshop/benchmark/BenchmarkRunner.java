@@ -0,0 +1,54 @@
+package de.malmansari.playground.onlineshop.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <pre>
+ * Runs the benchmarks once per thread count and writes the 
+ * results of every run as JSON to target/jmh, so they can be
+ * compared between builds.
+ * 
+ * Arguments (all optional):
+ *  - the regular expression of the benchmarks to be run
+ *  - the comma separated thread counts, 1,8,64 by default
+ *  - the comma separated JMH profilers, e.g. gc for the
+ *    allocated bytes per operation, none by default
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+public final class BenchmarkRunner {
+	private static final String RESULT_DIRECTORY = "target/jmh";
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+		String threadCounts = args.length > 1 ? args[1] : "1,8,64";
+		String profilers = args.length > 2 ? args[2] : "none";
+
+		new File(RESULT_DIRECTORY).mkdirs();
+		for (String threadCount : threadCounts.split(",")) {
+			int threads = Integer.parseInt(threadCount.trim());
+			ChainedOptionsBuilder options = new OptionsBuilder()
+					.include(include)
+					.threads(threads)
+					.resultFormat(ResultFormatType.JSON)
+					.result(RESULT_DIRECTORY + "/results-" + threads + "-threads.json");
+			for (String profiler : profilers.split(",")) {
+				if (!profiler.trim().isEmpty() && !"none".equals(profiler.trim())) {
+					options.addProfiler(profiler.trim());
+				}
+			}
+			new Runner(options.build()).run();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package de.malmansari.playground.onlineshop.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * <pre>
+ * Compares the servlet and the async execution mode under load.
+ * 
+ * For every mode the shop is started with a small request thread
+ * pool, then the clients send a mix of cheap catalog reads and 
+ * orders waiting for the database for a fixed time. The throughput
+ * and the latency percentiles are printed per mode and request.
+ * 
+ * Arguments (all optional):
+ *  - the number of concurrent clients, 256 by default
+ *  - the seconds to measure per mode, 20 by default
+ *  - the percentage of orders in the request mix, 20 by default
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+public final class ExecutionModeLoadTest {
+	private static final String[] MODES = { "servlet", "async" };
+
+	private static final int REQUEST_THREADS = 50;
+
+	private static final int WARMUP_SECONDS = 5;
+
+	private ExecutionModeLoadTest() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int orderPercentage = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+		System.out.printf("%-8s %-8s %10s %10s %10s %10s %8s%n",
+				"mode", "request", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "errors");
+		for (String mode : MODES) {
+			try (ConfigurableApplicationContext context = BenchmarkApplication.start(WebApplicationType.SERVLET,
+					"server.port=0", "server.tomcat.max-threads=" + REQUEST_THREADS,
+					"onlineshop.execution.mode=" + mode)) {
+				int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+				run(port, clients, WARMUP_SECONDS, orderPercentage);
+				Result[] results = run(port, clients, seconds, orderPercentage);
+				print(mode, "catalog", results[0], seconds);
+				print(mode, "order", results[1], seconds);
+			}
+		}
+	}
+
+	private static Result[] run(final int port, final int clients, final int seconds, final int orderPercentage)
+			throws Exception {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService executor = Executors.newFixedThreadPool(clients);
+		List<Future<Result[]>> futures = new ArrayList<>();
+		for (int i = 0; i < clients; i++) {
+			futures.add(executor.submit(() -> {
+				Result[] results = { new Result(), new Result() };
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (System.nanoTime() < end) {
+					boolean order = random.nextInt(100) < orderPercentage;
+					String path = order
+							? "/api/order/products/"
+									+ (BenchmarkApplication.FIRST_PRODUCT_ID + random.nextInt(BenchmarkApplication.PRODUCTS))
+									+ "/1"
+							: "/api/products";
+					results[order ? 1 : 0].record(port, path);
+				}
+				return results;
+			}));
+		}
+
+		Result[] total = { new Result(), new Result() };
+		for (Future<Result[]> future : futures) {
+			Result[] results = future.get();
+			total[0].add(results[0]);
+			total[1].add(results[1]);
+		}
+		executor.shutdown();
+		return total;
+	}
+
+	private static void print(final String mode, final String request, final Result result, final int seconds) {
+		Histogram latencies = result.latencies;
+		System.out.printf("%-8s %-8s %10.0f %10.2f %10.2f %10.2f %8d%n", mode, request,
+				(double) latencies.getTotalCount() / seconds,
+				latencies.getValueAtPercentile(50) / 1e6,
+				latencies.getValueAtPercentile(99) / 1e6,
+				latencies.getValueAtPercentile(99.9) / 1e6,
+				result.errors);
+	}
+
+	/**
+	 * The latencies in nanoseconds and the errors of one kind of request.
+	 */
+	private static final class Result {
+		private final Histogram latencies = new Histogram(TimeUnit.MINUTES.toNanos(1), 3);
+
+		private long errors;
+
+		void record(final int port, final String path) throws IOException {
+			long start = System.nanoTime();
+			HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path)
+					.openConnection();
+			int status = connection.getResponseCode();
+			byte[] buffer = new byte[8192];
+			try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				while (body != null && body.read(buffer) >= 0) {
+					// drain the body to reuse the connection
+				}
+			}
+			if (status >= 400) {
+				errors++;
+			} else {
+				latencies.recordValue(Math.min(System.nanoTime() - start, latencies.getHighestTrackableValue()));
+			}
+		}
+
+		void add(final Result other) {
+			latencies.add(other.latencies);
+			errors += other.errors;
+		}
+	}
+}
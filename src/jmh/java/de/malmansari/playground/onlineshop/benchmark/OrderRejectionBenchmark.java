@@ -0,0 +1,106 @@
+package de.malmansari.playground.onlineshop.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import de.malmansari.playground.onlineshop.availability.SoldOutRegistry;
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+/**
+ * <pre>
+ * Measures the throughput and the latency percentiles of the
+ * rejected orders, as in a sell-out: of a sold out product and
+ * of an unknown one, through the {@link ProductService} and as
+ * a request through the dispatcher servlet and the exception
+ * handler, without the network. The requests are rejected by
+ * the {@link SoldOutRegistry}, the calls of the service are not.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderRejectionBenchmark {
+	private static final long SOLD_OUT_PRODUCT_ID = BenchmarkApplication.FIRST_PRODUCT_ID
+			+ BenchmarkApplication.PRODUCTS;
+
+	private static final long UNKNOWN_PRODUCT_ID = SOLD_OUT_PRODUCT_ID + 1;
+
+	private ConfigurableApplicationContext context;
+
+	private ProductService productService;
+
+	private MockMvc mockMvc;
+
+	@Setup(Level.Trial)
+	public void startApplication() {
+		context = BenchmarkApplication.start(WebApplicationType.SERVLET, "server.port=0");
+		context.getBean(JdbcTemplate.class).update("INSERT INTO product (id, name, stock) VALUES (?, 'Sold Out', 0)",
+				SOLD_OUT_PRODUCT_ID);
+		// inserted after the startup, so it is flagged like at the next startup
+		context.getBean(SoldOutRegistry.class).rebuild();
+		productService = context.getBean(ProductService.class);
+		mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopApplication() {
+		context.close();
+	}
+
+	@Benchmark
+	public Object orderSoldOut() {
+		try {
+			return productService.order(SOLD_OUT_PRODUCT_ID, 1);
+		} catch (ProductHasNotEnoughStockException e) {
+			return e;
+		}
+	}
+
+	@Benchmark
+	public Object orderUnknown() {
+		try {
+			return productService.order(UNKNOWN_PRODUCT_ID, 1);
+		} catch (ProductNotFoundException e) {
+			return e;
+		}
+	}
+
+	@Benchmark
+	public int requestSoldOut() throws Exception {
+		return mockMvc.perform(MockMvcRequestBuilders.get("/api/order/products/{id}/1", SOLD_OUT_PRODUCT_ID))
+				.andReturn().getResponse().getStatus();
+	}
+
+	@Benchmark
+	public int requestUnknown() throws Exception {
+		return mockMvc.perform(MockMvcRequestBuilders.get("/api/order/products/{id}/1", UNKNOWN_PRODUCT_ID))
+				.andReturn().getResponse().getStatus();
+	}
+}
@@ -0,0 +1,67 @@
+package de.malmansari.playground.onlineshop.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.search.ProductSearchIndex;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+/**
+ * Measures the throughput and the latency percentiles of {@link ProductService#getAllProducts()}
+ * and of a prefix search in the {@link ProductSearchIndex}.
+ * 
+ * @author malmansari
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductCatalogBenchmark {
+	private ConfigurableApplicationContext context;
+
+	private ProductService productService;
+
+	private ProductSearchIndex productSearchIndex;
+
+	@Setup(Level.Trial)
+	public void startApplication() {
+		context = BenchmarkApplication.start();
+		productService = context.getBean(ProductService.class);
+		productSearchIndex = context.getBean(ProductSearchIndex.class);
+		productSearchIndex.rebuild();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopApplication() {
+		context.close();
+	}
+
+	@Benchmark
+	public void getAllProducts(Blackhole blackhole) {
+		productService.getAllProducts().forEach(blackhole::consume);
+	}
+
+	@Benchmark
+	public List<Product> search() {
+		return productSearchIndex.search("benchmark prod", true, true, 20);
+	}
+}
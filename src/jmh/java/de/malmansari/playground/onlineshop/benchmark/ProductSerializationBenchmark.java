@@ -0,0 +1,114 @@
+package de.malmansari.playground.onlineshop.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.serialization.ProductEncoding;
+import de.malmansari.playground.onlineshop.serialization.ProductWriter;
+
+/**
+ * <pre>
+ * Compares writing products with the object mapper, as the
+ * product responses and the catalog cache did before, with the
+ * {@link ProductWriter} in every encoding.
+ * 
+ * The list benchmarks write to a stream discarding the bytes,
+ * like a response stream, the entries benchmarks create one
+ * byte array per product, like the catalog cache does. Run it
+ * with the gc profiler to see the allocated bytes per operation:
+ * 
+ * mvn -Pbenchmark test-compile exec:exec 
+ *     -Dbenchmark.include=ProductSerialization -Dbenchmark.threads=1 -Dbenchmark.profilers=gc
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductSerializationBenchmark {
+	@Param({ "5", "10000" })
+	public int products;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final ProductWriter productWriter = new ProductWriter(objectMapper);
+
+	private final OutputStream discarding = new OutputStream() {
+		@Override
+		public void write(final int b) {
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+		}
+	};
+
+	private List<Product> catalog;
+
+	@Setup(Level.Trial)
+	public void createCatalog() {
+		catalog = new ArrayList<>(products);
+		for (int i = 0; i < products; i++) {
+			catalog.add(new Product(i + 1, "Benchmark Product " + i, 100 + i));
+		}
+	}
+
+	@Benchmark
+	public void listObjectMapper() throws IOException {
+		objectMapper.writeValue(discarding, catalog);
+	}
+
+	@Benchmark
+	public void listProductWriterJson() throws IOException {
+		productWriter.writeAll(catalog, ProductEncoding.JSON, discarding);
+	}
+
+	@Benchmark
+	public void listProductWriterSmile() throws IOException {
+		productWriter.writeAll(catalog, ProductEncoding.SMILE, discarding);
+	}
+
+	@Benchmark
+	public void listProductWriterCbor() throws IOException {
+		productWriter.writeAll(catalog, ProductEncoding.CBOR, discarding);
+	}
+
+	@Benchmark
+	public void entriesObjectMapper(Blackhole blackhole) throws IOException {
+		for (Product product : catalog) {
+			blackhole.consume(objectMapper.writeValueAsBytes(product));
+		}
+	}
+
+	@Benchmark
+	public void entriesProductWriter(Blackhole blackhole) {
+		for (Product product : catalog) {
+			blackhole.consume(productWriter.toBytes(product, ProductEncoding.JSON));
+		}
+	}
+}
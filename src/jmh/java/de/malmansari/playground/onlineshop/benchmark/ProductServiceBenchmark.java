@@ -0,0 +1,88 @@
+package de.malmansari.playground.onlineshop.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+/**
+ * <pre>
+ * Measures the throughput and the latency percentiles of the 
+ * stock mutations of the {@link ProductService}.
+ * 
+ * If contended, all threads order the same product, otherwise
+ * every thread orders its own product. The orders are combined
+ * by the OrderCombiner if combining.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductServiceBenchmark {
+	@Param({ "true", "false" })
+	public boolean contended;
+
+	@Param({ "false", "true" })
+	public boolean combining;
+
+	private ConfigurableApplicationContext context;
+
+	private ProductService productService;
+
+	@Setup(Level.Trial)
+	public void startApplication() {
+		context = BenchmarkApplication.start("onlineshop.order-combining.enabled=" + combining);
+		productService = context.getBean(ProductService.class);
+	}
+
+	@TearDown(Level.Trial)
+	public void stopApplication() {
+		context.close();
+	}
+
+	/**
+	 * The product ordered by one benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Customer {
+		long productId;
+
+		@Setup(Level.Trial)
+		public void chooseProduct(ProductServiceBenchmark benchmark, ThreadParams threadParams) {
+			productId = BenchmarkApplication.FIRST_PRODUCT_ID
+					+ (benchmark.contended ? 0 : threadParams.getThreadIndex() % BenchmarkApplication.PRODUCTS);
+		}
+	}
+
+	@Benchmark
+	public Product order(Customer customer) {
+		return productService.order(customer.productId, 1);
+	}
+
+	@Benchmark
+	public Product addToStock(Customer customer) {
+		return productService.addToStock(customer.productId, 1);
+	}
+}
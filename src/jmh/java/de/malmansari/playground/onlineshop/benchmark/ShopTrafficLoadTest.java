@@ -0,0 +1,464 @@
+package de.malmansari.playground.onlineshop.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.malmansari.playground.onlineshop.exception.ErrorResponse;
+
+/**
+ * <pre>
+ * Replays a mix of shop traffic against the HTTP endpoints of
+ * an embedded shop and checks the stock afterwards.
+ *
+ * The load is an open model: the requests are started at a
+ * constant rate, whether the previous ones are answered or
+ * not, and the latency is measured from the moment a request
+ * was due. A slow shop thus shows up as a growing latency,
+ * instead of as fewer requests like with closed-loop clients
+ * (coordinated omission). The requests are sent by a pool of
+ * workers; if all of them are waiting, the due requests queue
+ * up and their waiting counts into their latency.
+ *
+ * The mix consists of catalog listings, orders of one item and
+ * restocks of 10 items. The ordered and restocked products
+ * follow a Zipf distribution over the load test products, so
+ * a few of them are hot and sell out while others are hardly
+ * touched. The products are imported through the catalog
+ * import before the run. After a warmup of 5 seconds, whose
+ * latencies are dropped, the throughput and the p50, p99 and
+ * p99.9 latencies are printed per request, with the sold out
+ * answers and the errors of the measured time.
+ *
+ * Every answered order and restock is counted per product.
+ * Once all requests are answered, the stock of every product is
+ * read through the product pages and compared with its initial
+ * stock minus the ordered plus the restocked items. A negative
+ * stock is an oversell, any other difference a lost or phantom
+ * update. The orders and restocks which failed without an
+ * answer are counted per product as well, their outcome is
+ * unknown: the stock of a product may be lower than expected
+ * by its unknown orders and higher by its unknown restocks. A
+ * difference within that range is reported as inconclusive,
+ * any other one fails the check. The exit code is 1 if the
+ * check fails, or is inconclusive unless that is allowed.
+ *
+ * Arguments (all optional):
+ *  - the requests per second, 500 by default
+ *  - the seconds to measure, 30 by default
+ *  - the percentages of listings, orders and restocks, 20:70:10 by default
+ *  - the Zipf exponent, 1.0 by default
+ *  - the number of products, 1000 by default
+ *  - the initial stock per product, 1000 by default
+ *  - the number of workers, 512 by default
+ *  - whether an inconclusive check passes, false by default
+ *  - shop properties, e.g. onlineshop.storage.backend=mapped,onlineshop.execution.mode=async
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public final class ShopTrafficLoadTest {
+	private static final long FIRST_PRODUCT_ID = 2_000_000;
+
+	private static final long RESTOCK_QUANTITY = 10;
+
+	private static final int WARMUP_SECONDS = 5;
+
+	private static final int PAGE_SIZE = 1000;
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	private final int port;
+
+	private final int[] mix;
+
+	private final Zipf zipf;
+
+	private final long initialStock;
+
+	private final int workers;
+
+	private final Request[] requests = { new Request("listing"), new Request("order"), new Request("restock") };
+
+	private final AtomicLongArray ordered;
+
+	private final AtomicLongArray restocked;
+
+	/**
+	 * The orders and restocks failed without an answer per product, their effect on the stock is unknown.
+	 */
+	private final AtomicLongArray unknownOrders;
+
+	private final AtomicLongArray unknownRestocks;
+
+	private final AtomicLong maxLagNanos = new AtomicLong();
+
+	private volatile boolean measuring;
+
+	private ShopTrafficLoadTest(final int port, final int[] mix, final Zipf zipf, final long initialStock,
+			final int workers) {
+		this.port = port;
+		this.mix = mix;
+		this.zipf = zipf;
+		this.initialStock = initialStock;
+		this.workers = workers;
+		this.ordered = new AtomicLongArray(zipf.size());
+		this.restocked = new AtomicLongArray(zipf.size());
+		this.unknownOrders = new AtomicLongArray(zipf.size());
+		this.unknownRestocks = new AtomicLongArray(zipf.size());
+	}
+
+	public static void main(String[] args) throws Exception {
+		int rate = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		String mixArgument = args.length > 2 ? args[2] : "20:70:10";
+		int[] mix = Arrays.stream(mixArgument.split(":"))
+				.mapToInt(Integer::parseInt)
+				.toArray();
+		double exponent = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+		int products = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+		long initialStock = args.length > 5 ? Long.parseLong(args[5]) : 1000;
+		int workers = args.length > 6 ? Integer.parseInt(args[6]) : 512;
+		boolean allowInconclusive = args.length > 7 && Boolean.parseBoolean(args[7].trim());
+		List<String> properties = new ArrayList<>(Arrays.asList("server.port=0"));
+		if (args.length > 8 && !args[8].trim().isEmpty()) {
+			properties.addAll(Arrays.asList(args[8].trim().split(",")));
+		}
+		if (mix.length != 3 || Arrays.stream(mix).sum() != 100) {
+			throw new IllegalArgumentException("The mix must be three percentages adding up to 100, e.g. 20:70:10");
+		}
+
+		// keep a connection per worker alive instead of the default 5
+		System.setProperty("http.maxConnections", Integer.toString(workers));
+		Outcome outcome;
+		try (ConfigurableApplicationContext context = BenchmarkApplication.start(WebApplicationType.SERVLET,
+				properties.toArray(new String[0]))) {
+			int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+			ShopTrafficLoadTest test = new ShopTrafficLoadTest(port, mix, new Zipf(products, exponent),
+					initialStock, workers);
+			test.importProducts();
+			System.out.printf("%d req/s for %d s, mix %s (listing:order:restock), Zipf %.2f over %d products "
+					+ "with %d items, %d workers, %s%n", rate, seconds, mixArgument, exponent, products, initialStock,
+					workers, properties);
+
+			test.run(rate, WARMUP_SECONDS);
+			test.maxLagNanos.set(0);
+			test.measuring = true;
+			long elapsed = test.run(rate, seconds);
+			test.print(rate, elapsed);
+			outcome = test.check();
+		}
+		System.exit(outcome == Outcome.OK || outcome == Outcome.INCONCLUSIVE && allowInconclusive ? 0 : 1);
+	}
+
+	/**
+	 * Starts the requests at the given rate for the given time and waits for all answers.
+	 *
+	 * @return the nanoseconds from the first due request until the last answer
+	 */
+	private long run(final int rate, final int seconds) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+		long count = (long) rate * seconds;
+		long start = System.nanoTime();
+		for (long i = 0; i < count; i++) {
+			long due = start + i * interval;
+			long wait = due - System.nanoTime();
+			while (wait > 0) {
+				LockSupport.parkNanos(wait);
+				wait = due - System.nanoTime();
+			}
+			maxLagNanos.accumulateAndGet(-wait, Math::max);
+			executor.execute(() -> send(due));
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.HOURS);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Sends one request of the mix, due at the given time.
+	 */
+	private void send(final long due) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int draw = random.nextInt(100);
+		int kind = draw < mix[0] ? 0 : draw < mix[0] + mix[1] ? 1 : 2;
+		int rank = zipf.next(random);
+		String path = kind == 0 ? "/api/products"
+				: kind == 1 ? "/api/order/products/" + (FIRST_PRODUCT_ID + rank) + "/1"
+						: "/api/add/products/" + (FIRST_PRODUCT_ID + rank) + "/" + RESTOCK_QUANTITY;
+
+		Request request = requests[kind];
+		StringBuilder body = kind == 1 ? new StringBuilder() : null;
+		int status;
+		try {
+			status = get(path, body);
+		} catch (IOException e) {
+			unknown(kind, rank);
+			request.failed(measuring);
+			return;
+		}
+		long latency = System.nanoTime() - due;
+
+		if (status == 200) {
+			if (kind == 1) {
+				ordered.incrementAndGet(rank);
+			} else if (kind == 2) {
+				restocked.addAndGet(rank, RESTOCK_QUANTITY);
+			}
+		} else if (status == 400 && kind == 1 && body.indexOf(ErrorResponse.NOT_ENOUGH_STOCK) >= 0) {
+			// sold out, an expected answer that changes nothing
+			if (measuring) {
+				request.soldOut.incrementAndGet();
+			}
+		} else {
+			if (status >= 500 && status != 503) {
+				// may have failed after the change was applied
+				unknown(kind, rank);
+			}
+			request.failed(measuring);
+			return;
+		}
+		if (measuring) {
+			request.latencies.recordValue(Math.min(latency, request.latencies.getHighestTrackableValue()));
+		}
+	}
+
+	/**
+	 * Counts an order or restock of the product of the given rank whose outcome is unknown.
+	 */
+	private void unknown(final int kind, final int rank) {
+		if (kind == 1) {
+			unknownOrders.incrementAndGet(rank);
+		} else if (kind == 2) {
+			unknownRestocks.incrementAndGet(rank);
+		}
+	}
+
+	private void print(final int rate, final long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		System.out.printf("%-8s %10s %10s %10s %10s %10s %10s %10s%n",
+				"request", "answered", "sold out", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms");
+		long answered = 0;
+		for (Request request : requests) {
+			Histogram latencies = request.latencies;
+			answered += latencies.getTotalCount();
+			System.out.printf("%-8s %10d %10d %10d %10.0f %10.2f %10.2f %10.2f%n", request.name,
+					latencies.getTotalCount(), request.soldOut.get(), request.errors.get(),
+					latencies.getTotalCount() / seconds,
+					latencies.getValueAtPercentile(50) / 1e6,
+					latencies.getValueAtPercentile(99) / 1e6,
+					latencies.getValueAtPercentile(99.9) / 1e6);
+		}
+		System.out.printf("intended %d req/s, answered %.0f req/s, max dispatch lag %.2f ms%n", rate,
+				answered / seconds, maxLagNanos.get() / 1e6);
+	}
+
+	/**
+	 * Compares the final stock of every product with its initial stock and the answered orders and restocks.
+	 *
+	 * @return FAILED if a stock is negative or differs by more than the unknown outcomes of its product can
+	 *         explain, INCONCLUSIVE if a stock differs within that range
+	 */
+	private Outcome check() throws IOException {
+		long[] stocks = readStocks();
+		int negative = 0;
+		int mismatches = 0;
+		int unexplained = 0;
+		long totalOrdered = 0;
+		long totalRestocked = 0;
+		long totalUnknown = 0;
+		for (int rank = 0; rank < stocks.length; rank++) {
+			long expected = initialStock - ordered.get(rank) + restocked.get(rank);
+			long lowest = expected - unknownOrders.get(rank);
+			long highest = expected + RESTOCK_QUANTITY * unknownRestocks.get(rank);
+			totalOrdered += ordered.get(rank);
+			totalRestocked += restocked.get(rank);
+			totalUnknown += unknownOrders.get(rank) + unknownRestocks.get(rank);
+			if (stocks[rank] < 0) {
+				negative++;
+			}
+			if (stocks[rank] != expected) {
+				mismatches++;
+				boolean explained = stocks[rank] >= lowest && stocks[rank] <= highest;
+				if (!explained) {
+					unexplained++;
+				}
+				if (mismatches <= 10) {
+					System.out.printf("product %d: stock %d, expected %d (%d to %d with the unknown outcomes)%n",
+							FIRST_PRODUCT_ID + rank, stocks[rank], expected, lowest, highest);
+				}
+			}
+		}
+		long soldOut = stocks.length - Arrays.stream(stocks).filter(stock -> stock > 0).count();
+		Outcome outcome = negative > 0 || unexplained > 0 ? Outcome.FAILED
+				: mismatches > 0 ? Outcome.INCONCLUSIVE : Outcome.OK;
+		System.out.printf("consistency: %d products, %d sold out, %d items ordered, %d restocked, "
+				+ "%d oversold, %d mismatches, %d beyond the %d unknown outcomes -> %s%n", stocks.length, soldOut,
+				totalOrdered, totalRestocked, negative, mismatches, unexplained, totalUnknown, outcome);
+		return outcome;
+	}
+
+	/**
+	 * Reads the stock of all load test products page by page.
+	 */
+	private long[] readStocks() throws IOException {
+		long[] stocks = new long[zipf.size()];
+		Arrays.fill(stocks, Long.MIN_VALUE);
+		long after = FIRST_PRODUCT_ID - 1;
+		while (after != -1) {
+			StringBuilder body = new StringBuilder();
+			if (get("/api/products/page?after=" + after + "&limit=" + PAGE_SIZE, body) != 200) {
+				throw new IOException("Reading the products failed: " + body);
+			}
+			JsonNode page = OBJECT_MAPPER.readTree(body.toString());
+			for (JsonNode product : page.get("products")) {
+				long rank = product.get("id").asLong() - FIRST_PRODUCT_ID;
+				if (rank >= 0 && rank < stocks.length) {
+					stocks[(int) rank] = product.get("stock").asLong();
+				}
+			}
+			JsonNode next = page.get("nextCursor");
+			after = next == null || next.isNull() || next.asLong() >= FIRST_PRODUCT_ID + stocks.length - 1 ? -1
+					: next.asLong();
+		}
+		return stocks;
+	}
+
+	/**
+	 * Imports the load test products as CSV, so the shop announces them like any imported product.
+	 */
+	private void importProducts() throws IOException {
+		StringBuilder csv = new StringBuilder("id,name,stock\n");
+		for (int rank = 0; rank < zipf.size(); rank++) {
+			csv.append(FIRST_PRODUCT_ID + rank).append(",Load Test Product ").append(rank).append(',')
+					.append(initialStock).append('\n');
+		}
+		HttpURLConnection connection = connect("/api/products/import");
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", "text/csv");
+		connection.setDoOutput(true);
+		try (OutputStream output = connection.getOutputStream()) {
+			output.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		if (connection.getResponseCode() != 200) {
+			throw new IOException("The import failed with " + connection.getResponseCode());
+		}
+		drain(connection, 200, null);
+	}
+
+	/**
+	 * @param body receives the body of the response, if not null
+	 * @return the status of the response
+	 */
+	private int get(final String path, final StringBuilder body) throws IOException {
+		HttpURLConnection connection = connect(path);
+		int status = connection.getResponseCode();
+		drain(connection, status, body);
+		return status;
+	}
+
+	private HttpURLConnection connect(final String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path)
+				.openConnection();
+		connection.setConnectTimeout(10_000);
+		connection.setReadTimeout(60_000);
+		return connection;
+	}
+
+	/**
+	 * Reads the whole body, so the connection is reused.
+	 */
+	private static void drain(final HttpURLConnection connection, final int status, final StringBuilder body)
+			throws IOException {
+		byte[] buffer = new byte[8192];
+		try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			for (int read = input == null ? -1 : input.read(buffer); read >= 0; read = input.read(buffer)) {
+				if (body != null) {
+					body.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The result of the stock check.
+	 */
+	private enum Outcome {
+		OK, INCONCLUSIVE, FAILED
+	}
+
+	/**
+	 * The outcomes and the latencies in nanoseconds of one kind of request.
+	 */
+	private static final class Request {
+		private final String name;
+
+		private final Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toNanos(1), 3);
+
+		private final AtomicLong soldOut = new AtomicLong();
+
+		private final AtomicLong errors = new AtomicLong();
+
+		Request(final String name) {
+			this.name = name;
+		}
+
+		void failed(final boolean measuring) {
+			if (measuring) {
+				errors.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Draws ranks from 0 to size - 1, the rank k with a probability proportional to 1 / (k + 1)^exponent.
+	 */
+	private static final class Zipf {
+		private final double[] cumulative;
+
+		Zipf(final int size, final double exponent) {
+			cumulative = new double[size];
+			double sum = 0;
+			for (int rank = 0; rank < size; rank++) {
+				sum += 1 / Math.pow(rank + 1, exponent);
+				cumulative[rank] = sum;
+			}
+			for (int rank = 0; rank < size; rank++) {
+				cumulative[rank] /= sum;
+			}
+		}
+
+		int size() {
+			return cumulative.length;
+		}
+
+		int next(final ThreadLocalRandom random) {
+			int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+			return Math.min(rank < 0 ? -rank - 1 : rank, cumulative.length - 1);
+		}
+	}
+}
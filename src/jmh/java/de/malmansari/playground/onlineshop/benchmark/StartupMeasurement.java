@@ -0,0 +1,142 @@
+package de.malmansari.playground.onlineshop.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import de.malmansari.playground.onlineshop.OnlineShopApplication;
+
+/**
+ * <pre>
+ * Measures the startup time and the latency of the first
+ * requests with the default and with the production profile.
+ *
+ * Every run starts the shop in a fresh JVM, nothing is
+ * compiled or connected yet. The startup is measured from the
+ * start of the JVM until the application is ready, including
+ * the warmup of the production profile. Then the first catalog
+ * read, order and stock refill are timed one after the other,
+ * followed by a second order. The averages over the runs are
+ * printed per profile.
+ *
+ * Arguments (all optional):
+ *  - the number of runs per profile, 5 by default
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public final class StartupMeasurement {
+	private static final String[] PROFILES = { "default", "production" };
+
+	private static final String[] COLUMNS = { "ready ms", "catalog ms", "order ms", "add ms", "2nd order ms" };
+
+	private static final String RESULT = "STARTUP-RESULT";
+
+	private StartupMeasurement() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 1 && args[0].equals("probe")) {
+			probe(args[1]);
+			return;
+		}
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+		System.out.printf("%-12s", "profile");
+		for (String column : COLUMNS) {
+			System.out.printf(" %12s", column);
+		}
+		System.out.println();
+		for (String profile : PROFILES) {
+			double[] sums = new double[COLUMNS.length];
+			for (int run = 0; run < runs; run++) {
+				double[] values = fork(profile);
+				for (int i = 0; i < sums.length; i++) {
+					sums[i] += values[i];
+				}
+			}
+			System.out.printf("%-12s", profile);
+			for (double sum : sums) {
+				System.out.printf(" %12.1f", sum / runs);
+			}
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Runs the probe in a new JVM with the same classpath.
+	 */
+	private static double[] fork(final String profile) throws IOException, InterruptedException {
+		Process process = new ProcessBuilder(
+				System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+				"-classpath", System.getProperty("java.class.path"),
+				StartupMeasurement.class.getName(), "probe", profile)
+				.redirectErrorStream(true)
+				.start();
+
+		double[] values = null;
+		try (BufferedReader output = new BufferedReader(
+				new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			for (String line = output.readLine(); line != null; line = output.readLine()) {
+				if (line.startsWith(RESULT)) {
+					values = Arrays.stream(line.substring(RESULT.length()).trim().split(" "))
+							.mapToDouble(Double::parseDouble)
+							.toArray();
+				}
+			}
+		}
+		if (process.waitFor() != 0 || values == null) {
+			throw new IllegalStateException("The " + profile + " probe failed");
+		}
+		return values;
+	}
+
+	private static void probe(final String profile) throws IOException {
+		SpringApplication application = new SpringApplication(OnlineShopApplication.class);
+		if (!profile.equals("default")) {
+			application.setAdditionalProfiles(profile);
+		}
+		try (ConfigurableApplicationContext context = application.run("--server.port=0",
+				"--logging.level.root=WARN")) {
+			long ready = ManagementFactory.getRuntimeMXBean().getUptime();
+			int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+			double catalog = request(port, "/api/products");
+			double order = request(port, "/api/order/products/1/1");
+			double add = request(port, "/api/add/products/1/1");
+			double secondOrder = request(port, "/api/order/products/1/1");
+			System.out.println(RESULT + " " + ready + " " + catalog + " " + order + " " + add + " " + secondOrder);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * @return the latency of the request in milliseconds
+	 */
+	private static double request(final int port, final String path) throws IOException {
+		long start = System.nanoTime();
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path)
+				.openConnection();
+		if (connection.getResponseCode() != 200) {
+			throw new IllegalStateException(path + " failed with " + connection.getResponseCode());
+		}
+		byte[] buffer = new byte[8192];
+		try (InputStream body = connection.getInputStream()) {
+			while (body.read(buffer) >= 0) {
+				// drain the body
+			}
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+}
@@ -0,0 +1,93 @@
+package de.malmansari.playground.onlineshop.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+/**
+ * <pre>
+ * Compares the throughput of the stock update modes of the
+ * database path at different contention levels.
+ * 
+ * Every order goes to a random one of the first hotProducts
+ * benchmark products, so one hot product is the highest and
+ * {@link BenchmarkApplication#PRODUCTS} the lowest contention.
+ * The optimistic orders failing after all attempts are counted 
+ * as conflicts instead of failing the benchmark.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StockUpdateModeBenchmark {
+	@Param({ "atomic", "optimistic", "pessimistic" })
+	public String mode;
+
+	@Param({ "1", "8", "64" })
+	public int hotProducts;
+
+	private ConfigurableApplicationContext context;
+
+	private ProductService productService;
+
+	@Setup(Level.Trial)
+	public void startApplication() {
+		context = BenchmarkApplication.start("onlineshop.stock-updates.mode=" + mode);
+		productService = context.getBean(ProductService.class);
+	}
+
+	@TearDown(Level.Trial)
+	public void stopApplication() {
+		context.close();
+	}
+
+	/**
+	 * The outcomes of the orders of one benchmark thread.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Outcomes {
+		public long conflicts;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			conflicts = 0;
+		}
+	}
+
+	@Benchmark
+	public Product order(Outcomes outcomes) {
+		long productId = BenchmarkApplication.FIRST_PRODUCT_ID + ThreadLocalRandom.current().nextInt(hotProducts);
+		try {
+			return productService.order(productId, 1);
+		} catch (OptimisticLockingFailureException e) {
+			outcomes.conflicts++;
+			return null;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package de.malmansari.playground.onlineshop.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * A concurrency limit adapting to the observed latency with
+ * additive increase and multiplicative decrease (AIMD).
+ *
+ * The baseline is a slow moving average of the latencies. A 
+ * call slower than tolerance times the baseline means calls are
+ * queueing up somewhere, e.g. for a connection or a row lock, 
+ * so the limit is multiplied by the backoff ratio, but only 
+ * once per round: calls started before the last decrease do 
+ * not decrease it again. Otherwise, while at least half of the 
+ * limit is used, it grows by 1 / limit per call, i.e. by about
+ * one per round. If the service gets slower for good, the 
+ * baseline follows and the limit recovers.
+ *
+ * The state is kept in atomics and updated by compare-and-set,
+ * the calls never wait for each other. The decrease of a round
+ * is made by the call which moves the time of the last decrease.
+ * A latency sample which loses against a concurrent one is
+ * dropped from the baseline; a slow moving average does not 
+ * miss it.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public class AdaptiveConcurrencyLimit {
+	/**
+	 * Returned by {@link #tryAcquire()} if the limit is reached.
+	 */
+	public static final long NO_PERMIT = Long.MIN_VALUE;
+
+	private static final double BASELINE_WEIGHT = 0.001;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final double tolerance;
+
+	private final double backoffRatio;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/**
+	 * The bits of the limit as a double.
+	 */
+	private final AtomicLong limit;
+
+	/**
+	 * The bits of the average latency in nanos as a double, 0 before the first call.
+	 */
+	private final AtomicLong baselineNanos = new AtomicLong();
+
+	/**
+	 * The time of the last decrease.
+	 */
+	private final AtomicLong decreasedAt = new AtomicLong(System.nanoTime());
+
+	public AdaptiveConcurrencyLimit(final int initialLimit, final int minLimit, final int maxLimit,
+			final double tolerance, final double backoffRatio) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.tolerance = tolerance;
+		this.backoffRatio = backoffRatio;
+		this.limit = new AtomicLong(Double.doubleToRawLongBits(Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+	}
+
+	/**
+	 * Takes a permit if the limit is not reached.
+	 *
+	 * @return the start of the call to be passed to {@link #release(long)}, or {@link #NO_PERMIT}
+	 */
+	public long tryAcquire() {
+		return tryAcquire(System.nanoTime());
+	}
+
+	long tryAcquire(final long now) {
+		for (int current = inFlight.get(); current < getLimit(); current = inFlight.get()) {
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return now;
+			}
+		}
+		return NO_PERMIT;
+	}
+
+	/**
+	 * Gives the permit back and adapts the limit to the latency of the call.
+	 *
+	 * @param start the start returned by {@link #tryAcquire()}
+	 */
+	public void release(final long start) {
+		release(start, System.nanoTime());
+	}
+
+	void release(final long start, final long now) {
+		int used = inFlight.getAndDecrement();
+		long latency = now - start;
+		long baselineBits = baselineNanos.get();
+		if (baselineBits == 0 && baselineNanos.compareAndSet(0, Double.doubleToRawLongBits(latency))) {
+			baselineBits = baselineNanos.get();
+		}
+		double baseline = Double.longBitsToDouble(baselineBits);
+
+		if (latency > tolerance * baseline) {
+			long lastDecrease = decreasedAt.get();
+			if (start - lastDecrease >= 0 && decreasedAt.compareAndSet(lastDecrease, now)) {
+				adapt(true, used);
+			}
+		} else {
+			adapt(false, used);
+		}
+		baselineNanos.compareAndSet(baselineBits,
+				Double.doubleToRawLongBits(baseline + (latency - baseline) * BASELINE_WEIGHT));
+	}
+
+	/**
+	 * Decreases the limit, or increases it if at least half of it was used.
+	 */
+	private void adapt(final boolean decrease, final int used) {
+		long bits;
+		double adapted;
+		do {
+			bits = limit.get();
+			double current = Double.longBitsToDouble(bits);
+			if (decrease) {
+				adapted = Math.max(minLimit, current * backoffRatio);
+			} else if (used * 2 >= current) {
+				adapted = Math.min(maxLimit, current + 1 / current);
+			} else {
+				return;
+			}
+		} while (!limit.compareAndSet(bits, Double.doubleToRawLongBits(adapted)));
+	}
+
+	/**
+	 * @return the current limit
+	 */
+	public int getLimit() {
+		return (int) Double.longBitsToDouble(limit.get());
+	}
+
+	/**
+	 * @return the number of calls holding a permit
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the average latency the calls are compared to, in nanos
+	 */
+	public double getBaselineNanos() {
+		return Double.longBitsToDouble(baselineNanos.get());
+	}
+}
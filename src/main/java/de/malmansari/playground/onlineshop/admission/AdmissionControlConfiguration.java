@@ -0,0 +1,92 @@
+package de.malmansari.playground.onlineshop.admission;
+
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.RootClassFilter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+
+import de.malmansari.playground.onlineshop.service.ProductService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <pre>
+ * Sheds the {@link ProductService} calls exceeding the adaptive
+ * concurrency limits, see {@link AdmissionControlInterceptor}.
+ *
+ * The admission control is only active if the property
+ * onlineshop.admission.enabled is set to true. It runs right
+ * inside the service metrics, so the shed calls are counted 
+ * there as errors. The limits, the calls in flight and the 
+ * latency baselines are exposed per traffic (read or write) as
+ * the gauges onlineshop.admission.limit, .in-flight and 
+ * .baseline.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Configuration
+@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+@ConditionalOnProperty(name = "onlineshop.admission.enabled", havingValue = "true")
+public class AdmissionControlConfiguration {
+
+	@Bean
+	@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+	public AdmissionControlInterceptor admissionControlInterceptor(
+			@Value("${onlineshop.admission.read.initial-limit:50}") int readInitialLimit,
+			@Value("${onlineshop.admission.read.max-limit:500}") int readMaxLimit,
+			@Value("${onlineshop.admission.write.initial-limit:20}") int writeInitialLimit,
+			@Value("${onlineshop.admission.write.max-limit:200}") int writeMaxLimit,
+			@Value("${onlineshop.admission.min-limit:2}") int minLimit,
+			@Value("${onlineshop.admission.tolerance:2.0}") double tolerance,
+			@Value("${onlineshop.admission.backoff-ratio:0.9}") double backoffRatio) {
+		return new AdmissionControlInterceptor(
+				new AdaptiveConcurrencyLimit(readInitialLimit, minLimit, readMaxLimit, tolerance, backoffRatio),
+				new AdaptiveConcurrencyLimit(writeInitialLimit, minLimit, writeMaxLimit, tolerance, backoffRatio));
+	}
+
+	@Bean
+	@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+	public Advisor admissionControlAdvisor(AdmissionControlInterceptor admissionControlInterceptor) {
+		DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(
+				new ComposablePointcut(new RootClassFilter(ProductService.class)), admissionControlInterceptor);
+		advisor.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+		return advisor;
+	}
+
+	@Bean
+	public SmartInitializingSingleton admissionControlMetrics(AdmissionControlInterceptor admissionControlInterceptor,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		return () -> {
+			MeterRegistry registry = meterRegistry.getObject();
+			register(registry, "read", admissionControlInterceptor.getReadLimit());
+			register(registry, "write", admissionControlInterceptor.getWriteLimit());
+		};
+	}
+
+	private static void register(final MeterRegistry registry, final String traffic,
+			final AdaptiveConcurrencyLimit limit) {
+		Gauge.builder("onlineshop.admission.limit", limit, AdaptiveConcurrencyLimit::getLimit)
+				.description("Concurrent service calls admitted")
+				.tag("traffic", traffic)
+				.register(registry);
+		Gauge.builder("onlineshop.admission.in-flight", limit, AdaptiveConcurrencyLimit::getInFlight)
+				.description("Service calls holding a permit")
+				.tag("traffic", traffic)
+				.register(registry);
+		Gauge.builder("onlineshop.admission.baseline", limit, l -> l.getBaselineNanos() / 1_000_000)
+				.description("Average latency of the service calls the limit adapts to, in milliseconds")
+				.tag("traffic", traffic)
+				.register(registry);
+	}
+}
@@ -0,0 +1,74 @@
+package de.malmansari.playground.onlineshop.admission;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import de.malmansari.playground.onlineshop.exception.ServiceOverloadedException;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+/**
+ * <pre>
+ * Admits the {@link ProductService} calls through one adaptive 
+ * limit for the reads and another one for the writes, so a 
+ * write overload, e.g. orders waiting for row locks, never
+ * sheds the reads and vice versa. A call beyond its limit is
+ * rejected right away with a {@link ServiceOverloadedException}
+ * instead of queueing up.
+ *
+ * The bulk reads like forEachProduct and the in-memory calls
+ * like confirm are not limited.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public class AdmissionControlInterceptor implements MethodInterceptor {
+	private static final Set<String> READS = Collections.unmodifiableSet(
+			new HashSet<>(Arrays.asList("getAllProducts", "getProducts", "getProductPage")));
+
+	private static final Set<String> WRITES = Collections.unmodifiableSet(new HashSet<>(
+			Arrays.asList("order", "orderOnce", "orderBatch", "addToStock", "reserve", "release")));
+
+	private final AdaptiveConcurrencyLimit readLimit;
+
+	private final AdaptiveConcurrencyLimit writeLimit;
+
+	public AdmissionControlInterceptor(final AdaptiveConcurrencyLimit readLimit,
+			final AdaptiveConcurrencyLimit writeLimit) {
+		this.readLimit = readLimit;
+		this.writeLimit = writeLimit;
+	}
+
+	public AdaptiveConcurrencyLimit getReadLimit() {
+		return readLimit;
+	}
+
+	public AdaptiveConcurrencyLimit getWriteLimit() {
+		return writeLimit;
+	}
+
+	@Override
+	public Object invoke(final MethodInvocation invocation) throws Throwable {
+		String method = invocation.getMethod().getName();
+		AdaptiveConcurrencyLimit limit = WRITES.contains(method) ? writeLimit
+				: READS.contains(method) ? readLimit : null;
+		if (limit == null) {
+			return invocation.proceed();
+		}
+
+		long start = limit.tryAcquire();
+		if (start == AdaptiveConcurrencyLimit.NO_PERMIT) {
+			throw new ServiceOverloadedException("Too many requests, please try again later");
+		}
+		try {
+			return invocation.proceed();
+		} finally {
+			limit.release(start);
+		}
+	}
+}
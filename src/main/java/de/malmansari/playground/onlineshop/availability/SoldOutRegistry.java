@@ -0,0 +1,275 @@
+package de.malmansari.playground.onlineshop.availability;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+import de.malmansari.playground.onlineshop.service.ProductsImportedEvent;
+import de.malmansari.playground.onlineshop.sharding.ShardForwardingInterceptor;
+import de.malmansari.playground.onlineshop.util.LongIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <pre>
+ * Knows the sold out and the unknown products, so their orders
+ * are rejected before they enter the transactional service.
+ *
+ * Every changed product gets a slot in a primitive index by
+ * id, the slot holds the number of the latest applied stock
+ * change and whether the stock was 0. The checks look up
+ * the slot without a lock and without allocating. The stock
+ * changes are applied right after their commit, so a refill
+ * admits the orders again as soon as it is committed.
+ *
+ * The listeners of the changes run in the committing threads
+ * and may overtake each other. A change is only applied if it
+ * is newer than the applied one, see
+ * {@link ProductStockChangedEvent#getSequence()}; otherwise a
+ * late sold out change could hide a refill. The state read at
+ * startup is older than any change.
+ *
+ * The ids of the products not found by the service are kept in
+ * a second index, up to a maximum; when it is full it starts
+ * over. An import may add products, so it forgets all of them.
+ *
+ * The filter is disabled with the stock ledger, the ledger
+ * already answers from memory. With sharding, only the
+ * products owned by this node are known, the others are
+ * checked by their owner.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+public class SoldOutRegistry {
+	private static final Logger LOG = LoggerFactory.getLogger(SoldOutRegistry.class);
+
+	private static final long SOLD_OUT = 1;
+
+	private final ProductService productService;
+
+	private final ShardForwardingInterceptor shardForwarding;
+
+	private final boolean enabled;
+
+	private final int maxUnknownIds;
+
+	private final Counter soldOutRejections;
+
+	private final Counter unknownRejections;
+
+	/**
+	 * The slots of the products by id, inserted under the lock of this registry.
+	 */
+	private final LongIndex slots = new LongIndex();
+
+	/**
+	 * The sequence of the latest applied change per slot, shifted left by one, with {@link #SOLD_OUT} as lowest
+	 * bit, 0 while none was applied. Written under the lock, it is replaced by a larger copy before a slot beyond
+	 * its end is inserted.
+	 */
+	private volatile AtomicLongArray states = new AtomicLongArray(16);
+
+	private volatile LongIndex unknownIds = new LongIndex();
+
+	/**
+	 * The number of imports applied, guarded by this registry.
+	 */
+	private long imports;
+
+	public SoldOutRegistry(ProductService productService,
+			ObjectProvider<ShardForwardingInterceptor> shardForwarding, ObjectProvider<MeterRegistry> meterRegistry,
+			@Value("${onlineshop.sold-out-filter.enabled:true}") boolean enabled,
+			@Value("${onlineshop.stock-ledger.enabled:false}") boolean stockLedgerEnabled,
+			@Value("${onlineshop.sold-out-filter.max-unknown-ids:65536}") int maxUnknownIds) {
+		this.productService = productService;
+		this.shardForwarding = shardForwarding.getIfAvailable();
+		this.enabled = enabled && !stockLedgerEnabled;
+		this.maxUnknownIds = maxUnknownIds;
+		MeterRegistry registry = meterRegistry.getIfAvailable();
+		this.soldOutRejections = registry == null ? null : rejections(registry, "sold_out");
+		this.unknownRejections = registry == null ? null : rejections(registry, "unknown");
+	}
+
+	/**
+	 * Rejects an order of a sold out or an unknown product.
+	 *
+	 * @param id the id of the product
+	 * @throws ProductNotFoundException if the product is known to be unknown
+	 * @throws ProductHasNotEnoughStockException if the product is known to be sold out
+	 */
+	public void checkOrderable(final long id) {
+		checkKnown(id);
+		if (isSoldOut(id)) {
+			count(soldOutRejections);
+			throw ProductHasNotEnoughStockException.INSTANCE;
+		}
+	}
+
+	/**
+	 * Rejects a request for an unknown product.
+	 *
+	 * @param id the id of the product
+	 * @throws ProductNotFoundException if the product is known to be unknown
+	 */
+	public void checkKnown(final long id) {
+		if (isUnknown(id)) {
+			count(unknownRejections);
+			throw ProductNotFoundException.INSTANCE;
+		}
+	}
+
+	/**
+	 * @param id the id of the product
+	 * @return whether the stock of the product was 0 at its latest change
+	 */
+	public boolean isSoldOut(final long id) {
+		int slot = slots.get(id);
+		return slot != LongIndex.NO_SLOT && (states.get(slot) & SOLD_OUT) != 0;
+	}
+
+	/**
+	 * @param id the id of the product
+	 * @return whether the product was not found since the latest import
+	 */
+	public boolean isUnknown(final long id) {
+		return unknownIds.get(id) != LongIndex.NO_SLOT;
+	}
+
+	/**
+	 * @return the number of imports applied, to be passed to {@link #markUnknown(long, long)}
+	 */
+	public synchronized long getImports() {
+		return imports;
+	}
+
+	/**
+	 * Remembers a product not found by the service.
+	 *
+	 * @param id the id of the product
+	 * @param imports the number of imports applied before the product was looked up, an import since may have
+	 *        added it
+	 */
+	public synchronized void markUnknown(final long id, final long imports) {
+		if (!enabled || imports != this.imports || !isOwned(id)) {
+			return;
+		}
+		if (unknownIds.size() >= maxUnknownIds) {
+			unknownIds = new LongIndex();
+		}
+		unknownIds.putIfAbsent(id, 0);
+	}
+
+	/**
+	 * Flags the sold out products of the database, unless a change of theirs was already applied.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void rebuild() {
+		if (!enabled) {
+			return;
+		}
+		productService.forEachProduct(product -> {
+			if (product.getStock() == 0) {
+				apply(product, 0);
+			}
+		});
+		LOG.info("Sold out products are rejected before the service");
+	}
+
+	/**
+	 * Flags or clears the changed product.
+	 *
+	 * @param event the stock change
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onStockChanged(final ProductStockChangedEvent event) {
+		if (enabled) {
+			apply(event.getProduct(), event.getSequence());
+		}
+	}
+
+	/**
+	 * Flags or clears the imported products and forgets the unknown ones.
+	 *
+	 * @param event the import of a chunk of products
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onProductsImported(final ProductsImportedEvent event) {
+		if (!enabled) {
+			return;
+		}
+		synchronized (this) {
+			imports++;
+			unknownIds = new LongIndex();
+		}
+		for (Product product : event.getProducts()) {
+			apply(product, event.getSequence());
+		}
+	}
+
+	/**
+	 * Applies the stock of the given product if the change is newer than the applied one.
+	 */
+	private synchronized void apply(final Product product, final long sequence) {
+		long id = product.getId();
+		boolean soldOut = product.getStock() == 0;
+		int slot = slots.get(id);
+		if (slot == LongIndex.NO_SLOT) {
+			if (!isOwned(id) || !soldOut && sequence == 0) {
+				return;
+			}
+			slot = insert(id);
+		}
+		long applied = states.get(slot);
+		if (applied != 0 && (applied >>> 1) >= sequence) {
+			return;
+		}
+		states.set(slot, sequence << 1 | (soldOut ? SOLD_OUT : 0));
+	}
+
+	/**
+	 * Inserts a slot for the given product, growing the states before the slot can be seen.
+	 */
+	private int insert(final long id) {
+		int slot = slots.size();
+		if (slot == states.length()) {
+			AtomicLongArray grown = new AtomicLongArray(slot * 2);
+			for (int i = 0; i < slot; i++) {
+				grown.set(i, states.get(i));
+			}
+			states = grown;
+		}
+		return slots.putIfAbsent(id, slot);
+	}
+
+	private boolean isOwned(final long id) {
+		return shardForwarding == null || shardForwarding.owns(id);
+	}
+
+	private static void count(final Counter counter) {
+		if (counter != null) {
+			counter.increment();
+		}
+	}
+
+	private static Counter rejections(final MeterRegistry registry, final String reason) {
+		return Counter.builder("onlineshop.orders.filtered")
+				.description("Orders rejected before the product service")
+				.tag("reason", reason)
+				.register(registry);
+	}
+}
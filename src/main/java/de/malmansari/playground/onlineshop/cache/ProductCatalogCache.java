@@ -0,0 +1,210 @@
+package de.malmansari.playground.onlineshop.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.serialization.ProductEncoding;
+import de.malmansari.playground.onlineshop.serialization.ProductWriter;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+import de.malmansari.playground.onlineshop.service.ProductsImportedEvent;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Value;
+
+/**
+ * <pre>
+ * A read-through cache of the serialized product list as
+ * returned by {@link ProductService#getAllProducts()}.
+ *
+ * The catalog is held as a ready to send JSON byte array
+ * together with its ETag. Every product is serialized on its
+ * own, so a stock change only re-reads and re-serializes the
+ * changed products on the next read, not the whole catalog.
+ * Only an import reloads the whole catalog. The binary 
+ * encodings of a snapshot are written on their first request.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+public class ProductCatalogCache {
+	private final ProductService productService;
+
+	private final ProductWriter productWriter;
+
+	/**
+	 * Distinguishes the ETags of different application runs.
+	 */
+	private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+	/**
+	 * Counts the stock changes, a snapshot is current if it has seen all of them.
+	 */
+	private final AtomicLong changes = new AtomicLong();
+
+	private final Set<Long> changedIds = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Whether the whole catalog has to be reloaded, set before the changes are counted.
+	 */
+	private volatile boolean reloadAll;
+
+	/**
+	 * The serialized products by id, guarded by this cache.
+	 */
+	private Map<Long, byte[]> entries;
+
+	/**
+	 * The products by id, guarded by this cache.
+	 */
+	private Map<Long, Product> products;
+
+	private volatile Snapshot snapshot;
+
+	public ProductCatalogCache(ProductService productService, ProductWriter productWriter) {
+		this.productService = productService;
+		this.productWriter = productWriter;
+	}
+
+	/**
+	 * Returns the current catalog, refreshing the changed products if needed.
+	 *
+	 * @return the serialized catalog and its ETag
+	 */
+	public Snapshot get() {
+		Snapshot current = snapshot;
+		if (current != null && current.getChanges() == changes.get()) {
+			return current;
+		}
+		return refresh();
+	}
+
+	/**
+	 * Returns the catalog of the given snapshot in the given encoding.
+	 *
+	 * @param catalog the snapshot returned by {@link #get()}
+	 * @param encoding the format to be returned
+	 * @return the serialized catalog
+	 */
+	public byte[] encoded(final Snapshot catalog, final ProductEncoding encoding) {
+		if (encoding == ProductEncoding.JSON) {
+			return catalog.getJson();
+		}
+		return catalog.encodings.computeIfAbsent(encoding,
+				binary -> productWriter.toBytes(catalog.getProducts(), binary));
+	}
+
+	/**
+	 * Marks the changed product to be re-read on the next access.
+	 *
+	 * @param event the stock change
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onStockChanged(final ProductStockChangedEvent event) {
+		changedIds.add(event.getProduct().getId());
+		changes.incrementAndGet();
+	}
+
+	/**
+	 * Marks the whole catalog to be reloaded on the next access.
+	 *
+	 * @param event the import of a chunk of products
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onProductsImported(final ProductsImportedEvent event) {
+		reloadAll = true;
+		changes.incrementAndGet();
+	}
+
+	private synchronized Snapshot refresh() {
+		long seen = changes.get();
+		Snapshot current = snapshot;
+		if (current != null && current.getChanges() == seen) {
+			return current;
+		}
+
+		if (entries == null || reloadAll) {
+			reloadAll = false;
+			changedIds.clear();
+			entries = new TreeMap<>();
+			products = new TreeMap<>();
+			productService.getAllProducts().forEach(this::put);
+		} else if (!changedIds.isEmpty()) {
+			List<Long> ids = new ArrayList<>(changedIds);
+			changedIds.removeAll(ids);
+			productService.getProducts(ids).forEach(this::put);
+		}
+
+		snapshot = new Snapshot(assemble(), "\"" + epoch + "-" + Long.toHexString(seen) + "\"", seen,
+				Collections.unmodifiableList(new ArrayList<>(products.values())));
+		return snapshot;
+	}
+
+	private void put(final Product product) {
+		entries.put(product.getId(), productWriter.toBytes(product, ProductEncoding.JSON));
+		products.put(product.getId(), product);
+	}
+
+	private byte[] assemble() {
+		int size = entries.size() + 1;
+		for (byte[] entry : entries.values()) {
+			size += entry.length;
+		}
+
+		ByteArrayOutputStream json = new ByteArrayOutputStream(size);
+		json.write('[');
+		boolean first = true;
+		for (byte[] entry : entries.values()) {
+			if (!first) {
+				json.write(',');
+			}
+			json.write(entry, 0, entry.length);
+			first = false;
+		}
+		json.write(']');
+		return json.toByteArray();
+	}
+
+	/**
+	 * The serialized catalog at a certain point of time.
+	 */
+	@Value
+	public static class Snapshot {
+		private final byte[] json;
+
+		private final String etag;
+
+		private final long changes;
+
+		private final List<Product> products;
+
+		@Getter(AccessLevel.NONE)
+		private final ConcurrentMap<ProductEncoding, byte[]> encodings = new ConcurrentHashMap<>();
+
+		/**
+		 * @param encoding the format of the catalog
+		 * @return the ETag of the catalog in the given format
+		 */
+		public String getEtag(final ProductEncoding encoding) {
+			if (encoding == ProductEncoding.JSON) {
+				return etag;
+			}
+			return etag.substring(0, etag.length() - 1) + "-" + encoding.name().toLowerCase() + "\"";
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package de.malmansari.playground.onlineshop.catalog;
+
+import de.malmansari.playground.onlineshop.exception.InvalidCatalogException;
+
+/**
+ * <pre>
+ * The file formats of a product catalog:
+ *  - CSV with the columns id,name,stock and an optional header
+ *  - newline delimited JSON, one product object per line
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+public enum CatalogFormat {
+	CSV("text/csv"),
+	NDJSON("application/x-ndjson");
+
+	private final String mediaType;
+
+	CatalogFormat(final String mediaType) {
+		this.mediaType = mediaType;
+	}
+
+	public String getMediaType() {
+		return mediaType;
+	}
+
+	/**
+	 * Returns the format of the given name or media type, e.g. csv or text/csv.
+	 * 
+	 * @param format the name or the media type, parameters like the charset are ignored
+	 * @return the format
+	 */
+	public static CatalogFormat of(final String format) {
+		String name = format.split(";")[0].trim();
+		for (CatalogFormat candidate : values()) {
+			if (candidate.name().equalsIgnoreCase(name) || candidate.mediaType.equalsIgnoreCase(name)) {
+				return candidate;
+			}
+		}
+		throw new InvalidCatalogException("Unknown catalog format " + name);
+	}
+}
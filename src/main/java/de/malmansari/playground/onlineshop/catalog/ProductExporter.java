@@ -0,0 +1,139 @@
+package de.malmansari.playground.onlineshop.catalog;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.model.TransferReport;
+import de.malmansari.playground.onlineshop.serialization.ProductEncoding;
+import de.malmansari.playground.onlineshop.serialization.ProductWriter;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+/**
+ * <pre>
+ * Exports all products in ascending id order in a format the
+ * {@link ProductImporter} reads.
+ *
+ * The products are written while they are read from the
+ * database cursor, see {@link ProductService#forEachProduct},
+ * so the memory use does not depend on the number of products.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+public class ProductExporter {
+	private static final Logger LOG = LoggerFactory.getLogger(ProductExporter.class);
+
+	private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+	private final ProductService productService;
+
+	private final ProductWriter productWriter;
+
+	public ProductExporter(ProductService productService, ProductWriter productWriter) {
+		this.productService = productService;
+		this.productWriter = productWriter;
+	}
+
+	/**
+	 * Writes all products to the given stream.
+	 *
+	 * @param output the stream to write to, UTF-8 encoded, it is not closed
+	 * @param format the format to be written
+	 * @return the number of exported products and the throughput
+	 * @throws IOException if the stream cannot be written
+	 */
+	public TransferReport exportProducts(final OutputStream output, final CatalogFormat format) throws IOException {
+		Progress progress = new Progress();
+		try {
+			if (format == CatalogFormat.CSV) {
+				Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+				writer.write("id,name,stock\n");
+				productService.forEachProduct(product -> writeCsv(writer, product, progress));
+				writer.flush();
+			} else {
+				JsonGenerator generator = productWriter.createGenerator(output, ProductEncoding.JSON);
+				productService.forEachProduct(product -> writeJson(generator, product, progress));
+				generator.close();
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		TransferReport report = progress.report();
+		LOG.info("Exported {} products in {} ms, {} products/s", report.getProducts(), report.getMillis(),
+				report.getProductsPerSecond());
+		return report;
+	}
+
+	private static void writeCsv(final Writer writer, final Product product, final Progress progress) {
+		try {
+			writer.write(Long.toString(product.getId()));
+			writer.write(',');
+			String name = product.getName() == null ? "" : product.getName();
+			if (name.indexOf(',') >= 0 || name.indexOf('"') >= 0) {
+				writer.write('"');
+				writer.write(name.replace("\"", "\"\""));
+				writer.write('"');
+			} else {
+				writer.write(name);
+			}
+			writer.write(',');
+			writer.write(Long.toString(product.getStock()));
+			writer.write('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		progress.exported();
+	}
+
+	private static void writeJson(final JsonGenerator generator, final Product product, final Progress progress) {
+		try {
+			ProductWriter.write(generator, product);
+			generator.writeRaw('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		progress.exported();
+	}
+
+	/**
+	 * Counts the exported products and logs the throughput now and then.
+	 */
+	private static final class Progress {
+		private final long start = System.currentTimeMillis();
+
+		private long nextLog = start + PROGRESS_INTERVAL_MILLIS;
+
+		private long products;
+
+		void exported() {
+			// the clock is only read every 4096 products
+			if ((++products & 4095) == 0) {
+				long now = System.currentTimeMillis();
+				if (now >= nextLog) {
+					LOG.info("Exported {} products so far, {} products/s", products,
+							new TransferReport(products, now - start).getProductsPerSecond());
+					nextLog = now + PROGRESS_INTERVAL_MILLIS;
+				}
+			}
+		}
+
+		TransferReport report() {
+			return new TransferReport(products, System.currentTimeMillis() - start);
+		}
+	}
+}
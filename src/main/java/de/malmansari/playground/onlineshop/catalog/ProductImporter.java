@@ -0,0 +1,253 @@
+package de.malmansari.playground.onlineshop.catalog;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.malmansari.playground.onlineshop.exception.InvalidCatalogException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.model.TransferReport;
+import de.malmansari.playground.onlineshop.service.ProductsImportedEvent;
+import de.malmansari.playground.onlineshop.sharding.ShardForwardingInterceptor;
+import de.malmansari.playground.onlineshop.storage.ProductStore;
+
+/**
+ * <pre>
+ * Imports a product catalog of any size.
+ *
+ * The products are read one by one from the stream and
+ * inserted or overwritten by the {@link ProductStore}, one
+ * chunk at once, e.g. as a plain JDBC batch per transaction,
+ * so at most one chunk is held in memory.
+ *
+ * The import is not atomic: if a line cannot be read, the
+ * chunks before it stay imported. Every written chunk is
+ * announced as a {@link ProductsImportedEvent}.
+ *
+ * With sharding, only the products owned by this node are
+ * imported, the others are skipped, so the whole catalog is
+ * imported on every node.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+public class ProductImporter {
+	private static final Logger LOG = LoggerFactory.getLogger(ProductImporter.class);
+
+	private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+	private final ProductStore productStore;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	private final ObjectMapper objectMapper;
+
+	private final ShardForwardingInterceptor shardForwarding;
+
+	private final int chunkSize;
+
+	public ProductImporter(ProductStore productStore, ApplicationEventPublisher eventPublisher,
+			ObjectMapper objectMapper, ObjectProvider<ShardForwardingInterceptor> shardForwarding,
+			@Value("${onlineshop.catalog.import-chunk-size:5000}") int chunkSize) {
+		this.productStore = productStore;
+		this.eventPublisher = eventPublisher;
+		this.objectMapper = objectMapper;
+		this.shardForwarding = shardForwarding.getIfAvailable();
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Imports all products of the given stream.
+	 *
+	 * @param input the catalog, UTF-8 encoded
+	 * @param format the format of the catalog
+	 * @return the number of imported products and the throughput
+	 */
+	public TransferReport importProducts(final InputStream input, final CatalogFormat format) {
+		long start = System.currentTimeMillis();
+		long nextProgress = start + PROGRESS_INTERVAL_MILLIS;
+		long imported = 0;
+
+		try (ProductReader reader = format == CatalogFormat.CSV ? new CsvReader(input) : new NdjsonReader(input)) {
+			List<Product> chunk = new ArrayList<>(chunkSize);
+			for (Product product = reader.next(); product != null; product = reader.next()) {
+				if (shardForwarding != null && !shardForwarding.owns(product.getId())) {
+					continue;
+				}
+				chunk.add(product);
+				if (chunk.size() == chunkSize) {
+					imported += write(chunk);
+					chunk = new ArrayList<>(chunkSize);
+
+					long now = System.currentTimeMillis();
+					if (now >= nextProgress) {
+						LOG.info("Imported {} products so far, {} products/s", imported,
+								new TransferReport(imported, now - start).getProductsPerSecond());
+						nextProgress = now + PROGRESS_INTERVAL_MILLIS;
+					}
+				}
+			}
+			imported += write(chunk);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		TransferReport report = new TransferReport(imported, System.currentTimeMillis() - start);
+		LOG.info("Imported {} products in {} ms, {} products/s", report.getProducts(), report.getMillis(),
+				report.getProductsPerSecond());
+		return report;
+	}
+
+	private int write(final List<Product> chunk) {
+		if (chunk.isEmpty()) {
+			return 0;
+		}
+
+		List<ProductsImportedEvent> events = new ArrayList<>(1);
+		productStore.saveAll(chunk, (saved, replaced) -> events.add(new ProductsImportedEvent(saved, replaced)));
+		events.forEach(eventPublisher::publishEvent);
+		return chunk.size();
+	}
+
+	private static Product validated(final Product product, final long line) {
+		if (product.getId() <= 0 || product.getName() == null || product.getStock() < 0) {
+			throw new InvalidCatalogException("Line " + line
+					+ ": the id must be positive, the name must be given and the stock must not be negative");
+		}
+		return product;
+	}
+
+	/**
+	 * Reads one product after the other.
+	 */
+	private interface ProductReader extends AutoCloseable {
+		/**
+		 * @return the next product, or null at the end of the catalog
+		 */
+		Product next() throws IOException;
+
+		@Override
+		void close() throws IOException;
+	}
+
+	/**
+	 * Reads lines of id,name,stock. A name containing commas or quotes is
+	 * enclosed in quotes, a quote in it is doubled. A header line is skipped.
+	 */
+	private static final class CsvReader implements ProductReader {
+		private final BufferedReader reader;
+
+		private long line;
+
+		CsvReader(final InputStream input) {
+			this.reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public Product next() throws IOException {
+			String text;
+			do {
+				text = reader.readLine();
+				line++;
+				if (text == null) {
+					return null;
+				}
+			} while (text.trim().isEmpty() || line == 1 && text.startsWith("id,"));
+
+			List<String> fields = split(text);
+			if (fields.size() != 3) {
+				throw new InvalidCatalogException("Line " + line + ": expected id,name,stock but got " + text);
+			}
+			try {
+				return validated(new Product(Long.parseLong(fields.get(0).trim()), fields.get(1),
+						Long.parseLong(fields.get(2).trim())), line);
+			} catch (NumberFormatException e) {
+				throw new InvalidCatalogException("Line " + line + ": id and stock must be numbers", e);
+			}
+		}
+
+		private List<String> split(final String text) {
+			List<String> fields = new ArrayList<>(3);
+			StringBuilder field = new StringBuilder();
+			boolean quoted = false;
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (quoted) {
+					if (c != '"') {
+						field.append(c);
+					} else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+						field.append('"');
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else if (c == '"') {
+					quoted = true;
+				} else if (c == ',') {
+					fields.add(field.toString());
+					field.setLength(0);
+				} else {
+					field.append(c);
+				}
+			}
+			if (quoted) {
+				throw new InvalidCatalogException("Line " + line + ": unterminated quote");
+			}
+			fields.add(field.toString());
+			return fields;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads one JSON product object after the other.
+	 */
+	private final class NdjsonReader implements ProductReader {
+		private final MappingIterator<Product> products;
+
+		NdjsonReader(final InputStream input) throws IOException {
+			this.products = objectMapper.readerFor(Product.class).readValues(input);
+		}
+
+		@Override
+		public Product next() throws IOException {
+			try {
+				if (!products.hasNextValue()) {
+					return null;
+				}
+				Product product = products.nextValue();
+				return validated(product, products.getCurrentLocation().getLineNr());
+			} catch (JsonProcessingException e) {
+				throw new InvalidCatalogException("Line " + products.getCurrentLocation().getLineNr() + ": "
+						+ e.getOriginalMessage(), e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			products.close();
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package de.malmansari.playground.onlineshop.changes;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import de.malmansari.playground.onlineshop.exception.ServiceOverloadedException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.serialization.ProductEncoding;
+import de.malmansari.playground.onlineshop.serialization.ProductWriter;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+import de.malmansari.playground.onlineshop.service.ProductsImportedEvent;
+import de.malmansari.playground.onlineshop.util.EventRing;
+
+/**
+ * <pre>
+ * Pushes the stock changes to the subscribers as server-sent
+ * events, so they do not have to poll the catalog.
+ *
+ * Every committed stock change and import is appended to an
+ * {@link EventRing}, the mutating threads never wait for the
+ * subscribers. Every interval the subscribers behind the ring
+ * are handed to a small pool of senders, which read the new
+ * changes from the cursor of the subscriber, keep only the
+ * latest change per product and send them as one event:
+ *
+ *   event: stock
+ *   id: [stream]-[sequence]
+ *   data: [{"id":1,"name":"Men Jeans","stock":97}]
+ *
+ * A slow subscriber holds one sender and is skipped while it
+ * still sends, its changes just pile up in the ring and are
+ * coalesced into its next event. If the ring overtakes it, it
+ * gets a reset event and continues with the new changes, it
+ * has to read the catalog again. So does a subscriber resuming
+ * with a Last-Event-ID which is not in the ring anymore, e.g.
+ * after a restart.
+ *
+ * The after-commit listeners of concurrent transactions may
+ * publish their changes out of order, so every change keeps
+ * the sequence of its event. A change older than the last one
+ * appended for its product is dropped, and the coalescing
+ * keeps the change with the highest sequence, so a subscriber
+ * never ends up with an outdated stock.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+public class StockChangeStream {
+	private static final Logger LOG = LoggerFactory.getLogger(StockChangeStream.class);
+
+	/**
+	 * Tells the events of this stream apart from the ones of a previous start.
+	 */
+	private final String streamId = Long.toString(System.currentTimeMillis(), 36);
+
+	private final EventRing<Change> ring;
+
+	/**
+	 * The sequence of the last change appended per product id.
+	 */
+	private final ConcurrentMap<Long, Long> appended = new ConcurrentHashMap<>();
+
+	private final ProductWriter productWriter;
+
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+	private final AtomicInteger subscriberCount = new AtomicInteger();
+
+	private final ScheduledExecutorService dispatcher;
+
+	private final ExecutorService senders;
+
+	private final int maxBatchSize;
+
+	private final int maxSubscribers;
+
+	private final long timeoutMillis;
+
+	private final long heartbeatMillis;
+
+	public StockChangeStream(ProductWriter productWriter,
+			@Value("${onlineshop.stock-stream.buffer-size:65536}") int bufferSize,
+			@Value("${onlineshop.stock-stream.interval-ms:100}") long intervalMillis,
+			@Value("${onlineshop.stock-stream.max-batch-size:1000}") int maxBatchSize,
+			@Value("${onlineshop.stock-stream.senders:4}") int senders,
+			@Value("${onlineshop.stock-stream.max-subscribers:1000}") int maxSubscribers,
+			@Value("${onlineshop.stock-stream.timeout-ms:1800000}") long timeoutMillis,
+			@Value("${onlineshop.stock-stream.heartbeat-ms:15000}") long heartbeatMillis) {
+		this.ring = new EventRing<>(bufferSize);
+		this.productWriter = productWriter;
+		this.maxBatchSize = maxBatchSize;
+		this.maxSubscribers = maxSubscribers;
+		this.timeoutMillis = timeoutMillis;
+		this.heartbeatMillis = heartbeatMillis;
+		AtomicInteger threads = new AtomicInteger();
+		this.senders = Executors.newFixedThreadPool(senders, runnable -> {
+			Thread thread = new Thread(runnable, "stock-stream-sender-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "stock-stream-dispatcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.dispatcher.scheduleWithFixedDelay(this::dispatch, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Subscribes to the stock changes following the given event.
+	 *
+	 * @param lastEventId the id of the last event received, or null for the changes from now on
+	 * @return the emitter of the events
+	 * @throws ServiceOverloadedException if there are too many subscribers already
+	 */
+	public SseEmitter subscribe(final String lastEventId) {
+		if (subscriberCount.incrementAndGet() > maxSubscribers) {
+			subscriberCount.decrementAndGet();
+			throw new ServiceOverloadedException("Too many subscribers, please try again later");
+		}
+
+		long head = ring.head();
+		long cursor = resumedCursor(lastEventId, head);
+		Subscriber subscriber = new Subscriber(new SseEmitter(timeoutMillis), cursor < 0 ? head : cursor,
+				lastEventId != null && cursor < 0);
+		subscriber.emitter.onCompletion(() -> unsubscribe(subscriber));
+		subscriber.emitter.onTimeout(() -> unsubscribe(subscriber));
+		subscriber.emitter.onError(e -> unsubscribe(subscriber));
+		try {
+			// lets the response start right away, not only with the first change
+			subscriber.emitter.send(SseEmitter.event().comment("subscribed"));
+		} catch (IOException e) {
+			subscriberCount.decrementAndGet();
+			throw new UncheckedIOException(e);
+		}
+		subscribers.add(subscriber);
+		return subscriber.emitter;
+	}
+
+	/**
+	 * @return the number of subscribers
+	 */
+	public int size() {
+		return subscriberCount.get();
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onStockChanged(final ProductStockChangedEvent event) {
+		publish(event.getProduct(), event.getSequence());
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onProductsImported(final ProductsImportedEvent event) {
+		event.getProducts().forEach(product -> publish(product, event.getSequence()));
+	}
+
+	@PreDestroy
+	public void close() {
+		dispatcher.shutdownNow();
+		senders.shutdownNow();
+		subscribers.forEach(subscriber -> subscriber.emitter.complete());
+	}
+
+	private void publish(final Product product, final long sequence) {
+		// the product may be a managed entity, the ring keeps a copy
+		Change change = new Change(new Product(product.getId(), product.getName(), product.getStock()), sequence);
+		// appends under the lock of the product's entry, so the ring holds its changes in sequence order
+		appended.compute(product.getId(), (id, last) -> {
+			if (last != null && last > sequence) {
+				return last;
+			}
+			ring.publish(change);
+			return sequence;
+		});
+	}
+
+	/**
+	 * @return the sequence following the given event, or -1 if it is not of this stream or not yet published
+	 */
+	private long resumedCursor(final String lastEventId, final long head) {
+		if (lastEventId == null || !lastEventId.startsWith(streamId + "-")) {
+			return -1;
+		}
+		try {
+			long cursor = Long.parseLong(lastEventId.substring(streamId.length() + 1));
+			return cursor <= head ? cursor : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void unsubscribe(final Subscriber subscriber) {
+		if (subscribers.remove(subscriber)) {
+			subscriberCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Hands the subscribers with something to send to the senders, package-private for the tests.
+	 */
+	void dispatch() {
+		long head = ring.head();
+		long now = System.currentTimeMillis();
+		for (Subscriber subscriber : subscribers) {
+			boolean due = subscriber.cursor != head || subscriber.reset
+					|| now - subscriber.lastSentMillis >= heartbeatMillis;
+			if (due && subscriber.sending.compareAndSet(false, true)) {
+				senders.execute(() -> send(subscriber));
+			}
+		}
+	}
+
+	/**
+	 * Sends the changes since the cursor of the subscriber, only run by one sender at a time.
+	 */
+	private void send(final Subscriber subscriber) {
+		try {
+			Map<Long, Change> changes = new LinkedHashMap<>();
+			long next = subscriber.reset ? EventRing.OVERRUN
+					: ring.poll(subscriber.cursor, change -> changes.merge(change.product.getId(), change,
+							(kept, later) -> later.sequence >= kept.sequence ? later : kept));
+			if (next == EventRing.OVERRUN) {
+				subscriber.cursor = ring.head();
+				subscriber.reset = false;
+				subscriber.emitter.send(SseEmitter.event().name("reset").id(streamId + "-" + subscriber.cursor)
+						.data("The changes were missed, please read the products again"));
+			} else if (!changes.isEmpty()) {
+				Iterator<Change> products = changes.values().iterator();
+				while (products.hasNext()) {
+					List<Product> batch = new ArrayList<>(Math.min(maxBatchSize, changes.size()));
+					while (products.hasNext() && batch.size() < maxBatchSize) {
+						batch.add(products.next().product);
+					}
+					SseEmitter.SseEventBuilder event = SseEmitter.event().name("stock").data(
+							new String(productWriter.toBytes(batch, ProductEncoding.JSON), StandardCharsets.UTF_8),
+							MediaType.APPLICATION_JSON);
+					// only the last event of the changes completes them
+					subscriber.emitter.send(products.hasNext() ? event : event.id(streamId + "-" + next));
+				}
+				subscriber.cursor = next;
+			} else if (System.currentTimeMillis() - subscriber.lastSentMillis >= heartbeatMillis) {
+				subscriber.emitter.send(SseEmitter.event().comment("heartbeat"));
+			} else {
+				return;
+			}
+			subscriber.lastSentMillis = System.currentTimeMillis();
+		} catch (IOException | IllegalStateException e) {
+			// the subscriber is gone or its emitter already completed
+			LOG.debug("Dropping stock change subscriber: {}", e.getMessage());
+			unsubscribe(subscriber);
+			subscriber.emitter.completeWithError(e);
+		} finally {
+			subscriber.sending.set(false);
+		}
+	}
+
+	private static final class Subscriber {
+		private final SseEmitter emitter;
+
+		private final AtomicBoolean sending = new AtomicBoolean();
+
+		/**
+		 * The sequence of the next change to be sent, only accessed by the sender holding sending.
+		 */
+		private volatile long cursor;
+
+		private volatile boolean reset;
+
+		private volatile long lastSentMillis = System.currentTimeMillis();
+
+		Subscriber(final SseEmitter emitter, final long cursor, final boolean reset) {
+			this.emitter = emitter;
+			this.cursor = cursor;
+			this.reset = reset;
+		}
+	}
+
+	/**
+	 * A changed product with the sequence of its event.
+	 */
+	private static final class Change {
+		private final Product product;
+
+		private final long sequence;
+
+		Change(final Product product, final long sequence) {
+			this.product = product;
+			this.sequence = sequence;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package de.malmansari.playground.onlineshop.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestResponseBodyMethodProcessor;
+
+/**
+ * <pre>
+ * Selects how the blocking handlers of the {@link OnlineShopController}
+ * are executed, i.e. the ones returning a Callable:
+ *  - servlet: on the request thread, one thread per request as usual
+ *  - async: on a dedicated bounded pool, the request thread is
+ *    released while the handler waits for the database
+ *
+ * The async mode keeps cheap requests like the cached product list
+ * responsive while all request threads would otherwise be blocked 
+ * on orders. The pool should be about as large as the connection 
+ * pool, more threads would only wait for a connection. Requests 
+ * exceeding the queue are rejected with 503. The pool threads
+ * see the request attributes of their request, as the request
+ * threads do.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class ExecutionModeConfiguration {
+	static final String MODE = "onlineshop.execution.mode";
+
+	@Bean
+	@ConditionalOnProperty(name = MODE, havingValue = "servlet", matchIfMissing = true)
+	public SmartInitializingSingleton servletExecutionMode(RequestMappingHandlerAdapter handlerAdapter) {
+		return () -> {
+			List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>(handlerAdapter.getReturnValueHandlers());
+			HandlerMethodReturnValueHandler responseBodyHandler = handlers.stream()
+					.filter(RequestResponseBodyMethodProcessor.class::isInstance)
+					.findFirst()
+					.orElseThrow(() -> new IllegalStateException("No response body handler is registered"));
+			handlers.add(0, new ImmediateCallableReturnValueHandler(responseBodyHandler));
+			handlerAdapter.setReturnValueHandlers(handlers);
+		};
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = MODE, havingValue = "async")
+	public ThreadPoolTaskExecutor handlerExecutor(@Value("${onlineshop.execution.pool-size:10}") int poolSize,
+			@Value("${onlineshop.execution.queue-capacity:10000}") int queueCapacity) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(poolSize);
+		executor.setMaxPoolSize(poolSize);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("handler-");
+		executor.setTaskDecorator(task -> {
+			RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+			return () -> {
+				RequestContextHolder.setRequestAttributes(attributes);
+				try {
+					task.run();
+				} finally {
+					RequestContextHolder.resetRequestAttributes();
+				}
+			};
+		});
+		return executor;
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = MODE, havingValue = "async")
+	public WebMvcConfigurer asyncExecutionMode(ThreadPoolTaskExecutor handlerExecutor) {
+		return new WebMvcConfigurer() {
+			@Override
+			public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+				configurer.setTaskExecutor(handlerExecutor);
+			}
+		};
+	}
+}
@@ -0,0 +1,43 @@
+package de.malmansari.playground.onlineshop.controller;
+
+import java.util.concurrent.Callable;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * <pre>
+ * Calls a {@link Callable} returned by a handler right away on
+ * the request thread and writes its result as response body.
+ * 
+ * This is the servlet execution mode: the handler behaves as if
+ * it returned the result itself, there is no async dispatch. An
+ * exception of the callable is thrown as is, so it is mapped by
+ * the exception handler like any other handler exception.
+ * </pre>
+ * 
+ * @see ExecutionModeConfiguration
+ * @author malmansari
+ *
+ */
+class ImmediateCallableReturnValueHandler implements HandlerMethodReturnValueHandler {
+	private final HandlerMethodReturnValueHandler responseBodyHandler;
+
+	ImmediateCallableReturnValueHandler(final HandlerMethodReturnValueHandler responseBodyHandler) {
+		this.responseBodyHandler = responseBodyHandler;
+	}
+
+	@Override
+	public boolean supportsReturnType(final MethodParameter returnType) {
+		return Callable.class.isAssignableFrom(returnType.getParameterType());
+	}
+
+	@Override
+	public void handleReturnValue(final Object returnValue, final MethodParameter returnType,
+			final ModelAndViewContainer mavContainer, final NativeWebRequest webRequest) throws Exception {
+		Object result = returnValue == null ? null : ((Callable<?>) returnValue).call();
+		responseBodyHandler.handleReturnValue(result, returnType.nested(), mavContainer, webRequest);
+	}
+}
@@ -1,26 +1,68 @@
 package de.malmansari.playground.onlineshop.controller;
 
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import de.malmansari.playground.onlineshop.availability.SoldOutRegistry;
+import de.malmansari.playground.onlineshop.cache.ProductCatalogCache;
+import de.malmansari.playground.onlineshop.catalog.CatalogFormat;
+import de.malmansari.playground.onlineshop.catalog.ProductExporter;
+import de.malmansari.playground.onlineshop.catalog.ProductImporter;
+import de.malmansari.playground.onlineshop.changes.StockChangeStream;
 import de.malmansari.playground.onlineshop.exception.OnlineShopExceptionHandler;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.lowstock.LowStockIndex;
+import de.malmansari.playground.onlineshop.model.LowStockProduct;
 import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.model.ProductPage;
+import de.malmansari.playground.onlineshop.model.Reservation;
+import de.malmansari.playground.onlineshop.model.TransferReport;
+import de.malmansari.playground.onlineshop.search.ProductSearchIndex;
+import de.malmansari.playground.onlineshop.serialization.ProductEncoding;
 import de.malmansari.playground.onlineshop.service.ProductService;
 
 /**
  * <pre>
  * The view layer representation of the online shop.
  * 
- * It supports currently 3 API functionalities:
- *  - getting the full list of the available products
- *  - ordering a product with certain quantity
+ * It supports currently 9 API functionalities:
+ *  - getting the full list of the available products, at once,
+ *    page by page or as a stream
+ *  - following the stock changes as server-sent events
+ *  - searching the products by name
+ *  - setting reorder thresholds and listing the products below
+ *  - importing and exporting the whole catalog
+ *  - ordering a product with certain quantity, also idempotently
+ *  - ordering several products at once
+ *  - reserving items of a product, confirming or releasing them
  *  - adding items of a product to the stock
+ * 
+ * The handlers waiting for the database return a Callable, 
+ * how it is executed depends on the execution mode. Orders of
+ * products known to be sold out or unknown are rejected 
+ * before, see {@link SoldOutRegistry}.
  * </pre>
  * 
  * @see OnlineShopExceptionHandler
+ * @see ExecutionModeConfiguration
  * @author malmansari
  *
  */
@@ -35,13 +77,197 @@ public class OnlineShopController {
 	private ProductService productService;
 
 	/**
+	 * The cached product catalog.
+	 */
+	@Autowired
+	private ProductCatalogCache productCatalogCache;
+
+	/**
+	 * The search index of the product names.
+	 */
+	@Autowired
+	private ProductSearchIndex productSearchIndex;
+
+	/**
+	 * The sold out and the unknown products.
+	 */
+	@Autowired
+	private SoldOutRegistry soldOutRegistry;
+
+	/**
+	 * The products below their reorder threshold.
+	 */
+	@Autowired
+	private LowStockIndex lowStockIndex;
+
+	/**
+	 * The stream of the stock changes.
+	 */
+	@Autowired
+	private StockChangeStream stockChangeStream;
+
+	/**
+	 * The catalog importer.
+	 */
+	@Autowired
+	private ProductImporter productImporter;
+
+	/**
+	 * The catalog exporter.
+	 */
+	@Autowired
+	private ProductExporter productExporter;
+
+	/**
+	 * <pre>
 	 * Gets all available products in DB.
 	 * 
-	 * @return product list
+	 * The list is served from the {@link ProductCatalogCache}. 
+	 * If the client already has the current list, i.e. it sends
+	 * the current ETag as If-None-Match, only 304 is returned.
+	 * The list is JSON, unless the client prefers Smile or CBOR.
+	 * </pre>
+	 * 
+	 * @param request the web request to check the ETag against
+	 * @param accept the media types accepted by the client
+	 * @return product list as JSON, Smile or CBOR
 	 */
     @GetMapping("/products")
-    public Iterable<Product> getProducts() {
-        return productService.getAllProducts();
+    public ResponseEntity<byte[]> getProducts(WebRequest request,
+    		@RequestHeader(value = HttpHeaders.ACCEPT, defaultValue = MediaType.ALL_VALUE) String accept) {
+    	ProductEncoding encoding = ProductEncoding.negotiate(MediaType.parseMediaTypes(accept));
+    	ProductCatalogCache.Snapshot catalog = productCatalogCache.get();
+    	if (request.checkNotModified(catalog.getEtag(encoding))) {
+    		return null;
+    	}
+        return ResponseEntity.ok()
+        		.eTag(catalog.getEtag(encoding))
+        		.varyBy(HttpHeaders.ACCEPT)
+        		.contentType(encoding.getMediaType())
+        		.body(productCatalogCache.encoded(catalog, encoding));
+    }
+
+    /**
+     * <pre>
+     * Gets one page of the products in ascending id order.
+     * 
+     * The next page is requested with the returned cursor 
+     * as after parameter.
+     * </pre>
+     * 
+     * @param after the id after which the page starts, 0 for the first page
+     * @param limit the maximum number of products of the page
+     * @return the product page
+     */
+    @GetMapping("/products/page")
+    public Callable<ProductPage> getProductPage(@RequestParam(defaultValue = "0") long after,
+    		@RequestParam(defaultValue = "100") int limit) {
+    	return () -> productService.getProductPage(after, limit);
+    }
+
+    /**
+     * <pre>
+     * Searches the products whose name contains all words of
+     * the query, e.g. "men je" finds "Men Jeans". The search 
+     * is answered from memory, not from the database.
+     * </pre>
+     * 
+     * @param q the words to search for
+     * @param prefix whether the words match the beginning of the name words too
+     * @param inStock whether only products with stock are returned
+     * @param limit the maximum number of products
+     * @return the matching products
+     */
+    @GetMapping("/products/search")
+    public List<Product> searchProducts(@RequestParam String q, 
+    		@RequestParam(defaultValue = "true") boolean prefix,
+    		@RequestParam(defaultValue = "false") boolean inStock,
+    		@RequestParam(defaultValue = "20") int limit) {
+    	return productSearchIndex.search(q, prefix, inStock, limit);
+    }
+
+    /**
+     * <pre>
+     * Gets the products whose stock is below their reorder 
+     * threshold, the largest shortfall first. The list is 
+     * answered from memory, not from the database.
+     * </pre>
+     * 
+     * @param limit the maximum number of products
+     * @return the low products with their thresholds
+     */
+    @GetMapping("/products/low-stock")
+    public List<LowStockProduct> getLowStockProducts(@RequestParam(defaultValue = "100") int limit) {
+    	return lowStockIndex.getLowStockProducts(limit);
+    }
+
+    /**
+     * <pre>
+     * Streams all products as newline delimited JSON, one 
+     * product per line. The products are written while they 
+     * are read from the database, so the response can be 
+     * arbitrarily large.
+     * </pre>
+     * 
+     * @return the product stream
+     */
+    @GetMapping(value = "/products/stream", produces = "application/x-ndjson")
+    public StreamingResponseBody streamProducts() {
+    	return output -> productExporter.exportProducts(output, CatalogFormat.NDJSON);
+    }
+
+    /**
+     * <pre>
+     * Follows the stock changes instead of polling the products:
+     * every stock event carries the latest stock of the products
+     * changed since the previous event. A client subscribes first,
+     * then reads the products, and reads them again whenever it
+     * gets a reset event.
+     * </pre>
+     * 
+     * @param lastEventId the id of the last event received before a reconnect
+     * @return the event stream
+     */
+    @GetMapping(value = "/products/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter followStockChanges(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+    	return stockChangeStream.subscribe(lastEventId);
+    }
+
+    /**
+     * <pre>
+     * Exports all products as CSV (id,name,stock with a header
+     * line) or as newline delimited JSON, in the format the 
+     * import reads.
+     * </pre>
+     * 
+     * @param format csv or ndjson
+     * @return the product stream
+     */
+    @GetMapping("/products/export")
+    public ResponseEntity<StreamingResponseBody> exportProducts(@RequestParam(defaultValue = "csv") String format) {
+    	CatalogFormat catalogFormat = CatalogFormat.of(format);
+    	return ResponseEntity.ok()
+    			.contentType(MediaType.parseMediaType(catalogFormat.getMediaType()))
+    			.body(output -> productExporter.exportProducts(output, catalogFormat));
+    }
+
+    /**
+     * <pre>
+     * Imports a catalog sent as CSV (text/csv) or as newline
+     * delimited JSON (application/x-ndjson). Known products 
+     * are overwritten, unknown ones are added. The products 
+     * are written chunk by chunk while the body is read, so 
+     * if a line is invalid, the chunks before stay imported.
+     * </pre>
+     * 
+     * @param contentType the format of the catalog
+     * @param body the catalog
+     * @return the number of imported products and the throughput
+     */
+    @PostMapping(value = "/products/import", consumes = { "text/csv", "application/x-ndjson" })
+    public Callable<TransferReport> importProducts(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+    		InputStream body) {
+    	return () -> productImporter.importProducts(body, CatalogFormat.of(contentType));
     }
 
     /**
@@ -51,8 +277,91 @@ public class OnlineShopController {
      * @param quantity the amount of items to be ordered from the product
      */
     @GetMapping("/order/products/{productId}/{quantity}")
-    public Product order(@PathVariable long productId, @PathVariable long quantity) {
-    	return productService.order(productId, quantity);
+    public Callable<Product> order(@PathVariable long productId, @PathVariable long quantity) {
+    	checkOrderable(productId, quantity);
+    	return rememberUnknown(productId, () -> productService.order(productId, quantity));
+    }
+    
+    /**
+     * <pre>
+     * Performs an order operation for the given product once per
+     * Idempotency-Key header: a retry with the same key returns 
+     * the product of the first order, so a client can safely 
+     * retry a timed out order.
+     * </pre>
+     * 
+     * @param productId the product ID to be ordered 
+     * @param quantity the amount of items to be ordered from the product
+     * @param idempotencyKey the key identifying the order, e.g. a random UUID
+     */
+    @PostMapping("/order/products/{productId}/{quantity}")
+    public Callable<Product> orderOnce(@PathVariable long productId, @PathVariable long quantity,
+    		@RequestHeader("Idempotency-Key") String idempotencyKey) {
+    	// a retry returns the first order, even if the product is sold out since
+    	soldOutRegistry.checkKnown(productId);
+    	return rememberUnknown(productId, () -> productService.orderOnce(productId, quantity, idempotencyKey));
+    }
+    
+    /**
+     * <pre>
+     * Performs an order operation for several products at once,
+     * e.g. {"1": 2, "3": 5}. Either all products are ordered or 
+     * none of them.
+     * </pre>
+     * 
+     * @param quantities the amount of items to be ordered per product ID
+     */
+    @PostMapping("/order/products")
+    public Callable<List<Product>> orderBatch(@RequestBody Map<Long, Long> quantities) {
+    	checkOrderable(quantities);
+    	return () -> productService.orderBatch(quantities);
+    }
+    
+    /**
+     * Reserves items of the given product until they are confirmed, released or expired.
+     * 
+     * @param productId the product ID to be reserved
+     * @param quantity the amount of items to be reserved from the product
+     */
+    @GetMapping("/reserve/products/{productId}/{quantity}")
+    public Callable<Reservation> reserve(@PathVariable long productId, @PathVariable long quantity) {
+    	checkOrderable(productId, quantity);
+    	return rememberUnknown(productId, () -> productService.reserve(productId, quantity));
+    }
+    
+    /**
+     * Confirms the given reservation, so its items are ordered.
+     * 
+     * @param reservationId the reservation ID to be confirmed
+     */
+    @GetMapping("/confirm/reservations/{reservationId}")
+    public Reservation confirm(@PathVariable long reservationId) {
+    	return productService.confirm(reservationId);
+    }
+    
+    /**
+     * Releases the given reservation, so its items are given back to the stock.
+     * 
+     * @param reservationId the reservation ID to be released
+     */
+    @GetMapping("/release/reservations/{reservationId}")
+    public Callable<Product> release(@PathVariable long reservationId) {
+    	return () -> productService.release(reservationId);
+    }
+    
+    /**
+     * <pre>
+     * Sets the reorder threshold of the given product: once its
+     * stock falls below, the product is listed as low on stock
+     * and an alert is raised.
+     * </pre>
+     * 
+     * @param productId the product ID
+     * @param threshold the stock below which the product is low, 0 to never be low
+     */
+    @PostMapping("/threshold/products/{productId}/{threshold}")
+    public LowStockProduct setThreshold(@PathVariable long productId, @PathVariable long threshold) {
+    	return lowStockIndex.setThreshold(productId, threshold);
     }
     
     /**
@@ -62,7 +371,45 @@ public class OnlineShopController {
      * @param quantity the amount of the items to be added to the stock
      */
     @GetMapping("/add/products/{productId}/{quantity}")
-    public Product addToStock(@PathVariable long productId, @PathVariable long quantity) {
-    	return productService.addToStock(productId, quantity);
+    public Callable<Product> addToStock(@PathVariable long productId, @PathVariable long quantity) {
+    	soldOutRegistry.checkKnown(productId);
+    	return rememberUnknown(productId, () -> productService.addToStock(productId, quantity));
+    }
+
+    /**
+     * Rejects the order if the product is known to be sold out or unknown, invalid orders are left to the service.
+     */
+    private void checkOrderable(long productId, long quantity) {
+    	if (productId > 0 && quantity > 0) {
+    		soldOutRegistry.checkOrderable(productId);
+    	}
+    }
+
+    /**
+     * Rejects the batch if one of the products is known to be unknown or sold out, in this order.
+     */
+    private void checkOrderable(Map<Long, Long> quantities) {
+    	for (Map.Entry<Long, Long> line : quantities.entrySet()) {
+    		if (line.getKey() == null || line.getKey() <= 0 || line.getValue() == null || line.getValue() <= 0) {
+    			return;
+    		}
+    	}
+    	quantities.keySet().forEach(soldOutRegistry::checkKnown);
+    	quantities.keySet().forEach(soldOutRegistry::checkOrderable);
+    }
+
+    /**
+     * Remembers the product as unknown if the service does not find it.
+     */
+    private <T> Callable<T> rememberUnknown(long productId, Callable<T> call) {
+    	long imports = soldOutRegistry.getImports();
+    	return () -> {
+    		try {
+    			return call.call();
+    		} catch (ProductNotFoundException e) {
+    			soldOutRegistry.markUnknown(productId, imports);
+    			throw e;
+    		}
+    	};
     }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package de.malmansari.playground.onlineshop.exception;
+
+/**
+ * This exception is thrown if a batch order spans products owned by
+ * different shard nodes, which cannot be ordered atomically.
+ * 
+ * @author malmansari
+ *
+ */
+public class CrossShardOrderException extends RuntimeException {
+
+	private static final long serialVersionUID = -2871409384165302277L;
+
+	public CrossShardOrderException() {
+        super();
+    }
+
+	public CrossShardOrderException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,120 @@
+package de.malmansari.playground.onlineshop.exception;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Value;
+
+/**
+ * <pre>
+ * The body of an error response:
+ *
+ *   {"status":404,"error":"product-not-found","message":"Product not found"}
+ *
+ * The error is a stable code for the clients to tell the
+ * errors apart, the message is meant to be read by people.
+ *
+ * The body is written as JSON bytes whatever the client
+ * accepts, so an error never fails on the content negotiation.
+ * The bodies of the frequent errors are written once and the
+ * response is shared, see {@link #toResponseEntity()}.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Value
+public class ErrorResponse {
+	public static final String PRODUCT_NOT_FOUND = "product-not-found";
+
+	public static final String RESERVATION_NOT_FOUND = "reservation-not-found";
+
+	public static final String NOT_ENOUGH_STOCK = "not-enough-stock";
+
+	public static final String IDEMPOTENCY_KEY_REUSED = "idempotency-key-reused";
+
+	public static final String INVALID_REQUEST = "invalid-request";
+
+	public static final String INVALID_CATALOG = "invalid-catalog";
+
+	public static final String OVERLOADED = "overloaded";
+
+	public static final String CONCURRENT_UPDATE = "concurrent-update";
+
+	public static final String CROSS_SHARD_ORDER = "cross-shard-order";
+
+	public static final String SHARD_UNREACHABLE = "shard-unreachable";
+
+	public static final String SHARD_MISROUTED = "shard-misrouted";
+
+	public static final String REMOTE_ERROR = "remote-error";
+
+	public static final String INTERNAL_ERROR = "internal-error";
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	private final int status;
+
+	private final String error;
+
+	private final String message;
+
+	public ErrorResponse(final HttpStatus status, final String error, final String message) {
+		this(status.value(), error, message);
+	}
+
+	public ErrorResponse(final int status, final String error, final String message) {
+		this.status = status;
+		this.error = error;
+		this.message = message;
+	}
+
+	/**
+	 * Builds the response, its headers and body are read-only, so it can be returned by any number of requests.
+	 *
+	 * @return the response with this body as JSON
+	 */
+	public ResponseEntity<byte[]> toResponseEntity() {
+		return ResponseEntity.status(status)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(toJson());
+	}
+
+	/**
+	 * @return this body as JSON
+	 */
+	public byte[] toJson() {
+		try {
+			return OBJECT_MAPPER.writeValueAsBytes(this);
+		} catch (JsonProcessingException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Reads the error of another node, e.g. of a forwarded request.
+	 *
+	 * @param status the HTTP status of the response
+	 * @param body the body of the response
+	 * @return the error, with the body as message if it is not an error response
+	 */
+	public static ErrorResponse read(final int status, final String body) {
+		try {
+			JsonNode node = OBJECT_MAPPER.readTree(body);
+			if (node != null && node.hasNonNull("error")) {
+				return new ErrorResponse(status, node.get("error").asText(), node.path("message").asText(null));
+			}
+		} catch (IOException e) {
+			// not written by an error handler, e.g. by a proxy
+		}
+		return new ErrorResponse(status, REMOTE_ERROR, body);
+	}
+}
@@ -0,0 +1,21 @@
+package de.malmansari.playground.onlineshop.exception;
+
+/**
+ * This exception is thrown if an idempotency key is sent again
+ * with another product or quantity than the order it was first used for.
+ * 
+ * @author malmansari
+ *
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+	private static final long serialVersionUID = -2873501938745210394L;
+
+	public IdempotencyKeyReusedException() {
+        super();
+    }
+
+	public IdempotencyKeyReusedException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,24 @@
+package de.malmansari.playground.onlineshop.exception;
+
+/**
+ * This exception is thrown if a product catalog to be imported cannot be read.
+ * 
+ * @author malmansari
+ *
+ */
+public class InvalidCatalogException extends RuntimeException {
+
+	private static final long serialVersionUID = -3372910847465238190L;
+
+	public InvalidCatalogException() {
+        super();
+    }
+
+	public InvalidCatalogException(final String message) {
+        super(message);
+    }
+
+	public InvalidCatalogException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
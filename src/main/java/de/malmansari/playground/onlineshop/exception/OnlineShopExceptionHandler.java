@@ -1,22 +1,37 @@
 package de.malmansari.playground.onlineshop.exception;
 
+import java.util.concurrent.RejectedExecutionException;
+
 import javax.validation.ConstraintViolationException;
 
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
-import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
 /**
  * <pre>
- * This handler intercepts four different errors that the 
+ * This handler intercepts twelve different errors that the 
  * service layer can throw:
  *  - {@link ProductNotFoundException} 
+ *  - {@link ReservationNotFoundException} 
  *  - {@link ProductHasNotEnoughStockException}
+ *  - {@link IdempotencyKeyReusedException}
  *  - {@link ConstraintViolationException}
+ *  - {@link InvalidCatalogException}
+ *  - {@link RejectedExecutionException}
+ *  - {@link ServiceOverloadedException}
+ *  - {@link OptimisticLockingFailureException}
+ *  - {@link CrossShardOrderException}
+ *  - {@link RemoteShardException}
  *  - {@link RuntimeException}
  *  
- *  See the respective methods for specific details.
+ *  See the respective methods for specific details. Every 
+ *  error is answered with an {@link ErrorResponse} as JSON,
+ *  the responses of the rejected orders are built only once.
  * </pre>
  * 
  * @author malmansari
@@ -24,6 +39,12 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
  */
 @RestControllerAdvice
 public class OnlineShopExceptionHandler {
+	private static final ResponseEntity<byte[]> PRODUCT_NOT_FOUND = new ErrorResponse(HttpStatus.NOT_FOUND,
+			ErrorResponse.PRODUCT_NOT_FOUND, ProductNotFoundException.INSTANCE.getMessage()).toResponseEntity();
+
+	private static final ResponseEntity<byte[]> NOT_ENOUGH_STOCK = new ErrorResponse(HttpStatus.BAD_REQUEST,
+			ErrorResponse.NOT_ENOUGH_STOCK, ProductHasNotEnoughStockException.INSTANCE.getMessage()).toResponseEntity();
+
     /**
      * <pre>
      * Intercepts the errors when the product is not found, and 
@@ -31,12 +52,26 @@ public class OnlineShopExceptionHandler {
      * </pre>
      * 
      * @param e the exception caught
-     * @return the error message
+     * @return the error response
      */
 	@ExceptionHandler(ProductNotFoundException.class)
-    @ResponseStatus(HttpStatus.NOT_FOUND)
-    public String handleProductNotFoundError(final ProductNotFoundException e) {
-    	return e.getMessage();
+    public ResponseEntity<byte[]> handleProductNotFoundError(final ProductNotFoundException e) {
+    	return PRODUCT_NOT_FOUND;
+    }
+    
+    /**
+     * <pre>
+     * Intercepts the errors when the reservation is not pending, 
+     * and delegates it to the view layer as a not found HTTP 
+     * error: 404.
+     * </pre>
+     * 
+     * @param e the exception caught
+     * @return the error response
+     */
+	@ExceptionHandler(ReservationNotFoundException.class)
+    public ResponseEntity<byte[]> handleReservationNotFoundError(final ReservationNotFoundException e) {
+    	return error(HttpStatus.NOT_FOUND, ErrorResponse.RESERVATION_NOT_FOUND, e.getMessage());
     }
     
 	/**
@@ -47,12 +82,27 @@ public class OnlineShopExceptionHandler {
      * </pre>
      * 
 	 * @param e the exception caught
-     * @return the error message
+     * @return the error response
 	 */
     @ExceptionHandler(ProductHasNotEnoughStockException.class)
-    @ResponseStatus(HttpStatus.BAD_REQUEST)
-    public String handleProductHasNotEnoughStockError(final ProductHasNotEnoughStockException e) {
-    	return e.getMessage();
+    public ResponseEntity<byte[]> handleProductHasNotEnoughStockError(final ProductHasNotEnoughStockException e) {
+    	return NOT_ENOUGH_STOCK;
+    }
+    
+    /**
+     * <pre>
+     * Intercepts the errors when an idempotency key is sent with
+     * another order than the one it was first used for. Then it 
+     * delegates it to the view layer as an unprocessable entity
+     * HTTP error: 422.
+     * </pre>
+     * 
+     * @param e the exception caught
+     * @return the error response
+     */
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<byte[]> handleIdempotencyKeyReusedError(final IdempotencyKeyReusedException e) {
+    	return error(HttpStatus.UNPROCESSABLE_ENTITY, ErrorResponse.IDEMPOTENCY_KEY_REUSED, e.getMessage());
     }
     
     /**
@@ -63,12 +113,110 @@ public class OnlineShopExceptionHandler {
      * </pre>
      * 
      * @param e the exception caught
-     * @return the error message
+     * @return the error response
      */
     @ExceptionHandler(ConstraintViolationException.class)
-    @ResponseStatus(HttpStatus.BAD_REQUEST)
-    public String handleConstraintViolationError(final ConstraintViolationException e) {
-    	return e.getMessage();
+    public ResponseEntity<byte[]> handleConstraintViolationError(final ConstraintViolationException e) {
+    	return error(HttpStatus.BAD_REQUEST, ErrorResponse.INVALID_REQUEST, e.getMessage());
+    }
+    
+    /**
+     * <pre>
+     * Intercepts the errors when a catalog to be imported cannot 
+     * be read. Then it delegates it to the view layer as a bad 
+     * request HTTP error: 400.
+     * </pre>
+     * 
+     * @param e the exception caught
+     * @return the error response
+     */
+    @ExceptionHandler(InvalidCatalogException.class)
+    public ResponseEntity<byte[]> handleInvalidCatalogError(final InvalidCatalogException e) {
+    	return error(HttpStatus.BAD_REQUEST, ErrorResponse.INVALID_CATALOG, e.getMessage());
+    }
+    
+    /**
+     * <pre>
+     * Intercepts the errors when the handler pool of the async 
+     * execution mode is saturated. Then it delegates it to the 
+     * view layer as a service unavailable HTTP error: 503.
+     * </pre>
+     * 
+     * @param e the exception caught
+     * @return the error response
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<byte[]> handleRejectedExecutionError(final RejectedExecutionException e) {
+    	return error(HttpStatus.SERVICE_UNAVAILABLE, ErrorResponse.OVERLOADED,
+    			"Too many requests, please try again later");
+    }
+    
+    /**
+     * <pre>
+     * Intercepts the errors when a service call is shed by the
+     * admission control. Then it delegates it to the view layer
+     * as a service unavailable HTTP error: 503, telling the client
+     * to retry after a second.
+     * </pre>
+     * 
+     * @param e the exception caught
+     * @return the error response
+     */
+    @ExceptionHandler(ServiceOverloadedException.class)
+    public ResponseEntity<byte[]> handleServiceOverloadedError(final ServiceOverloadedException e) {
+    	return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+    			.header(HttpHeaders.RETRY_AFTER, "1")
+    			.contentType(MediaType.APPLICATION_JSON)
+    			.body(new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, ErrorResponse.OVERLOADED, e.getMessage())
+    					.toJson());
+    }
+    
+    /**
+     * <pre>
+     * Intercepts the errors when an optimistic stock update still
+     * conflicts with concurrent updates after all its attempts. 
+     * Then it delegates it to the view layer as a conflict HTTP
+     * error: 409.
+     * </pre>
+     * 
+     * @param e the exception caught
+     * @return the error response
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<byte[]> handleOptimisticLockingError(final OptimisticLockingFailureException e) {
+    	return error(HttpStatus.CONFLICT, ErrorResponse.CONCURRENT_UPDATE,
+    			"The product was changed concurrently, please try again");
+    }
+    
+    /**
+     * <pre>
+     * Intercepts the errors when a batch order spans products of
+     * several shard nodes. Then it delegates it to the view layer
+     * as an unprocessable entity HTTP error: 422.
+     * </pre>
+     * 
+     * @param e the exception caught
+     * @return the error response
+     */
+    @ExceptionHandler(CrossShardOrderException.class)
+    public ResponseEntity<byte[]> handleCrossShardOrderError(final CrossShardOrderException e) {
+    	return error(HttpStatus.UNPROCESSABLE_ENTITY, ErrorResponse.CROSS_SHARD_ORDER, e.getMessage());
+    }
+    
+    /**
+     * <pre>
+     * Intercepts the errors of a request forwarded to the shard 
+     * node owning the product. Then it delegates it to the view 
+     * layer with the HTTP status of the owning node, or as a bad
+     * gateway HTTP error: 502 if the node is not reachable.
+     * </pre>
+     * 
+     * @param e the exception caught
+     * @return the error response
+     */
+    @ExceptionHandler(RemoteShardException.class)
+    public ResponseEntity<byte[]> handleRemoteShardError(final RemoteShardException e) {
+    	return new ErrorResponse(e.getStatus(), e.getError(), e.getMessage()).toResponseEntity();
     }
     
     /**
@@ -78,11 +226,14 @@ public class OnlineShopExceptionHandler {
      * </pre>
      * 
      * @param e the exception caught
-     * @return the error message
+     * @return the error response
      */
     @ExceptionHandler(RuntimeException.class)
-    @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
-    public String handleGeneralError(final RuntimeException e) {
-    	return e.getMessage();
+    public ResponseEntity<byte[]> handleGeneralError(final RuntimeException e) {
+    	return error(HttpStatus.INTERNAL_SERVER_ERROR, ErrorResponse.INTERNAL_ERROR, e.getMessage());
+    }
+    
+    private static ResponseEntity<byte[]> error(final HttpStatus status, final String error, final String message) {
+    	return new ErrorResponse(status, error, message).toResponseEntity();
     }
 }
\ No newline at end of file
@@ -5,6 +5,9 @@ package de.malmansari.playground.onlineshop.exception;
  * This exception is thrown if requested number of the 
  * items to be ordered are more than the available ones
  * in the stock
+ * 
+ * In a sell-out most orders end with it, so it has no stack 
+ * trace, and the service throws the shared {@link #INSTANCE}.
  * </pre>
  * 
  * @author malmansari
@@ -14,11 +17,17 @@ public class ProductHasNotEnoughStockException extends RuntimeException {
 
 	private static final long serialVersionUID = 4550491831681383226L;
 
+	/**
+	 * The exception thrown for every order exceeding the stock, it cannot be changed.
+	 */
+	public static final ProductHasNotEnoughStockException INSTANCE = new ProductHasNotEnoughStockException(
+			"Product has not enough stock for your order");
+
 	public ProductHasNotEnoughStockException() {
-        super();
+        this(null);
     }
 
     public ProductHasNotEnoughStockException(final String message) {
-        super(message);
+        super(message, null, false, false);
     }
-}
\ No newline at end of file
+}
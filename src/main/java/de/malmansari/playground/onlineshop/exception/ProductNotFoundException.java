@@ -1,8 +1,16 @@
 package de.malmansari.playground.onlineshop.exception;
 
 /**
+ * <pre>
  * This exception is thrown if the Product object is not found.
  * 
+ * Like an order rejected for its stock, it is an expected 
+ * outcome, e.g. of a client ordering a delisted product, not 
+ * a bug: it has no stack trace, and the service throws the 
+ * shared {@link #INSTANCE}, so a rejection costs no more than 
+ * a return.
+ * </pre>
+ * 
  * @author malmansari
  *
  */
@@ -10,11 +18,16 @@ public class ProductNotFoundException extends RuntimeException {
 	
 	private static final long serialVersionUID = -1888622937214847466L;
 
+	/**
+	 * The exception thrown for every unknown product, it cannot be changed.
+	 */
+	public static final ProductNotFoundException INSTANCE = new ProductNotFoundException("Product not found");
+
 	public ProductNotFoundException() {
-        super();
+        this(null);
     }
 
 	public ProductNotFoundException(final String message) {
-        super(message);
+        super(message, null, false, false);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+package de.malmansari.playground.onlineshop.exception;
+
+/**
+ * This exception is thrown if a request forwarded to the shard node
+ * owning the product fails there or cannot reach it. It carries the
+ * HTTP status, the error code and the error message to be passed on
+ * to the client.
+ * 
+ * @author malmansari
+ *
+ */
+public class RemoteShardException extends RuntimeException {
+
+	private static final long serialVersionUID = 4418950276093017718L;
+
+	private final int status;
+
+	private final String error;
+
+	public RemoteShardException(final int status, final String error, final String message) {
+        super(message);
+        this.status = status;
+        this.error = error;
+    }
+
+	public RemoteShardException(final int status, final String error, final String message, final Throwable cause) {
+        super(message, cause);
+        this.status = status;
+        this.error = error;
+    }
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the error code, see {@link ErrorResponse}
+	 */
+	public String getError() {
+		return error;
+	}
+}
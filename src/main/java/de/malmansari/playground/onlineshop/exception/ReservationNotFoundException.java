@@ -0,0 +1,21 @@
+package de.malmansari.playground.onlineshop.exception;
+
+/**
+ * This exception is thrown if the Reservation object is not found, 
+ * i.e. it is unknown, already confirmed, released or expired.
+ * 
+ * @author malmansari
+ *
+ */
+public class ReservationNotFoundException extends RuntimeException {
+
+	private static final long serialVersionUID = 4620839175602741356L;
+
+	public ReservationNotFoundException() {
+        super();
+    }
+
+	public ReservationNotFoundException(final String message) {
+        super(message);
+    }
+}
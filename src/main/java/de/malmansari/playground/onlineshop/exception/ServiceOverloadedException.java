@@ -0,0 +1,21 @@
+package de.malmansari.playground.onlineshop.exception;
+
+/**
+ * This exception is thrown if a request is shed because the service
+ * already runs as many requests as it can take without queueing.
+ * 
+ * @author malmansari
+ *
+ */
+public class ServiceOverloadedException extends RuntimeException {
+
+	private static final long serialVersionUID = 7390125736519248371L;
+
+	public ServiceOverloadedException() {
+        super();
+    }
+
+	public ServiceOverloadedException(final String message) {
+        super(message);
+    }
+}
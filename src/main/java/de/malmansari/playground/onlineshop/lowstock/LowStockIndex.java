@@ -0,0 +1,344 @@
+package de.malmansari.playground.onlineshop.lowstock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.validation.annotation.Validated;
+
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.LowStockProduct;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+import de.malmansari.playground.onlineshop.service.ProductsImportedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <pre>
+ * Keeps the products whose stock is below their reorder
+ * threshold, so they are known without scanning the catalog.
+ *
+ * Every product has the default threshold unless another one
+ * is set for it. The changed products are kept by id, the
+ * ones below their threshold are also sorted by how far they
+ * are below it, the largest shortfall first. A stock change
+ * looks up the threshold and the entry of the product in O(1)
+ * and moves it in the sorted set in O(log n), where n is the
+ * number of low products. The low stock query reads the first
+ * entries of the sorted set, it never touches the database.
+ *
+ * The structures are concurrent, a change only locks the
+ * entry of its product. The listeners of the changes run in
+ * the committing threads and may overtake each other, so a
+ * change is only applied if it is newer than the applied one,
+ * see {@link ProductStockChangedEvent#getSequence()}.
+ *
+ * When a product falls below its threshold, a
+ * {@link ProductStockLowEvent} is published once; it is
+ * published again only after the stock was refilled up to
+ * the threshold. The number of low products is exposed as
+ * the gauge onlineshop.stock.low.
+ *
+ * The index is built from the {@link ProductService} once the
+ * application is ready, afterwards it follows the stock
+ * changes. An import marks it stale, the next change or query
+ * rebuilds it. A rebuild merges what it reads product by
+ * product while the changes go on; the ones applied since it
+ * started are newer than what it reads and are kept. The
+ * thresholds are kept in memory like the
+ * catalog, with sharding every node keeps its own products
+ * only, so their thresholds are set on the owning node.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+@Validated
+public class LowStockIndex {
+	private static final Logger LOG = LoggerFactory.getLogger(LowStockIndex.class);
+
+	/**
+	 * The maximum number of products of one low stock query.
+	 */
+	public static final int MAX_RESULTS = 1000;
+
+	private static final Comparator<LowStockProduct> BY_SHORTFALL = Comparator
+			.comparingLong((LowStockProduct product) -> product.getStock() - product.getThreshold())
+			.thenComparingLong(LowStockProduct::getId);
+
+	private final ProductService productService;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	private final long defaultThreshold;
+
+	/**
+	 * The thresholds set per product id.
+	 */
+	private final ConcurrentMap<Long, Long> thresholds = new ConcurrentHashMap<>();
+
+	/**
+	 * The changed and the low products by id. The sorted set and the count follow an entry while it is computed.
+	 */
+	private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * The low products by shortfall.
+	 */
+	private final ConcurrentSkipListSet<LowStockProduct> byShortfall = new ConcurrentSkipListSet<>(BY_SHORTFALL);
+
+	private final AtomicInteger lowCount = new AtomicInteger();
+
+	/**
+	 * Held by a rebuild only, never by a change.
+	 */
+	private final Object rebuildLock = new Object();
+
+	/**
+	 * The number of rebuilds started, written under the rebuild lock.
+	 */
+	private volatile long rebuilds;
+
+	private volatile boolean stale;
+
+	public LowStockIndex(ProductService productService, ApplicationEventPublisher eventPublisher,
+			ObjectProvider<MeterRegistry> meterRegistry,
+			@Value("${onlineshop.low-stock.default-threshold:0}") long defaultThreshold) {
+		this.productService = productService;
+		this.eventPublisher = eventPublisher;
+		this.defaultThreshold = defaultThreshold;
+		meterRegistry.ifAvailable(registry -> Gauge.builder("onlineshop.stock.low", this, LowStockIndex::size)
+				.description("The number of products below their reorder threshold")
+				.register(registry));
+	}
+
+	/**
+	 * Returns the products below their threshold, the largest shortfall first.
+	 *
+	 * @param limit the maximum number of products, must be between 1 and {@link #MAX_RESULTS}
+	 * @return the low products with their current stock
+	 */
+	public List<LowStockProduct> getLowStockProducts(final @Positive @Max(MAX_RESULTS) int limit) {
+		List<LowStockProduct> crossed = rebuildIfStale();
+		List<LowStockProduct> products = new ArrayList<>(Math.min(limit, size()));
+		Iterator<LowStockProduct> iterator = byShortfall.iterator();
+		while (iterator.hasNext() && products.size() < limit) {
+			products.add(iterator.next());
+		}
+		crossed.forEach(this::alert);
+		return products;
+	}
+
+	/**
+	 * <pre>
+	 * Sets the reorder threshold of the given product. If its
+	 * stock is already below the new threshold, it crosses it
+	 * right away.
+	 * </pre>
+	 *
+	 * @param id the id of the product, must be strictly positive
+	 * @param threshold the stock below which the product is low, 0 never is
+	 * @return the product with its threshold
+	 * @throws ProductNotFoundException if the product is unknown
+	 */
+	public LowStockProduct setThreshold(final @Positive long id, final @PositiveOrZero long threshold) {
+		Iterator<Product> found = productService.getProducts(Collections.singleton(id)).iterator();
+		if (!found.hasNext()) {
+			throw ProductNotFoundException.INSTANCE;
+		}
+		Product product = found.next();
+
+		List<LowStockProduct> crossed = rebuildIfStale();
+		thresholds.put(id, threshold);
+		// a stock change may have been applied since the product was read
+		Entry current = entries.compute(id, (key, previous) -> replace(previous, previous == null
+				? new Entry(0, rebuilds,
+						new LowStockProduct(id, product.getName(), product.getStock(), threshold))
+				: new Entry(previous.sequence, previous.generation,
+						new LowStockProduct(id, previous.product.getName(), previous.product.getStock(), threshold)),
+				crossed));
+		crossed.forEach(this::alert);
+		return current.product;
+	}
+
+	/**
+	 * @return the number of products below their threshold
+	 */
+	public int size() {
+		return lowCount.get();
+	}
+
+	/**
+	 * Rebuilds the whole index from the database, e.g. at startup or after an import.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void rebuild() {
+		List<LowStockProduct> crossed = new ArrayList<>();
+		synchronized (rebuildLock) {
+			rebuild(crossed);
+		}
+		LOG.info("{} products are below their reorder threshold", size());
+		crossed.forEach(this::alert);
+	}
+
+	/**
+	 * Moves the changed product into or out of the low products.
+	 *
+	 * @param event the stock change
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onStockChanged(final ProductStockChangedEvent event) {
+		List<LowStockProduct> crossed = rebuildIfStale();
+		Product product = event.getProduct();
+		// the generation is read while the entry is computed, after a rebuild which already merged the product
+		entries.compute(product.getId(), (id, previous) -> previous != null
+				&& previous.sequence >= event.getSequence() ? previous
+						: replace(previous, new Entry(event.getSequence(), rebuilds,
+								new LowStockProduct(id, product.getName(), product.getStock(),
+										thresholds.getOrDefault(id, defaultThreshold))),
+								crossed));
+		crossed.forEach(this::alert);
+	}
+
+	/**
+	 * Marks the index to be rebuilt on the next change or query.
+	 *
+	 * @param event the import of a chunk of products
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onProductsImported(final ProductsImportedEvent event) {
+		stale = true;
+	}
+
+	/**
+	 * @return the products which crossed their threshold by the rebuild
+	 */
+	private List<LowStockProduct> rebuildIfStale() {
+		List<LowStockProduct> crossed = new ArrayList<>();
+		if (stale) {
+			synchronized (rebuildLock) {
+				if (stale) {
+					rebuild(crossed);
+				}
+			}
+		}
+		return crossed;
+	}
+
+	/**
+	 * <pre>
+	 * Reads all products again, adding the ones newly below their
+	 * threshold to the given list.
+	 *
+	 * Every product read replaces the entry applied before the
+	 * rebuild started, keeping its sequence, so a late older
+	 * change is still ignored. The entries applied since are
+	 * kept, the ones of products not read anymore are removed.
+	 * An entry is applied with the generation current while it
+	 * is computed, so a change applied after the product was
+	 * merged belongs to this rebuild and is not removed.
+	 * </pre>
+	 */
+	private void rebuild(final List<LowStockProduct> crossed) {
+		stale = false;
+		long generation = ++rebuilds;
+		productService.forEachProduct(product -> {
+			LowStockProduct read = new LowStockProduct(product.getId(), product.getName(), product.getStock(),
+					thresholds.getOrDefault(product.getId(), defaultThreshold));
+			BiFunction<Long, Entry, Entry> merge = (id, previous) -> previous != null
+					&& previous.generation == generation ? previous
+							: replace(previous, new Entry(previous == null ? 0 : previous.sequence, generation, read),
+									crossed);
+			if (read.isLow()) {
+				entries.compute(read.getId(), merge);
+			} else {
+				entries.computeIfPresent(read.getId(), merge);
+			}
+		});
+
+		for (Long id : entries.keySet()) {
+			entries.computeIfPresent(id,
+					(key, previous) -> previous.generation < generation ? replace(previous, null, crossed) : previous);
+		}
+	}
+
+	/**
+	 * Moves the product from the previous entry to the given one in the low products, adding it to the given list
+	 * if it crossed. Called while the entry is computed.
+	 *
+	 * @param entry the new entry, or null to remove the product
+	 * @return the given entry
+	 */
+	private Entry replace(final Entry previous, final Entry entry, final List<LowStockProduct> crossed) {
+		boolean wasLow = previous != null && previous.product.isLow();
+		boolean isLow = entry != null && entry.product.isLow();
+		if (wasLow) {
+			byShortfall.remove(previous.product);
+		}
+		if (isLow) {
+			byShortfall.add(entry.product);
+			if (!wasLow) {
+				crossed.add(entry.product);
+			}
+		}
+		if (wasLow != isLow) {
+			lowCount.addAndGet(isLow ? 1 : -1);
+		}
+		return entry;
+	}
+
+	/**
+	 * Announces a crossing outside of the lock, the listeners may take their time.
+	 */
+	private void alert(final LowStockProduct product) {
+		LOG.warn("Product {} fell below its reorder threshold: {} < {}", product.getId(), product.getStock(),
+				product.getThreshold());
+		eventPublisher.publishEvent(new ProductStockLowEvent(product));
+	}
+
+	/**
+	 * The latest applied state of a product.
+	 */
+	private static final class Entry {
+		/**
+		 * The sequence of the latest applied change, 0 while none was applied.
+		 */
+		private final long sequence;
+
+		/**
+		 * The rebuild during which the entry was applied.
+		 */
+		private final long generation;
+
+		private final LowStockProduct product;
+
+		Entry(final long sequence, final long generation, final LowStockProduct product) {
+			this.sequence = sequence;
+			this.generation = generation;
+			this.product = product;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package de.malmansari.playground.onlineshop.lowstock;
+
+import de.malmansari.playground.onlineshop.model.LowStockProduct;
+import lombok.Value;
+
+/**
+ * <pre>
+ * Published by the {@link LowStockIndex} whenever the stock of
+ * a product falls below its reorder threshold, i.e. once per
+ * crossing and not for every further order.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@Value
+public class ProductStockLowEvent {
+	/**
+	 * The product with its new stock and its threshold.
+	 */
+	private final LowStockProduct product;
+}
@@ -0,0 +1,66 @@
+package de.malmansari.playground.onlineshop.metrics;
+
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.RootClassFilter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <pre>
+ * Instruments the {@link ProductService} and the 
+ * {@link ProductRepository}. 
+ * 
+ * The service interceptor is the outermost advice, so its 
+ * timings include the transactions. The HTTP endpoints are 
+ * measured by spring boot as http.server.requests and the 
+ * connection pool usage as hikaricp.connections.usage. All 
+ * meters can be scraped from /actuator/prometheus.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@Configuration
+@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+public class MetricsConfiguration {
+
+	@Bean
+	@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+	public ServiceMetricsInterceptor serviceMetricsInterceptor(ObjectProvider<MeterRegistry> meterRegistry,
+			@Value("${onlineshop.metrics.tracked-products:4096}") int trackedProducts) {
+		return new ServiceMetricsInterceptor(meterRegistry, trackedProducts);
+	}
+
+	@Bean
+	@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+	public RepositoryMetricsInterceptor repositoryMetricsInterceptor(ObjectProvider<MeterRegistry> meterRegistry) {
+		return new RepositoryMetricsInterceptor(meterRegistry);
+	}
+
+	@Bean
+	@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+	public Advisor serviceMetricsAdvisor(ServiceMetricsInterceptor serviceMetricsInterceptor) {
+		DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(
+				new ComposablePointcut(new RootClassFilter(ProductService.class)), serviceMetricsInterceptor);
+		advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+		return advisor;
+	}
+
+	@Bean
+	@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+	public Advisor repositoryMetricsAdvisor(RepositoryMetricsInterceptor repositoryMetricsInterceptor) {
+		return new DefaultPointcutAdvisor(
+				new ComposablePointcut(new RootClassFilter(ProductRepository.class)), repositoryMetricsInterceptor);
+	}
+}
@@ -0,0 +1,95 @@
+package de.malmansari.playground.onlineshop.metrics;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.malmansari.playground.onlineshop.util.LongIndex;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <pre>
+ * Counts per product how often a stock mutation started while 
+ * another one on the same product was still running, i.e. had
+ * to compete for the same row lock or counter.
+ * 
+ * Only the first products up to the given capacity are tracked.
+ * A product's counter is registered as the meter 
+ * onlineshop.product.contention when it is contended the first
+ * time, afterwards tracking does not allocate.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+public class ProductContentionTracker {
+	public static final int UNTRACKED = LongIndex.NO_SLOT;
+
+	private final MeterRegistry meterRegistry;
+
+	private final LongIndex index;
+
+	private final long[] productIds;
+
+	private final AtomicIntegerArray inFlight;
+
+	private final AtomicLongArray contended;
+
+	private int nextSlot;
+
+	public ProductContentionTracker(final MeterRegistry meterRegistry, final int capacity) {
+		this.meterRegistry = meterRegistry;
+		this.index = new LongIndex(capacity);
+		this.productIds = new long[capacity];
+		this.inFlight = new AtomicIntegerArray(capacity);
+		this.contended = new AtomicLongArray(capacity);
+	}
+
+	/**
+	 * Marks a mutation of the given product as started.
+	 * 
+	 * @param productId the id of the product
+	 * @return the slot to be passed to {@link #exit(int)}
+	 */
+	public int enter(final long productId) {
+		int slot = index.get(productId);
+		if (slot == LongIndex.NO_SLOT) {
+			slot = track(productId);
+			if (slot == UNTRACKED) {
+				return UNTRACKED;
+			}
+		}
+
+		if (inFlight.getAndIncrement(slot) > 0 && contended.getAndIncrement(slot) == 0) {
+			final int registeredSlot = slot;
+			FunctionCounter.builder("onlineshop.product.contention", contended, c -> c.get(registeredSlot))
+					.description("Stock mutations which overlapped with another one on the same product")
+					.tag("product", Long.toString(productId))
+					.register(meterRegistry);
+		}
+		return slot;
+	}
+
+	/**
+	 * Marks a mutation as finished.
+	 * 
+	 * @param slot the slot returned by {@link #enter(long)}
+	 */
+	public void exit(final int slot) {
+		if (slot != UNTRACKED) {
+			inFlight.decrementAndGet(slot);
+		}
+	}
+
+	private synchronized int track(final long productId) {
+		int slot = index.get(productId);
+		if (slot != LongIndex.NO_SLOT) {
+			return slot;
+		}
+		if (nextSlot == productIds.length) {
+			return UNTRACKED;
+		}
+		productIds[nextSlot] = productId;
+		return index.putIfAbsent(productId, nextSlot++);
+	}
+}
@@ -0,0 +1,70 @@
+package de.malmansari.playground.onlineshop.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.warmup.Warmup;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * <pre>
+ * Records the time spent in the database per {@link ProductRepository} 
+ * method as the timer onlineshop.db.calls.
+ * 
+ * A method's timer is registered on its first call, afterwards 
+ * recording does not allocate. The calls of the warmup are not
+ * recorded.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+public class RepositoryMetricsInterceptor implements MethodInterceptor, SmartInitializingSingleton {
+	private final ObjectProvider<MeterRegistry> meterRegistry;
+
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+	private volatile MeterRegistry registry;
+
+	public RepositoryMetricsInterceptor(final ObjectProvider<MeterRegistry> meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		registry = meterRegistry.getObject();
+	}
+
+	@Override
+	public Object invoke(final MethodInvocation invocation) throws Throwable {
+		if (registry == null || Warmup.isRunning()) {
+			return invocation.proceed();
+		}
+
+		String method = invocation.getMethod().getName();
+		Timer timer = timers.get(method);
+		if (timer == null) {
+			timer = timers.computeIfAbsent(method, name -> Timer.builder("onlineshop.db.calls")
+					.description("Time spent in the database per repository method")
+					.tag("method", name)
+					.publishPercentiles(0.5, 0.99, 0.999)
+					.publishPercentileHistogram()
+					.register(registry));
+		}
+
+		long start = System.nanoTime();
+		try {
+			return invocation.proceed();
+		} finally {
+			timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+}
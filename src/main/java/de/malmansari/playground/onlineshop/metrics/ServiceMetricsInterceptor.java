@@ -0,0 +1,154 @@
+package de.malmansari.playground.onlineshop.metrics;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.ConstraintViolationException;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.exception.ReservationNotFoundException;
+import de.malmansari.playground.onlineshop.exception.ServiceOverloadedException;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.warmup.Warmup;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * <pre>
+ * Records the latency and the outcome of every {@link ProductService}
+ * call as the timer onlineshop.service.calls, the rejected orders as
+ * the counter onlineshop.service.rejections and the per-product 
+ * contention of the stock mutations.
+ * 
+ * All meters are registered once all singletons exist, afterwards
+ * recording a call looks up the prepared meters and does not 
+ * allocate. Calls before that and the calls of the warmup are
+ * not recorded.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+public class ServiceMetricsInterceptor implements MethodInterceptor, SmartInitializingSingleton {
+	private static final String[] OUTCOMES = { "success", "not_found", "not_enough_stock", "invalid", "overloaded",
+			"error" };
+	private static final int SUCCESS = 0;
+	private static final int NOT_FOUND = 1;
+	private static final int NOT_ENOUGH_STOCK = 2;
+	private static final int INVALID = 3;
+	private static final int OVERLOADED = 4;
+	private static final int ERROR = 5;
+
+	private final ObjectProvider<MeterRegistry> meterRegistry;
+
+	private final int trackedProducts;
+
+	private volatile Map<String, MethodMetrics> methods;
+
+	private Counter notFound;
+
+	private Counter notEnoughStock;
+
+	private Counter overloaded;
+
+	private ProductContentionTracker contentionTracker;
+
+	public ServiceMetricsInterceptor(final ObjectProvider<MeterRegistry> meterRegistry, final int trackedProducts) {
+		this.meterRegistry = meterRegistry;
+		this.trackedProducts = trackedProducts;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		MeterRegistry registry = meterRegistry.getObject();
+		notFound = rejections(registry, "not_found");
+		notEnoughStock = rejections(registry, "not_enough_stock");
+		overloaded = rejections(registry, "overloaded");
+		contentionTracker = new ProductContentionTracker(registry, trackedProducts);
+
+		Map<String, MethodMetrics> prepared = new HashMap<>();
+		for (Method method : ProductService.class.getMethods()) {
+			Timer[] timers = new Timer[OUTCOMES.length];
+			for (int i = 0; i < OUTCOMES.length; i++) {
+				timers[i] = Timer.builder("onlineshop.service.calls")
+						.description("Latency of the product service calls")
+						.tags("method", method.getName(), "outcome", OUTCOMES[i])
+						.publishPercentiles(0.5, 0.99, 0.999)
+						.publishPercentileHistogram()
+						.register(registry);
+			}
+			boolean mutatesStock = method.getName().equals("order") || method.getName().equals("addToStock")
+					|| method.getName().equals("reserve") || method.getName().equals("orderOnce");
+			prepared.put(method.getName(), new MethodMetrics(timers, mutatesStock));
+		}
+		methods = prepared;
+	}
+
+	@Override
+	public Object invoke(final MethodInvocation invocation) throws Throwable {
+		Map<String, MethodMetrics> prepared = methods;
+		MethodMetrics metrics = prepared == null ? null : prepared.get(invocation.getMethod().getName());
+		if (metrics == null || Warmup.isRunning()) {
+			return invocation.proceed();
+		}
+
+		int slot = metrics.mutatesStock
+				? contentionTracker.enter((Long) invocation.getArguments()[0])
+				: ProductContentionTracker.UNTRACKED;
+		int outcome = ERROR;
+		long start = System.nanoTime();
+		try {
+			Object result = invocation.proceed();
+			outcome = SUCCESS;
+			return result;
+		} catch (ProductNotFoundException e) {
+			outcome = NOT_FOUND;
+			notFound.increment();
+			throw e;
+		} catch (ReservationNotFoundException e) {
+			outcome = NOT_FOUND;
+			throw e;
+		} catch (ProductHasNotEnoughStockException e) {
+			outcome = NOT_ENOUGH_STOCK;
+			notEnoughStock.increment();
+			throw e;
+		} catch (ConstraintViolationException e) {
+			outcome = INVALID;
+			throw e;
+		} catch (ServiceOverloadedException e) {
+			outcome = OVERLOADED;
+			overloaded.increment();
+			throw e;
+		} finally {
+			metrics.timers[outcome].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			contentionTracker.exit(slot);
+		}
+	}
+
+	private static Counter rejections(final MeterRegistry registry, final String reason) {
+		return Counter.builder("onlineshop.service.rejections")
+				.description("Orders rejected by the product service")
+				.tag("reason", reason)
+				.register(registry);
+	}
+
+	private static final class MethodMetrics {
+		private final Timer[] timers;
+
+		private final boolean mutatesStock;
+
+		MethodMetrics(final Timer[] timers, final boolean mutatesStock) {
+			this.timers = timers;
+			this.mutatesStock = mutatesStock;
+		}
+	}
+}
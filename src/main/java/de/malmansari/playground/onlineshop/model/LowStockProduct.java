@@ -0,0 +1,30 @@
+package de.malmansari.playground.onlineshop.model;
+
+import lombok.Value;
+
+/**
+ * <pre>
+ * A product together with its reorder threshold. The product
+ * is low on stock while its stock is below the threshold.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@Value
+public class LowStockProduct {
+	private final long id;
+
+	private final String name;
+
+	private final long stock;
+
+	private final long threshold;
+
+	/**
+	 * @return whether the stock is below the threshold
+	 */
+	public boolean isLow() {
+		return stock < threshold;
+	}
+}
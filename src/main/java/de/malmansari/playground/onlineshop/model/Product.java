@@ -1,22 +1,30 @@
 package de.malmansari.playground.onlineshop.model;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Version;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 /**
+ * <pre>
  * The product entity.
  * 
+ * The version is incremented by every update of the row, also
+ * by the plain SQL ones, so an optimistic update fails instead
+ * of overwriting a concurrent change. It is not part of the API.
+ * </pre>
+ * 
  * @author malmansari
  *
  */
 @Data
-@AllArgsConstructor
 @NoArgsConstructor
 @Entity
 public class Product {
@@ -27,4 +35,15 @@ public class Product {
     private String name;
     
     private long stock;
+
+    @Version
+    @JsonIgnore
+    @Column(columnDefinition = "bigint default 0 not null")
+    private long version;
+
+    public Product(final long id, final String name, final long stock) {
+    	this.id = id;
+    	this.name = name;
+    	this.stock = stock;
+    }
 }
\ No newline at end of file
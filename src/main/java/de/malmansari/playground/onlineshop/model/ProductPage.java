@@ -0,0 +1,23 @@
+package de.malmansari.playground.onlineshop.model;
+
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * <pre>
+ * One page of the product list in ascending id order.
+ * 
+ * The next page starts after {@link #getNextCursor()}, which 
+ * is null if there are no more products.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@Value
+public class ProductPage {
+	private final List<Product> products;
+
+	private final Long nextCursor;
+}
@@ -0,0 +1,27 @@
+package de.malmansari.playground.onlineshop.model;
+
+import lombok.Value;
+
+/**
+ * <pre>
+ * Items of a product held for a checkout. The items are taken 
+ * from the stock when reserving, and given back if the 
+ * reservation is released or not confirmed until it expires.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@Value
+public class Reservation {
+	private final long id;
+
+	private final long productId;
+
+	private final long quantity;
+
+	/**
+	 * The expiry time in milliseconds since the epoch.
+	 */
+	private final long expiresAt;
+}
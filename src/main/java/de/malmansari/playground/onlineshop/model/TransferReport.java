@@ -0,0 +1,23 @@
+package de.malmansari.playground.onlineshop.model;
+
+import lombok.Value;
+
+/**
+ * The outcome of a product import or export.
+ * 
+ * @author malmansari
+ *
+ */
+@Value
+public class TransferReport {
+	private final long products;
+
+	private final long millis;
+
+	/**
+	 * @return the throughput in products per second
+	 */
+	public long getProductsPerSecond() {
+		return millis == 0 ? products * 1000 : products * 1000 / millis;
+	}
+}
@@ -1,6 +1,17 @@
 package de.malmansari.playground.onlineshop.repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
 import de.malmansari.playground.onlineshop.model.Product;
 
@@ -10,5 +21,80 @@ import de.malmansari.playground.onlineshop.model.Product;
  * @author malmansari
  *
  */
-public interface ProductRepository extends CrudRepository<Product, Long> {
-}
\ No newline at end of file
+public interface ProductRepository extends CrudRepository<Product, Long>, ProductRepositoryCustom {
+	/**
+	 * <pre>
+	 * Decrements the stock of the given product in a single 
+	 * statement, but only if the stock is sufficient. Concurrent 
+	 * orders are serialized by the row lock of the update, so 
+	 * the stock can never become negative.
+	 * </pre>
+	 * 
+	 * @param id the id of the product
+	 * @param quantity the number of items to be removed from the stock
+	 * @return the number of updated rows, 0 if the product is unknown or its stock is not sufficient
+	 */
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("update Product p set p.stock = p.stock - :quantity, p.version = p.version + 1 "
+			+ "where p.id = :id and p.stock >= :quantity")
+	int decrementStock(@Param("id") long id, @Param("quantity") long quantity);
+
+	/**
+	 * Increments the stock of the given product in a single statement.
+	 * 
+	 * @param id the id of the product
+	 * @param quantity the number of items to be added to the stock
+	 * @return the number of updated rows, 0 if the product is unknown
+	 */
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("update Product p set p.stock = p.stock + :quantity, p.version = p.version + 1 where p.id = :id")
+	int incrementStock(@Param("id") long id, @Param("quantity") long quantity);
+
+	/**
+	 * Removes the given product in a single statement, whatever its version.
+	 * 
+	 * @param id the id of the product
+	 * @return the number of removed rows, 0 if the product is unknown
+	 */
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("delete from Product p where p.id = :id")
+	int removeById(@Param("id") long id);
+
+	/**
+	 * Loads the given product and locks its row for update, i.e. SELECT ... FOR UPDATE.
+	 * 
+	 * @param id the id of the product
+	 * @return the locked product, if found
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	Optional<Product> findLockedById(long id);
+
+	/**
+	 * <pre>
+	 * Loads the given products and locks their rows for update.
+	 * 
+	 * The rows are read, and thus locked, in ascending id order,
+	 * so two transactions locking overlapping sets of products
+	 * cannot deadlock each other.
+	 * </pre>
+	 * 
+	 * @param ids the ids of the products
+	 * @return the found products sorted by id
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	List<Product> findByIdInOrderByIdAsc(Collection<Long> ids);
+
+	/**
+	 * <pre>
+	 * Returns the products following the given id, i.e. one page 
+	 * of a keyset pagination. Unlike an offset, the cursor id is 
+	 * looked up in the primary key index, so all pages are 
+	 * equally cheap.
+	 * </pre>
+	 * 
+	 * @param id the id after which the page starts
+	 * @param pageable the page size, the page number must be 0
+	 * @return the products sorted by id
+	 */
+	List<Product> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
+}
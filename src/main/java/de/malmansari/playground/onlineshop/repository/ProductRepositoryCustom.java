@@ -0,0 +1,51 @@
+package de.malmansari.playground.onlineshop.repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+
+import de.malmansari.playground.onlineshop.model.Product;
+
+/**
+ * The JDBC based operations of the {@link ProductRepository}.
+ * 
+ * @author malmansari
+ *
+ */
+public interface ProductRepositoryCustom {
+	/**
+	 * <pre>
+	 * Passes all products in ascending id order to the given 
+	 * action while they are read from the database cursor. 
+	 * No product is kept after the action returns, so the 
+	 * memory use does not depend on the number of products.
+	 * </pre>
+	 * 
+	 * @param action the action to be performed for each product
+	 */
+	void forEachProduct(Consumer<Product> action);
+
+	/**
+	 * <pre>
+	 * Adds the given quantities to the stock of the products 
+	 * with one JDBC batch. Unknown products are skipped.
+	 * </pre>
+	 * 
+	 * @param quantities the number of items to be added per product id
+	 */
+	void incrementStocks(SortedMap<Long, Long> quantities);
+
+	/**
+	 * <pre>
+	 * Inserts the unknown products and overwrites the known ones
+	 * with one JDBC batch, bypassing the persistence context.
+	 * The known products are locked first, so their stock cannot
+	 * change between reading and overwriting it.
+	 * </pre>
+	 * 
+	 * @param products the products with their ids
+	 * @return the stock the known products had before, by id
+	 */
+	Map<Long, Long> mergeProducts(List<Product> products);
+}
@@ -0,0 +1,86 @@
+package de.malmansari.playground.onlineshop.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import de.malmansari.playground.onlineshop.model.Product;
+
+/**
+ * <pre>
+ * The implementation of {@link ProductRepositoryCustom}.
+ * 
+ * It uses plain JDBC, since the persistence context would 
+ * keep every read entity until the transaction ends, and 
+ * would send the updates one by one.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+public class ProductRepositoryImpl implements ProductRepositoryCustom {
+	private static final String SELECT_ALL_SQL = "SELECT id, name, stock FROM product ORDER BY id";
+
+	private static final String INCREMENT_STOCK_SQL = "UPDATE product SET stock = stock + ?, version = version + 1 WHERE id = ?";
+
+	private static final String LOCK_STOCKS_SQL = "SELECT id, stock FROM product WHERE id IN (%s) FOR UPDATE";
+
+	private static final String MERGE_PRODUCT_SQL = "MERGE INTO product (id, name, stock, version) KEY (id) "
+			+ "VALUES (?, ?, ?, COALESCE((SELECT version + 1 FROM product WHERE id = ?), 0))";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final JdbcTemplate streamingJdbcTemplate;
+
+	public ProductRepositoryImpl(DataSource dataSource,
+			@Value("${onlineshop.products.stream-fetch-size:500}") int fetchSize) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+		this.streamingJdbcTemplate.setFetchSize(fetchSize);
+	}
+
+	@Override
+	public void forEachProduct(final Consumer<Product> action) {
+		streamingJdbcTemplate.query(SELECT_ALL_SQL, resultSet -> {
+			action.accept(new Product(resultSet.getLong(1), resultSet.getString(2), resultSet.getLong(3)));
+		});
+	}
+
+	@Override
+	public void incrementStocks(final SortedMap<Long, Long> quantities) {
+		List<Object[]> updates = new ArrayList<>(quantities.size());
+		quantities.forEach((id, quantity) -> updates.add(new Object[] { quantity, id }));
+		jdbcTemplate.batchUpdate(INCREMENT_STOCK_SQL, updates);
+	}
+
+	@Override
+	public Map<Long, Long> mergeProducts(final List<Product> products) {
+		if (products.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		Object[] ids = new Object[products.size()];
+		List<Object[]> rows = new ArrayList<>(products.size());
+		for (int i = 0; i < ids.length; i++) {
+			Product product = products.get(i);
+			ids[i] = product.getId();
+			rows.add(new Object[] { product.getId(), product.getName(), product.getStock(), product.getId() });
+		}
+
+		Map<Long, Long> replaced = new HashMap<>();
+		jdbcTemplate.query(String.format(LOCK_STOCKS_SQL, String.join(",", Collections.nCopies(ids.length, "?"))),
+				ids, (RowCallbackHandler) resultSet -> replaced.put(resultSet.getLong(1), resultSet.getLong(2)));
+		jdbcTemplate.batchUpdate(MERGE_PRODUCT_SQL, rows);
+		return replaced;
+	}
+}
@@ -0,0 +1,419 @@
+package de.malmansari.playground.onlineshop.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.Positive;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.validation.annotation.Validated;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+import de.malmansari.playground.onlineshop.service.ProductsImportedEvent;
+import de.malmansari.playground.onlineshop.util.LongIndex;
+
+/**
+ * <pre>
+ * An in-memory inverted index over the product names.
+ *
+ * Every product is a document with a dense int number. The
+ * names are split into lower case tokens, and every token
+ * points to the sorted int array of the documents containing
+ * it. The tokens are kept sorted, so a prefix matches a range
+ * of them found by binary search.
+ *
+ * The index is built from the {@link ProductService} once the
+ * application is ready, afterwards it follows the stock 
+ * changes: the stock of a known product is updated in place,
+ * an unknown product is added, which rebuilds the tokens. An
+ * import marks the index stale, the next query rebuilds it.
+ * Queries never touch the database and do not lock, they read 
+ * an immutable snapshot of the tokens and the current stocks.
+ *
+ * The stock of a known product is updated without a lock.
+ * The listeners of the changes run in the committing threads
+ * and may overtake each other, so a stock is only replaced by
+ * a newer one, see {@link ProductStockChangedEvent#getSequence()}.
+ * Only adding a product and rebuilding take the lock of the
+ * index. A change which may have missed their copy of the
+ * stocks is applied again under the lock.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+@Validated
+public class ProductSearchIndex {
+	/**
+	 * The maximum number of products of one search result.
+	 */
+	public static final int MAX_RESULTS = 1000;
+
+	private static final int[] NO_DOCUMENTS = new int[0];
+
+	private final ProductService productService;
+
+	private volatile Snapshot snapshot = new Snapshot(new long[0], new String[0], new String[0], new int[0][], 0,
+			new LongIndex(), new AtomicReferenceArray<>(0));
+
+	private volatile boolean stale;
+
+	public ProductSearchIndex(ProductService productService) {
+		this.productService = productService;
+	}
+
+	/**
+	 * <pre>
+	 * Returns the products whose name contains all tokens of
+	 * the query. With prefix, a query token also matches the
+	 * name tokens starting with it, e.g. "je" matches "Jeans".
+	 * The products are returned in the order they were indexed,
+	 * i.e. by id for the products existing at startup.
+	 * </pre>
+	 *
+	 * @param query the tokens to search for, must not be blank
+	 * @param prefix whether the tokens match as prefixes
+	 * @param inStockOnly whether only products with stock are returned
+	 * @param limit the maximum number of products, must be between 1 and {@link #MAX_RESULTS}
+	 * @return the matching products with their current stock
+	 */
+	public List<Product> search(final @NotBlank String query, final boolean prefix, final boolean inStockOnly,
+			final @Positive @Max(MAX_RESULTS) int limit) {
+		if (stale) {
+			rebuildIfStale();
+		}
+		Snapshot current = snapshot;
+
+		int[] matches = null;
+		for (String token : tokenize(query)) {
+			int[] documents = prefix ? current.prefixPostings(token) : current.postings(token);
+			matches = matches == null ? documents : intersect(matches, documents);
+			if (matches.length == 0) {
+				return Collections.emptyList();
+			}
+		}
+		if (matches == null) {
+			return Collections.emptyList();
+		}
+
+		List<Product> products = new ArrayList<>(Math.min(limit, matches.length));
+		for (int i = 0; i < matches.length && products.size() < limit; i++) {
+			int document = matches[i];
+			long stock = current.stocks.get(document).stock;
+			if (!inStockOnly || stock > 0) {
+				products.add(new Product(current.ids[document], current.names[document], stock));
+			}
+		}
+		return products;
+	}
+
+	/**
+	 * <pre>
+	 * Rebuilds the whole index from the database, e.g. at
+	 * startup or after an import.
+	 *
+	 * The changes go on while the products are read. The ones
+	 * applied since the rebuild started are kept, the others
+	 * keep their sequence, so a late older change is ignored.
+	 * </pre>
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public synchronized void rebuild() {
+		stale = false;
+		Snapshot previous = snapshot;
+		Stock[] before = new Stock[previous.size];
+		for (int document = 0; document < before.length; document++) {
+			before[document] = previous.stocks.get(document);
+		}
+		List<Product> products = new ArrayList<>();
+		productService.forEachProduct(products::add);
+
+		LongIndex rebuilt = new LongIndex(products.size());
+		AtomicReferenceArray<Stock> rebuiltStocks = new AtomicReferenceArray<>(capacityFor(products.size()));
+		long[] ids = new long[rebuiltStocks.length()];
+		String[] names = new String[rebuiltStocks.length()];
+		for (int document = 0; document < products.size(); document++) {
+			Product product = products.get(document);
+			rebuilt.putIfAbsent(product.getId(), document);
+			ids[document] = product.getId();
+			names[document] = product.getName();
+			rebuiltStocks.set(document, new Stock(product.getStock(), 0));
+		}
+
+		previous.retired = true;
+		for (int document = 0; document < products.size(); document++) {
+			int replaced = previous.documents.get(ids[document]);
+			if (replaced != LongIndex.NO_SLOT && replaced < before.length) {
+				Stock applied = previous.stocks.get(replaced);
+				rebuiltStocks.set(document, applied != before[replaced] ? applied
+						: new Stock(rebuiltStocks.get(document).stock, applied.sequence));
+			}
+		}
+		snapshot = Snapshot.of(ids, names, products.size(), rebuilt, rebuiltStocks);
+	}
+
+	/**
+	 * Updates the stock of the changed product, or adds the product if it is unknown.
+	 *
+	 * @param event the stock change
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onStockChanged(final ProductStockChangedEvent event) {
+		Product product = event.getProduct();
+		Snapshot current = snapshot;
+		int document = current.documents.get(product.getId());
+		if (document != LongIndex.NO_SLOT && document < current.size) {
+			current.apply(document, product.getStock(), event.getSequence());
+			if (!current.retired) {
+				return;
+			}
+		}
+		changed(product, event.getSequence());
+	}
+
+	/**
+	 * Applies a change to the latest snapshot under the lock: the change of an unknown product, which is added,
+	 * or one which may have missed the copy of the stocks.
+	 */
+	private synchronized void changed(final Product product, final long sequence) {
+		Snapshot current = snapshot;
+		int document = current.documents.get(product.getId());
+		if (document != LongIndex.NO_SLOT) {
+			current.apply(document, product.getStock(), sequence);
+			return;
+		}
+
+		document = current.size;
+		AtomicReferenceArray<Stock> stocks = current.stocks;
+		long[] ids = current.ids;
+		String[] names = current.names;
+		if (document == ids.length) {
+			// the changes applied to the current stocks from now on are applied again
+			current.retired = true;
+			int capacity = capacityFor(document + 1);
+			AtomicReferenceArray<Stock> grown = new AtomicReferenceArray<>(capacity);
+			for (int i = 0; i < document; i++) {
+				grown.set(i, stocks.get(i));
+			}
+			stocks = grown;
+			ids = Arrays.copyOf(ids, capacity);
+			names = Arrays.copyOf(names, capacity);
+		}
+		ids[document] = product.getId();
+		names[document] = product.getName();
+		stocks.set(document, new Stock(product.getStock(), sequence));
+		current.documents.putIfAbsent(product.getId(), document);
+
+		snapshot = Snapshot.of(ids, names, document + 1, current.documents, stocks);
+	}
+
+	/**
+	 * Marks the index to be rebuilt on the next query.
+	 *
+	 * @param event the import of a chunk of products
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onProductsImported(final ProductsImportedEvent event) {
+		stale = true;
+	}
+
+	private synchronized void rebuildIfStale() {
+		if (stale) {
+			rebuild();
+		}
+	}
+
+	private static int capacityFor(final int size) {
+		int capacity = 16;
+		while (capacity < size) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static List<String> tokenize(final String text) {
+		List<String> tokens = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean letterOrDigit = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (letterOrDigit && start < 0) {
+				start = i;
+			} else if (!letterOrDigit && start >= 0) {
+				tokens.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	private static int[] intersect(final int[] first, final int[] second) {
+		int[] result = new int[Math.min(first.length, second.length)];
+		int size = 0;
+		for (int i = 0, j = 0; i < first.length && j < second.length;) {
+			if (first[i] < second[j]) {
+				i++;
+			} else if (first[i] > second[j]) {
+				j++;
+			} else {
+				result[size++] = first[i];
+				i++;
+				j++;
+			}
+		}
+		return size == result.length ? result : Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * The stock of a document and the sequence of the change it was applied by, 0 if it was read.
+	 */
+	private static final class Stock {
+		private final long stock;
+
+		private final long sequence;
+
+		Stock(final long stock, final long sequence) {
+			this.stock = stock;
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * The documents and the sorted tokens with their postings at a certain point of time.
+	 */
+	private static final class Snapshot {
+		private final long[] ids;
+
+		private final String[] names;
+
+		private final String[] tokens;
+
+		private final int[][] postings;
+
+		private final int size;
+
+		/**
+		 * The documents by product id, shared with the following snapshots until a rebuild and inserted under the
+		 * lock of the index.
+		 */
+		private final LongIndex documents;
+
+		/**
+		 * The current stocks by document, shared with the following snapshots until they are copied.
+		 */
+		private final AtomicReferenceArray<Stock> stocks;
+
+		/**
+		 * Whether the stocks have been copied for a later snapshot.
+		 */
+		private volatile boolean retired;
+
+		Snapshot(final long[] ids, final String[] names, final String[] tokens, final int[][] postings,
+				final int size, final LongIndex documents, final AtomicReferenceArray<Stock> stocks) {
+			this.ids = ids;
+			this.names = names;
+			this.tokens = tokens;
+			this.postings = postings;
+			this.size = size;
+			this.documents = documents;
+			this.stocks = stocks;
+		}
+
+		static Snapshot of(final long[] ids, final String[] names, final int size, final LongIndex byId,
+				final AtomicReferenceArray<Stock> stocks) {
+			Map<String, int[]> postings = new TreeMap<>();
+			Map<String, Integer> sizes = new TreeMap<>();
+			for (int document = 0; document < size; document++) {
+				if (names[document] == null) {
+					continue;
+				}
+				for (String token : tokenize(names[document])) {
+					int[] documents = postings.get(token);
+					int count = sizes.getOrDefault(token, 0);
+					if (documents == null) {
+						documents = new int[1];
+					} else if (count > 0 && documents[count - 1] == document) {
+						continue;
+					} else if (count == documents.length) {
+						documents = Arrays.copyOf(documents, count * 2);
+					}
+					documents[count] = document;
+					postings.put(token, documents);
+					sizes.put(token, count + 1);
+				}
+			}
+
+			String[] tokens = postings.keySet().toArray(new String[0]);
+			int[][] trimmed = new int[tokens.length][];
+			for (int i = 0; i < tokens.length; i++) {
+				trimmed[i] = Arrays.copyOf(postings.get(tokens[i]), sizes.get(tokens[i]));
+			}
+			return new Snapshot(ids, names, tokens, trimmed, size, byId, stocks);
+		}
+
+		/**
+		 * Replaces the stock of the given document unless a newer change was applied.
+		 */
+		void apply(final int document, final long stock, final long sequence) {
+			Stock changed = new Stock(stock, sequence);
+			Stock applied;
+			do {
+				applied = stocks.get(document);
+				if (applied.sequence >= sequence) {
+					return;
+				}
+			} while (!stocks.compareAndSet(document, applied, changed));
+		}
+
+		int[] postings(final String token) {
+			int i = Arrays.binarySearch(tokens, token);
+			return i < 0 ? NO_DOCUMENTS : postings[i];
+		}
+
+		int[] prefixPostings(final String prefix) {
+			int from = Arrays.binarySearch(tokens, prefix);
+			if (from < 0) {
+				from = -from - 1;
+			}
+			int to = from;
+			while (to < tokens.length && tokens[to].startsWith(prefix)) {
+				to++;
+			}
+			if (to - from <= 1) {
+				return to == from ? NO_DOCUMENTS : postings[from];
+			}
+
+			int total = 0;
+			for (int i = from; i < to; i++) {
+				total += postings[i].length;
+			}
+			int[] documents = new int[total];
+			int size = 0;
+			for (int i = from; i < to; i++) {
+				System.arraycopy(postings[i], 0, documents, size, postings[i].length);
+				size += postings[i].length;
+			}
+			Arrays.sort(documents);
+
+			int distinct = 0;
+			for (int i = 0; i < documents.length; i++) {
+				if (distinct == 0 || documents[distinct - 1] != documents[i]) {
+					documents[distinct++] = documents[i];
+				}
+			}
+			return distinct == documents.length ? documents : Arrays.copyOf(documents, distinct);
+		}
+	}
+}
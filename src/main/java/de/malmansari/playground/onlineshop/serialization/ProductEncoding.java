@@ -0,0 +1,69 @@
+package de.malmansari.playground.onlineshop.serialization;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.http.MediaType;
+
+/**
+ * <pre>
+ * The formats products are written in: JSON by default, or
+ * one of the compact binary formats Smile and CBOR if the
+ * client prefers it in its Accept header.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public enum ProductEncoding {
+	JSON(MediaType.APPLICATION_JSON),
+	SMILE(new MediaType("application", "x-jackson-smile")),
+	CBOR(MediaType.APPLICATION_CBOR);
+
+	private final MediaType mediaType;
+
+	ProductEncoding(final MediaType mediaType) {
+		this.mediaType = mediaType;
+	}
+
+	public MediaType getMediaType() {
+		return mediaType;
+	}
+
+	/**
+	 * Selects the encoding the client prefers.
+	 *
+	 * @param accepted the media types the client accepts
+	 * @return the most preferred encoding, JSON if none of them is accepted
+	 */
+	public static ProductEncoding negotiate(final List<MediaType> accepted) {
+		List<MediaType> sorted = new ArrayList<>(accepted);
+		MediaType.sortBySpecificityAndQuality(sorted);
+		for (MediaType type : sorted) {
+			if (type.getQualityValue() == 0) {
+				continue;
+			}
+			for (ProductEncoding encoding : values()) {
+				if (type.includes(encoding.mediaType)) {
+					return encoding;
+				}
+			}
+		}
+		return JSON;
+	}
+
+	/**
+	 * Finds the encoding of the given content type.
+	 *
+	 * @param contentType the content type, parameters like the charset are ignored
+	 * @return the encoding, JSON if the content type is none of them
+	 */
+	public static ProductEncoding of(final MediaType contentType) {
+		for (ProductEncoding encoding : values()) {
+			if (contentType != null && encoding.mediaType.equalsTypeAndSubtype(contentType)) {
+				return encoding;
+			}
+		}
+		return JSON;
+	}
+}
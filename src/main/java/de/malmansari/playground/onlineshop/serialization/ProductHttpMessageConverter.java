@@ -0,0 +1,92 @@
+package de.malmansari.playground.onlineshop.serialization;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import de.malmansari.playground.onlineshop.model.Product;
+
+/**
+ * <pre>
+ * Writes the product and product list responses with the
+ * {@link ProductWriter} straight into the response stream, as
+ * JSON, Smile or CBOR as negotiated with the client.
+ *
+ * Being a bean, Spring Boot registers it in front of the
+ * Jackson converters, which still write all other responses.
+ * A list is only taken if its declared element type is a
+ * product, e.g. List&lt;Product&gt;. Requests are never read.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+public class ProductHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+	private final ProductWriter productWriter;
+
+	public ProductHttpMessageConverter(ProductWriter productWriter) {
+		super(ProductEncoding.JSON.getMediaType(), ProductEncoding.SMILE.getMediaType(),
+				ProductEncoding.CBOR.getMediaType());
+		this.productWriter = productWriter;
+	}
+
+	@Override
+	protected boolean supports(final Class<?> clazz) {
+		return Product.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	public boolean canRead(final Class<?> clazz, final MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	public boolean canRead(final Type type, final Class<?> contextClass, final MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	public boolean canWrite(final Type type, final Class<?> clazz, final MediaType mediaType) {
+		return isProducts(type != null ? ResolvableType.forType(type) : ResolvableType.forClass(clazz))
+				&& canWrite(mediaType);
+	}
+
+	private static boolean isProducts(final ResolvableType type) {
+		Class<?> resolved = type.resolve(Object.class);
+		if (Product.class.isAssignableFrom(resolved)) {
+			return true;
+		}
+		return Iterable.class.isAssignableFrom(resolved)
+				&& Product.class.isAssignableFrom(type.as(Iterable.class).getGeneric(0).resolve(Object.class));
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected void writeInternal(final Object products, final Type type, final HttpOutputMessage outputMessage)
+			throws IOException {
+		ProductEncoding encoding = ProductEncoding.of(outputMessage.getHeaders().getContentType());
+		if (products instanceof Product) {
+			productWriter.write((Product) products, encoding, outputMessage.getBody());
+		} else {
+			productWriter.writeAll((Iterable<Product>) products, encoding, outputMessage.getBody());
+		}
+	}
+
+	@Override
+	protected Object readInternal(final Class<?> clazz, final HttpInputMessage inputMessage) {
+		throw new HttpMessageNotReadableException("Products are not read by this converter", inputMessage);
+	}
+
+	@Override
+	public Object read(final Type type, final Class<?> contextClass, final HttpInputMessage inputMessage) {
+		throw new HttpMessageNotReadableException("Products are not read by this converter", inputMessage);
+	}
+}
@@ -1,20 +1,34 @@
 package de.malmansari.playground.onlineshop.service;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
+import javax.validation.constraints.Size;
 
 import org.springframework.validation.annotation.Validated;
 
 import de.malmansari.playground.onlineshop.exception.OnlineShopExceptionHandler;
 import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.model.ProductPage;
+import de.malmansari.playground.onlineshop.model.Reservation;
 
 /**
  * <pre>
  * The service layer for {@link Product} related requests.
  *
  * Currently, it supports the following operations:
- *  - get all products
- *  - order a product
+ *  - get all products, at once, page by page or as a stream
+ *  - order a product, also exactly once per idempotency key
+ *  - order several products at once
+ *  - reserve items of a product, then confirm or release them
  *  - increment a product stock.
  *  
  *  Please note that the order operation is really simple here, 
@@ -22,6 +36,9 @@ import de.malmansari.playground.onlineshop.model.Product;
  *  want to order. This will decrease the stock value of the 
  *  product, see {@link Product#getStock()}.
  *  
+ *  Every stock change is announced as a 
+ *  {@link ProductStockChangedEvent}.
+ *  
  *  This API can throw a couple of exceptions, which are 
  *  going to intercepted by the {@link OnlineShopExceptionHandler}
  *  aspect and delegated further nicely to the view layer. 
@@ -32,6 +49,12 @@ import de.malmansari.playground.onlineshop.model.Product;
  */
 @Validated
 public interface ProductService {
+	/**
+	 * The maximum number of products of one page.
+	 */
+	int MAX_PAGE_SIZE = 1000;
+
+
 	/**
 	 * Returns all available products.
 	 * 
@@ -39,6 +62,31 @@ public interface ProductService {
 	 */
     @NotNull Iterable<Product> getAllProducts();
 
+    /**
+     * Returns the given products, unknown ids are skipped.
+     * 
+     * @param ids the ids of the products
+     * @return the list of found products
+     */
+    @NotNull Iterable<Product> getProducts(final @NotNull Collection<Long> ids);
+
+    /**
+     * Returns the products following the given cursor in ascending id order.
+     * 
+     * @param afterId the cursor, i.e. the last id of the previous page or 0 for the first page
+     * @param limit the maximum number of products, must be between 1 and {@link #MAX_PAGE_SIZE}
+     * @return the page of products
+     */
+    @NotNull ProductPage getProductPage(final @PositiveOrZero long afterId, final @Positive @Max(MAX_PAGE_SIZE) int limit);
+
+    /**
+     * Passes all products in ascending id order to the given action 
+     * without loading them into memory at once.
+     * 
+     * @param action the action to be performed for each product
+     */
+    void forEachProduct(final @NotNull Consumer<Product> action);
+
     /**
      * <pre>
      * Represents a simple notion of order process.
@@ -54,6 +102,24 @@ public interface ProductService {
      * @return the updated product if found
      */
     Product order(final @Positive long id, final @Positive long quantity);
+
+    /**
+     * <pre>
+     * Orders like {@link #order(long, long)}, but only once per 
+     * idempotency key: a retry with the same key returns the 
+     * product of the first order without ordering again, as 
+     * long as the key is remembered. A failed order is not 
+     * remembered, its retry orders again.
+     * </pre>
+     * 
+     * @param id the id of the product to be ordered, must be strictly positive
+     * @param quantity the number of the items that to be ordered from the product, must be strictly positive
+     * @param idempotencyKey the key chosen by the client for this order, must not be blank and at most 255 characters
+     * 
+     * @return the product right after the first order of the key
+     */
+    Product orderOnce(final @Positive long id, final @Positive long quantity,
+    		final @NotBlank @Size(max = 255) String idempotencyKey);
     
     /**
      * <pre>
@@ -67,4 +133,53 @@ public interface ProductService {
      * @return the updated product if found
      */
     Product addToStock(final @Positive long id, final @Positive long quantity);
-}
\ No newline at end of file
+
+    /**
+     * <pre>
+     * Orders several products at once, e.g. a whole cart.
+     * 
+     * Either all lines are ordered or none of them: if any 
+     * product is not found or has not enough stock, no stock 
+     * is changed at all.
+     * </pre>
+     * 
+     * @param quantities the number of items to be ordered per product id, must not be empty and all ids and quantities must be strictly positive
+     * 
+     * @return the updated products sorted by id
+     */
+    List<Product> orderBatch(final @NotEmpty Map<@NotNull @Positive Long, @NotNull @Positive Long> quantities);
+
+    /**
+     * <pre>
+     * Takes the given amount of items of the given product from 
+     * the stock and holds them, e.g. while the payment runs.
+     * 
+     * The reservation has to be confirmed or released before it 
+     * expires, otherwise the items are given back automatically.
+     * </pre>
+     * 
+     * @param id the id of the product to be reserved, must be strictly positive
+     * @param quantity the number of the items to be reserved, must be strictly positive
+     * 
+     * @return the pending reservation
+     */
+    Reservation reserve(final @Positive long id, final @Positive long quantity);
+
+    /**
+     * Confirms a pending reservation, its items are ordered for good.
+     * 
+     * @param reservationId the id of the reservation, must be strictly positive
+     * 
+     * @return the confirmed reservation
+     */
+    Reservation confirm(final @Positive long reservationId);
+
+    /**
+     * Releases a pending reservation, its items are given back to the stock.
+     * 
+     * @param reservationId the id of the reservation, must be strictly positive
+     * 
+     * @return the updated product
+     */
+    Product release(final @Positive long reservationId);
+}
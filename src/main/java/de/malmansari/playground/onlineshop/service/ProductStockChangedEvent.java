@@ -0,0 +1,49 @@
+package de.malmansari.playground.onlineshop.service;
+
+import java.util.function.Supplier;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import lombok.Value;
+
+/**
+ * <pre>
+ * Published by the {@link ProductService} whenever the stock 
+ * of a product has been changed, e.g. by an order.
+ * 
+ * If the change happens in a transaction, listeners should
+ * use a transactional event listener to be notified only 
+ * after the commit.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@Value
+public class ProductStockChangedEvent {
+	/**
+	 * The changed product with its new stock.
+	 */
+	private final Product product;
+
+	/**
+	 * The number of the event, see {@link StockChangeSequence}.
+	 */
+	private final long sequence;
+
+	public ProductStockChangedEvent(final Product product) {
+		this.product = product;
+		this.sequence = StockChangeSequence.next();
+	}
+
+	/**
+	 * For a change which is not made under a lock: the event is
+	 * numbered first and the product is read afterwards, so the
+	 * latest event of a product holds its current stock.
+	 *
+	 * @param product reads the changed product
+	 */
+	public ProductStockChangedEvent(final Supplier<Product> product) {
+		this.sequence = StockChangeSequence.next();
+		this.product = product.get();
+	}
+}
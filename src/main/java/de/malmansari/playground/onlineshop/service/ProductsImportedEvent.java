@@ -0,0 +1,44 @@
+package de.malmansari.playground.onlineshop.service;
+
+import java.util.List;
+import java.util.Map;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import lombok.Value;
+
+/**
+ * <pre>
+ * Published whenever a chunk of products has been imported,
+ * i.e. inserted or overwritten with the given name and stock.
+ * 
+ * It is published after the transaction of the chunk has
+ * committed, outside of any transaction, so a transactional
+ * event listener of it needs fallbackExecution to be called.
+ * </pre>
+ * 
+ * @author malmansari
+ *
+ */
+@Value
+public class ProductsImportedEvent {
+	/**
+	 * The imported products.
+	 */
+	private final List<Product> products;
+
+	/**
+	 * The stock the already known products had before the import, by id.
+	 */
+	private final Map<Long, Long> replacedStocks;
+
+	/**
+	 * The number of the event, see {@link StockChangeSequence}.
+	 */
+	private final long sequence;
+
+	public ProductsImportedEvent(final List<Product> products, final Map<Long, Long> replacedStocks) {
+		this.products = products;
+		this.replacedStocks = replacedStocks;
+		this.sequence = StockChangeSequence.next();
+	}
+}
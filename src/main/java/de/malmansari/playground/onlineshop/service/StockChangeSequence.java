@@ -0,0 +1,37 @@
+package de.malmansari.playground.onlineshop.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * Numbers the stock change and import events in the order they
+ * are created.
+ *
+ * The events are created in the transaction holding the locks
+ * of the changed rows, so the numbers of the events of one
+ * product follow the order of their commits. The listeners are
+ * called after the commit by the committing threads, which may
+ * overtake each other; comparing the numbers tells which event
+ * of a product is the latest.
+ *
+ * The stock ledger changes its counters without a lock, it
+ * numbers a change after applying it and reads the stock
+ * after taking the number instead.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+final class StockChangeSequence {
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
+	private StockChangeSequence() {
+	}
+
+	/**
+	 * @return the number of a new event
+	 */
+	static long next() {
+		return SEQUENCE.incrementAndGet();
+	}
+}
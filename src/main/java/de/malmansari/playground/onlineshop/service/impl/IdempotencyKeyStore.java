@@ -0,0 +1,188 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import de.malmansari.playground.onlineshop.exception.IdempotencyKeyReusedException;
+import de.malmansari.playground.onlineshop.exception.ServiceOverloadedException;
+import de.malmansari.playground.onlineshop.model.Product;
+
+/**
+ * <pre>
+ * Remembers the outcome of the orders sent with an idempotency
+ * key, so a retried order is answered from memory instead of
+ * being ordered again.
+ *
+ * The first order of a key runs, its duplicates meanwhile wait 
+ * for it, later ones get its product right away. A failed order
+ * is forgotten, it did not change any stock, so its retry runs
+ * again. Every key expires the ttl after its order completed.
+ * All keys expire in the order their orders completed, so a 
+ * queue of the completed keys in that order is enough to find
+ * the expired ones, and to drop the oldest keys early if more 
+ * than max-keys are remembered.
+ *
+ * A key whose order is still running is never dropped, so its
+ * duplicates keep waiting for it instead of ordering again. If
+ * max-keys orders are running, new keys are rejected with a
+ * {@link ServiceOverloadedException}.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+public class IdempotencyKeyStore {
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final Queue<Entry> completions = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The number of entries in the completion queue, including forgotten ones.
+	 */
+	private final AtomicInteger queued = new AtomicInteger();
+
+	/**
+	 * The number of orders still running.
+	 */
+	private final AtomicInteger running = new AtomicInteger();
+
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	private final long ttlNanos;
+
+	private final int maxKeys;
+
+	public IdempotencyKeyStore(@Value("${onlineshop.idempotency.ttl-ms:3600000}") long ttlMillis,
+			@Value("${onlineshop.idempotency.max-keys:100000}") int maxKeys) {
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.maxKeys = maxKeys;
+	}
+
+	/**
+	 * Orders once per key.
+	 *
+	 * @param key the idempotency key sent by the client
+	 * @param productId the id of the product to be ordered
+	 * @param quantity the number of items to be ordered
+	 * @param order the order to run if the key is new
+	 * @return the product right after the first order of the key
+	 */
+	public Product orderOnce(final String key, final long productId, final long quantity,
+			final Supplier<Product> order) {
+		long now = System.nanoTime();
+		evictExpired(now);
+
+		Entry entry = new Entry(key, productId, quantity);
+		for (Entry existing = entries.get(key);; existing = entries.get(key)) {
+			if (existing == null) {
+				if (running.get() >= maxKeys) {
+					throw new ServiceOverloadedException("Too many orders in progress, please try again later");
+				}
+				if (entries.putIfAbsent(key, entry) == null) {
+					break;
+				}
+			} else if (!existing.isExpired(now)) {
+				return outcomeOf(existing, productId, quantity);
+			} else {
+				entries.remove(key, existing);
+			}
+		}
+		running.incrementAndGet();
+
+		try {
+			Product product = order.get();
+			entry.expiresAt = System.nanoTime() + ttlNanos;
+			entry.complete(product);
+			completions.add(entry);
+			queued.incrementAndGet();
+			return product;
+		} catch (RuntimeException e) {
+			entries.remove(key, entry);
+			entry.completeExceptionally(e);
+			throw e;
+		} finally {
+			running.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of remembered keys
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	private static Product outcomeOf(final Entry entry, final long productId, final long quantity) {
+		if (entry.productId != productId || entry.quantity != quantity) {
+			throw new IdempotencyKeyReusedException("Idempotency key was already used for another order");
+		}
+		try {
+			return entry.join();
+		} catch (CompletionException e) {
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	/**
+	 * Drops the expired keys and the oldest ones beyond max-keys, all of them of completed orders.
+	 */
+	private void evictExpired(final long now) {
+		Entry oldest = completions.peek();
+		if (oldest == null || !oldest.isExpired(now) && queued.get() <= maxKeys || !evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			for (oldest = completions.peek(); oldest != null; oldest = completions.peek()) {
+				if (!oldest.isExpired(now) && queued.get() <= maxKeys) {
+					break;
+				}
+				completions.poll();
+				queued.decrementAndGet();
+				entries.remove(oldest.key, oldest);
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * The first order of a key and its outcome.
+	 */
+	private static final class Entry extends CompletableFuture<Product> {
+		private final String key;
+
+		private final long productId;
+
+		private final long quantity;
+
+		/**
+		 * Set before the entry is completed.
+		 */
+		private long expiresAt;
+
+		Entry(final String key, final long productId, final long quantity) {
+			this.key = key;
+			this.productId = productId;
+			this.quantity = quantity;
+		}
+
+		/**
+		 * @return whether the order is completed and its key has expired
+		 */
+		boolean isExpired(final long now) {
+			return isDone() && now - expiresAt >= 0;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+import de.malmansari.playground.onlineshop.warmup.Warmup;
+
+/**
+ * <pre>
+ * Combines concurrent orders of the database path, so a hot
+ * product is locked and updated once per batch of orders
+ * instead of once per order.
+ *
+ * The orders are spread over stripes by product id. An order
+ * is enqueued to its stripe, then its caller waits for the lock
+ * of the stripe. Whoever gets the lock with its order still 
+ * pending becomes the combiner: it drains the queue, locks the
+ * ordered products with one query, grants the orders in arrival
+ * order as long as the stock lasts and writes the new stocks
+ * in the same transaction. The orders enqueued meanwhile form 
+ * the next batch, the callers of the drained ones find them 
+ * done and just release the lock again. Unrelated products on 
+ * other stripes are combined in parallel.
+ *
+ * The combiner is only active if the property
+ * onlineshop.order-combining.enabled is set to true and the
+ * {@link StockLedger} is disabled, which needs no locks anyway.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "onlineshop.order-combining.enabled", havingValue = "true")
+public class OrderCombiner {
+	private final ProductRepository productRepository;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	private final Stripe[] stripes;
+
+	private final long windowNanos;
+
+	private final int maxBatchSize;
+
+	public OrderCombiner(ProductRepository productRepository, PlatformTransactionManager transactionManager,
+			ApplicationEventPublisher eventPublisher,
+			@Value("${onlineshop.order-combining.stripes:64}") int stripes,
+			@Value("${onlineshop.order-combining.window-us:0}") long windowMicros,
+			@Value("${onlineshop.order-combining.max-batch-size:256}") int maxBatchSize) {
+		this.productRepository = productRepository;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.eventPublisher = eventPublisher;
+		this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+		this.maxBatchSize = maxBatchSize;
+
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		this.stripes = new Stripe[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Orders the given quantity together with the concurrent orders.
+	 *
+	 * @param id the id of the product to be ordered
+	 * @param quantity the number of items to be ordered
+	 * @return the product with the stock right after this order
+	 */
+	public Product order(final long id, final long quantity) {
+		Stripe stripe = stripes[(int) (mix(id) & (stripes.length - 1))];
+		PendingOrder order = new PendingOrder(id, quantity);
+		stripe.queue.add(order);
+
+		while (!order.isDone()) {
+			stripe.lock.lock();
+			try {
+				if (!order.isDone()) {
+					combine(stripe);
+				}
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+
+		try {
+			return order.join();
+		} catch (CompletionException e) {
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	private void combine(final Stripe stripe) {
+		if (windowNanos > 0) {
+			LockSupport.parkNanos(windowNanos);
+		}
+
+		List<PendingOrder> batch = new ArrayList<>();
+		for (PendingOrder order = stripe.queue.poll(); order != null; order = stripe.queue.poll()) {
+			batch.add(order);
+			if (batch.size() == maxBatchSize) {
+				break;
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		try {
+			transactionTemplate.execute(status -> {
+				apply(batch);
+				return null;
+			});
+		} catch (RuntimeException e) {
+			batch.forEach(order -> order.completeExceptionally(e));
+			return;
+		}
+		batch.forEach(PendingOrder::publish);
+	}
+
+	/**
+	 * Grants the orders of the batch in arrival order and sets the new
+	 * stocks on the locked products, flushed as one JDBC batch on commit.
+	 */
+	private void apply(final List<PendingOrder> batch) {
+		Map<Long, List<PendingOrder>> byProduct = new TreeMap<>();
+		for (PendingOrder order : batch) {
+			byProduct.computeIfAbsent(order.productId, id -> new ArrayList<>()).add(order);
+		}
+
+		Iterator<Product> products = productRepository.findByIdInOrderByIdAsc(byProduct.keySet()).iterator();
+		Product product = products.hasNext() ? products.next() : null;
+		for (Map.Entry<Long, List<PendingOrder>> orders : byProduct.entrySet()) {
+			if (product == null || product.getId() != orders.getKey()) {
+				orders.getValue().forEach(order -> order.outcome = ProductNotFoundException.INSTANCE);
+				continue;
+			}
+
+			long stock = product.getStock();
+			for (PendingOrder order : orders.getValue()) {
+				if (order.quantity > stock) {
+					order.outcome = ProductHasNotEnoughStockException.INSTANCE;
+				} else {
+					stock -= order.quantity;
+					order.outcome = new Product(product.getId(), product.getName(), stock);
+				}
+			}
+			if (stock != product.getStock()) {
+				product.setStock(stock);
+				if (!Warmup.isRunning()) {
+					eventPublisher.publishEvent(new ProductStockChangedEvent(
+							new Product(product.getId(), product.getName(), stock)));
+				}
+			}
+			product = products.hasNext() ? products.next() : null;
+		}
+	}
+
+	private static long mix(final long id) {
+		long hash = id * 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 32);
+	}
+
+	private static final class Stripe {
+		private final Queue<PendingOrder> queue = new ConcurrentLinkedQueue<>();
+
+		private final ReentrantLock lock = new ReentrantLock();
+	}
+
+	/**
+	 * One order waiting for its combiner.
+	 */
+	private static final class PendingOrder extends CompletableFuture<Product> {
+		private final long productId;
+
+		private final long quantity;
+
+		/**
+		 * The product or the exception, set within the transaction
+		 * and published once it is committed.
+		 */
+		private Object outcome;
+
+		PendingOrder(final long productId, final long quantity) {
+			this.productId = productId;
+			this.quantity = quantity;
+		}
+
+		void publish() {
+			if (outcome instanceof Product) {
+				complete((Product) outcome);
+			} else {
+				completeExceptionally((RuntimeException) outcome);
+			}
+		}
+	}
+}
@@ -0,0 +1,479 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * <pre>
+ * An append-only journal of the stock changes accepted by the
+ * {@link StockLedger}.
+ *
+ * Every change is recorded as a delta of a product's stock in
+ * fixed size, checksummed records in segment files. Concurrent
+ * callers are group committed: a single writer thread writes all
+ * waiting changes and syncs them with one fsync, then releases
+ * the callers. The changes of one call are marked as one group,
+ * so a batch order is recovered completely or not at all.
+ *
+ * A background applier adds the journaled deltas to the product
+ * table in bulk and records the last applied sequence number in
+ * the same transaction, so every delta is applied exactly once.
+ * Segments which are fully applied are deleted. On startup, all
+ * journaled but not yet applied changes are replayed.
+ *
+ * Recovery needs a database which outlives the application. The
+ * checkpoint table keeps a random epoch of the database, which is
+ * part of the segment names. Segments of another epoch, e.g. the
+ * old journal after a fresh in-memory database, are set aside.
+ *
+ * The journal is only active together with the stock ledger and
+ * if the property onlineshop.order-journal.enabled is true.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "onlineshop", name = { "stock-ledger.enabled", "order-journal.enabled" },
+		havingValue = "true")
+public class OrderJournal {
+	private static final Logger LOG = LoggerFactory.getLogger(OrderJournal.class);
+
+	/**
+	 * sequence (8), product id (8), delta (8), flags (4), checksum (4)
+	 */
+	private static final int RECORD_SIZE = 32;
+	private static final int CHECKSUMMED_SIZE = RECORD_SIZE - 4;
+	private static final int END_OF_GROUP = 1;
+
+	private static final String SEGMENT_PREFIX = "orders-";
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	private static final String CREATE_CHECKPOINT_SQL = "CREATE TABLE IF NOT EXISTS order_journal_checkpoint "
+			+ "(id INT PRIMARY KEY, applied_sequence BIGINT NOT NULL, epoch BIGINT NOT NULL)";
+	private static final String SELECT_CHECKPOINT_SQL = "SELECT applied_sequence, epoch FROM order_journal_checkpoint WHERE id = 1";
+	private static final String MERGE_CHECKPOINT_SQL = "MERGE INTO order_journal_checkpoint KEY (id) VALUES (1, ?, ?)";
+	private static final String ADD_STOCK_SQL = "UPDATE product SET stock = stock + ?, version = version + 1 WHERE id = ?";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final Path directory;
+
+	private final long segmentSize;
+
+	private final int maxBatchSize;
+
+	private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+
+	private final CRC32 checksum = new CRC32();
+
+	private final Thread writer;
+
+	private final ScheduledExecutorService applier;
+
+	private volatile boolean running = true;
+
+	/**
+	 * The epoch of the database, set by the recovery.
+	 */
+	private long epoch;
+
+	/*
+	 * The written but not yet applied deltas, guarded by pendingLock.
+	 */
+	private final Object pendingLock = new Object();
+
+	private Map<Long, Long> pendingDeltas = new HashMap<>();
+
+	private long pendingSequence;
+
+	/*
+	 * The state of the writer thread.
+	 */
+	private FileChannel segment;
+
+	private long lastSequence;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+
+	public OrderJournal(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+			@Value("${onlineshop.order-journal.directory:order-journal}") String directory,
+			@Value("${onlineshop.order-journal.segment-size:67108864}") long segmentSize,
+			@Value("${onlineshop.order-journal.max-batch-size:1024}") int maxBatchSize,
+			@Value("${onlineshop.order-journal.apply-interval-ms:100}") long applyIntervalMs) throws IOException {
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.directory = Paths.get(directory);
+		this.segmentSize = segmentSize;
+		this.maxBatchSize = maxBatchSize;
+
+		recover();
+		segment = openSegment(lastSequence + 1);
+
+		this.writer = new Thread(this::writeLoop, "order-journal-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+
+		this.applier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "order-journal-applier");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.applier.scheduleWithFixedDelay(this::applyPending, applyIntervalMs, applyIntervalMs,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Journals the given stock change and waits until it is durable.
+	 *
+	 * @param productId the id of the changed product
+	 * @param delta the change of its stock
+	 */
+	public void append(final long productId, final long delta) {
+		append(new long[] { productId }, new long[] { delta });
+	}
+
+	/**
+	 * Journals the given stock changes as one group and waits until they are durable.
+	 *
+	 * @param productIds the ids of the changed products
+	 * @param deltas the changes of their stock
+	 */
+	public void append(final long[] productIds, final long[] deltas) {
+		if (!running) {
+			throw new IllegalStateException("The order journal is closed");
+		}
+
+		Append append = new Append(productIds, deltas);
+		queue.add(append);
+		try {
+			append.done.join();
+		} catch (CompletionException e) {
+			throw new UncheckedIOException("The stock change could not be journaled", (IOException) e.getCause());
+		}
+	}
+
+	@PreDestroy
+	public void close() throws InterruptedException, IOException {
+		running = false;
+		writer.join();
+		for (Append append = queue.poll(); append != null; append = queue.poll()) {
+			append.done.completeExceptionally(new IOException("The order journal is closed"));
+		}
+
+		applier.shutdown();
+		applier.awaitTermination(5, TimeUnit.SECONDS);
+		applyPending();
+		segment.close();
+	}
+
+	private void writeLoop() {
+		List<Append> batch = new ArrayList<>();
+		while (running || !queue.isEmpty()) {
+			try {
+				Append first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, maxBatchSize - 1);
+				write(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void write(final List<Append> batch) {
+		int records = 0;
+		for (Append append : batch) {
+			records += append.productIds.length;
+		}
+		if (buffer.capacity() < records * RECORD_SIZE) {
+			buffer = ByteBuffer.allocate(records * RECORD_SIZE);
+		}
+
+		long sequence = lastSequence;
+		long position = -1;
+		buffer.clear();
+		for (Append append : batch) {
+			for (int i = 0; i < append.productIds.length; i++) {
+				boolean endOfGroup = i == append.productIds.length - 1;
+				putRecord(++sequence, append.productIds[i], append.deltas[i], endOfGroup ? END_OF_GROUP : 0);
+			}
+		}
+		buffer.flip();
+
+		try {
+			if (segment.size() >= segmentSize) {
+				// the full segment is kept until the next one is open, so a failed rotation is retried
+				FileChannel full = segment;
+				segment = openSegment(lastSequence + 1);
+				full.close();
+			}
+			position = segment.position();
+			while (buffer.hasRemaining()) {
+				segment.write(buffer);
+			}
+			segment.force(false);
+		} catch (IOException e) {
+			LOG.error("Writing to the order journal failed", e);
+			discardFrom(position);
+			batch.forEach(append -> append.done.completeExceptionally(e));
+			return;
+		}
+
+		lastSequence = sequence;
+		synchronized (pendingLock) {
+			for (Append append : batch) {
+				for (int i = 0; i < append.productIds.length; i++) {
+					pendingDeltas.merge(append.productIds[i], append.deltas[i], Long::sum);
+				}
+			}
+			pendingSequence = sequence;
+		}
+		batch.forEach(append -> append.done.complete(null));
+	}
+
+	private void putRecord(final long sequence, final long productId, final long delta, final int flags) {
+		int start = buffer.position();
+		buffer.putLong(sequence).putLong(productId).putLong(delta).putInt(flags);
+		checksum.reset();
+		checksum.update(buffer.array(), start, CHECKSUMMED_SIZE);
+		buffer.putInt((int) checksum.getValue());
+	}
+
+	private void discardFrom(final long position) {
+		if (position < 0) {
+			return;
+		}
+		try {
+			segment.truncate(position);
+			segment.position(position);
+		} catch (IOException e) {
+			LOG.error("Discarding the failed write from the order journal failed", e);
+		}
+	}
+
+	private void applyPending() {
+		Map<Long, Long> deltas;
+		long sequence;
+		synchronized (pendingLock) {
+			if (pendingDeltas.isEmpty()) {
+				return;
+			}
+			deltas = pendingDeltas;
+			sequence = pendingSequence;
+			pendingDeltas = new HashMap<>();
+		}
+
+		try {
+			apply(deltas, sequence);
+			deleteSegmentsUpTo(sequence);
+		} catch (RuntimeException e) {
+			LOG.warn("Applying the order journal to the database failed, retrying later", e);
+			synchronized (pendingLock) {
+				deltas.forEach((productId, delta) -> pendingDeltas.merge(productId, delta, Long::sum));
+			}
+		}
+	}
+
+	private void apply(final Map<Long, Long> deltas, final long sequence) {
+		List<Object[]> rows = deltas.entrySet().stream()
+				.map(delta -> new Object[] { delta.getValue(), delta.getKey() })
+				.collect(Collectors.toList());
+
+		transactionTemplate.execute(status -> {
+			jdbcTemplate.batchUpdate(ADD_STOCK_SQL, rows);
+			return jdbcTemplate.update(MERGE_CHECKPOINT_SQL, sequence, epoch);
+		});
+	}
+
+	/**
+	 * Replays the journaled changes which were not applied before the last shutdown.
+	 */
+	private void recover() throws IOException {
+		Files.createDirectories(directory);
+		jdbcTemplate.execute(CREATE_CHECKPOINT_SQL);
+		List<long[]> checkpoints = jdbcTemplate.query(SELECT_CHECKPOINT_SQL,
+				(row, number) -> new long[] { row.getLong(1), row.getLong(2) });
+		long checkpoint;
+		if (checkpoints.isEmpty()) {
+			checkpoint = 0;
+			epoch = ThreadLocalRandom.current().nextLong();
+			jdbcTemplate.update(MERGE_CHECKPOINT_SQL, checkpoint, epoch);
+		} else {
+			checkpoint = checkpoints.get(0)[0];
+			epoch = checkpoints.get(0)[1];
+		}
+
+		List<Path> foreignSegments = journalFiles().stream()
+				.filter(file -> !file.getFileName().toString().startsWith(segmentPrefix()))
+				.collect(Collectors.toList());
+		if (!foreignSegments.isEmpty()) {
+			LOG.warn("{} order journal segments belong to another database, setting them aside",
+					foreignSegments.size());
+			for (Path segmentFile : foreignSegments) {
+				Files.move(segmentFile, segmentFile.resolveSibling(segmentFile.getFileName() + ".discarded"),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		List<Path> segments = segments();
+
+		Map<Long, Long> deltas = new HashMap<>();
+		Map<Long, Long> group = new HashMap<>();
+		long lastCommitted = checkpoint;
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		for (Path segmentFile : segments) {
+			try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				long validEnd = 0;
+				while (true) {
+					record.clear();
+					while (record.hasRemaining() && channel.read(record) >= 0) {
+						// read the whole record
+					}
+					if (record.hasRemaining() || !isIntact(record)) {
+						break;
+					}
+
+					long sequence = record.getLong(0);
+					if (sequence > checkpoint) {
+						group.merge(record.getLong(8), record.getLong(16), Long::sum);
+					}
+					if ((record.getInt(24) & END_OF_GROUP) != 0) {
+						group.forEach((productId, delta) -> deltas.merge(productId, delta, Long::sum));
+						group.clear();
+						lastCommitted = Math.max(lastCommitted, sequence);
+						validEnd = channel.position();
+					}
+				}
+				if (validEnd < channel.size()) {
+					LOG.warn("Discarding the incomplete tail of the order journal segment {}", segmentFile);
+					channel.truncate(validEnd);
+				}
+				group.clear();
+			}
+		}
+
+		if (!deltas.isEmpty()) {
+			LOG.info("Replaying {} journaled stock changes up to sequence {}", deltas.size(), lastCommitted);
+			apply(deltas, lastCommitted);
+			deleteSegmentsUpTo(lastCommitted);
+		}
+		lastSequence = lastCommitted;
+		pendingSequence = lastCommitted;
+	}
+
+	private boolean isIntact(final ByteBuffer record) {
+		checksum.reset();
+		checksum.update(record.array(), 0, CHECKSUMMED_SIZE);
+		return record.getInt(CHECKSUMMED_SIZE) == (int) checksum.getValue();
+	}
+
+	private FileChannel openSegment(final long firstSequence) throws IOException {
+		Path segmentFile = directory.resolve(String.format("%s%020d%s", segmentPrefix(), firstSequence, SEGMENT_SUFFIX));
+		return FileChannel.open(segmentFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * @return the start of the names of the segments of the current epoch
+	 */
+	private String segmentPrefix() {
+		return String.format("%s%016x-", SEGMENT_PREFIX, epoch);
+	}
+
+	/**
+	 * Deletes the segments which contain only changes up to the given sequence.
+	 * The last segment is never deleted, since it may still be written.
+	 */
+	private void deleteSegmentsUpTo(final long sequence) {
+		try {
+			List<Path> segments = segments();
+			for (int i = 0; i < segments.size() - 1; i++) {
+				if (firstSequenceOf(segments.get(i + 1)) - 1 <= sequence) {
+					Files.deleteIfExists(segments.get(i));
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Deleting applied order journal segments failed", e);
+		}
+	}
+
+	private List<Path> segments() throws IOException {
+		return journalFiles().stream()
+				.filter(file -> file.getFileName().toString().startsWith(segmentPrefix()))
+				.sorted()
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * @return the segments of all epochs
+	 */
+	private List<Path> journalFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files
+					.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+					.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static long firstSequenceOf(final Path segmentFile) {
+		String name = segmentFile.getFileName().toString();
+		return Long.parseLong(name.substring(name.lastIndexOf('-') + 1, name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private static final class Append {
+		private final long[] productIds;
+
+		private final long[] deltas;
+
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		Append(final long[] productIds, final long[] deltas) {
+			this.productIds = productIds;
+			this.deltas = deltas;
+		}
+	}
+}
@@ -1,56 +1,269 @@
 package de.malmansari.playground.onlineshop.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 import javax.validation.constraints.NotNull;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
-import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.exception.ReservationNotFoundException;
 import de.malmansari.playground.onlineshop.model.Product;
-import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.model.ProductPage;
+import de.malmansari.playground.onlineshop.model.Reservation;
 import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+import de.malmansari.playground.onlineshop.storage.ProductStore;
+import de.malmansari.playground.onlineshop.warmup.Warmup;
 
 /**
+ * <pre>
  * The implementation of the product service layer.
- * 
+ *
+ * If the {@link StockLedger} is enabled, stock mutations are
+ * served from memory and written back asynchronously. Otherwise
+ * they are applied by the {@link ProductStore}, which opens a
+ * transaction if it needs one, so the ledger path never has
+ * to wait for a connection. If the {@link OrderCombiner} is
+ * enabled, concurrent orders of the database path are applied
+ * in batches by it instead.
+ *
+ * A store change that loses against a concurrent one, i.e. an
+ * optimistic update, is retried up to
+ * onlineshop.stock-updates.max-attempts times, each time after
+ * a random pause of up to the doubled previous one, starting at
+ * onlineshop.stock-updates.backoff-ms, so the losers do not
+ * collide again right away. The stock change events are created
+ * while the change is exclusive and published once it is
+ * applied, the ones of a lost attempt are dropped.
+ *
+ * The outcomes of the orders with an idempotency key are kept
+ * by the {@link IdempotencyKeyStore}.
+ *
+ * The reservations are held by the {@link ReservationRegistry},
+ * their items are taken from and given back to the stock like
+ * orders and added items.
+ * </pre>
+ *
  * @author malmansari
  *
  */
 @Service
-@Transactional
 public class ProductServiceImpl implements ProductService {
-	private ProductRepository productRepository;
+	private ProductStore productStore;
+
+	private StockLedger stockLedger;
+
+	private ApplicationEventPublisher eventPublisher;
+
+	private OrderCombiner orderCombiner;
 
-    public ProductServiceImpl(ProductRepository productRepository) {
-        this.productRepository = productRepository;
+	private ReservationRegistry reservationRegistry;
+
+	private IdempotencyKeyStore idempotencyKeyStore;
+
+	private int maxAttempts;
+
+	private long backoffMillis;
+
+	private long maxBackoffMillis;
+
+    public ProductServiceImpl(ProductStore productStore,
+    		ObjectProvider<StockLedger> stockLedger, ObjectProvider<OrderCombiner> orderCombiner,
+    		ApplicationEventPublisher eventPublisher, ReservationRegistry reservationRegistry,
+    		IdempotencyKeyStore idempotencyKeyStore,
+    		@Value("${onlineshop.stock-updates.max-attempts:5}") int maxAttempts,
+    		@Value("${onlineshop.stock-updates.backoff-ms:2}") long backoffMillis,
+    		@Value("${onlineshop.stock-updates.max-backoff-ms:100}") long maxBackoffMillis) {
+        this.productStore = productStore;
+        this.stockLedger = stockLedger.getIfAvailable();
+        this.orderCombiner = orderCombiner.getIfAvailable();
+        this.eventPublisher = eventPublisher;
+        this.reservationRegistry = reservationRegistry;
+        this.reservationRegistry.onExpiry(this::giveBack);
+        this.idempotencyKeyStore = idempotencyKeyStore;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
     }
+
 	@Override
 	public @NotNull Iterable<Product> getAllProducts() {
-        return productRepository.findAll();
+		return withCurrentStock(productStore.findAll());
+	}
 
+	@Override
+	public @NotNull Iterable<Product> getProducts(final Collection<Long> ids) {
+		return withCurrentStock(productStore.findAllById(ids));
+	}
+
+	@Override
+	public @NotNull ProductPage getProductPage(final long afterId, final int limit) {
+		List<Product> products = new ArrayList<>(limit);
+		withCurrentStock(productStore.findPage(afterId, limit)).forEach(products::add);
+
+		Long nextCursor = products.size() < limit ? null : products.get(products.size() - 1).getId();
+		return new ProductPage(products, nextCursor);
+	}
+
+	@Override
+	public void forEachProduct(final Consumer<Product> action) {
+		if (stockLedger == null) {
+			productStore.forEachProduct(action);
+		} else {
+			productStore.forEachProduct(product -> action.accept(stockLedger.overlay(product)));
+		}
 	}
 
 	@Override
 	public Product order(final long id, final long quantity) {
-		Product product = productRepository
-		          .findById(id)
-		          //.filter(p -> p.getStock() >= quantity)
-		          .orElseThrow(() -> new ProductNotFoundException("Product not found"));
-		
-		if (product.getStock() < quantity) {
-			throw new ProductHasNotEnoughStockException("Product has not enough stock for your order");
+		if (stockLedger != null) {
+			return published(changed -> stockLedger.order(id, quantity, changed));
 		}
-		
-		return productRepository.save(new Product(id, product.getName(), product.getStock() - quantity)); 
+		if (orderCombiner != null) {
+			return orderCombiner.order(id, quantity);
+		}
+		return updated(changed -> productStore.decrementStock(id, quantity, changed));
+	}
+
+	@Override
+	public Product orderOnce(final long id, final long quantity, final String idempotencyKey) {
+		return idempotencyKeyStore.orderOnce(idempotencyKey, id, quantity, () -> order(id, quantity));
 	}
 
 	@Override
 	public Product addToStock(final long id, final long quantity) {
-		Product product = productRepository
-		          .findById(id)
-		          .orElseThrow(() -> new ProductNotFoundException("Product not found"));
-		
-		return productRepository.save(new Product(id, product.getName(), product.getStock() + quantity));
+		if (stockLedger != null) {
+			return published(changed -> stockLedger.addToStock(id, quantity, changed));
+		}
+		return updated(changed -> productStore.incrementStock(id, quantity, changed));
+	}
+
+	@Override
+	public List<Product> orderBatch(final Map<Long, Long> quantities) {
+		SortedMap<Long, Long> lines = new TreeMap<>(quantities);
+		if (stockLedger != null) {
+			return published(changed -> stockLedger.orderBatch(lines, changed));
+		}
+		return updated(changed -> productStore.decrementStocks(lines, changed));
+	}
+
+	@Override
+	public Reservation reserve(final long id, final long quantity) {
+		order(id, quantity);
+		return reservationRegistry.hold(id, quantity);
+	}
+
+	@Override
+	public Reservation confirm(final long reservationId) {
+		return taken(reservationRegistry.take(reservationId));
+	}
+
+	@Override
+	public Product release(final long reservationId) {
+		Reservation reservation = taken(reservationRegistry.take(reservationId));
+		return addToStock(reservation.getProductId(), reservation.getQuantity());
+	}
+
+	/**
+	 * Gives the items of the expired reservations back to the stock. The ledger
+	 * gives them back product by product, so every product is removed from the
+	 * quantities once it is given back, and only the rest is retried on a failure.
+	 */
+	private void giveBack(final SortedMap<Long, Long> quantities) {
+		if (stockLedger != null) {
+			for (Iterator<Map.Entry<Long, Long>> lines = quantities.entrySet().iterator(); lines.hasNext();) {
+				Map.Entry<Long, Long> line = lines.next();
+				published(changed -> {
+					Product product = stockLedger.addToStock(line.getKey(), line.getValue(), changed);
+					lines.remove();
+					return product;
+				});
+			}
+			return;
+		}
+		updated(changed -> productStore.incrementStocks(quantities, changed));
+	}
+
+	private static Reservation taken(final Reservation reservation) {
+		if (reservation == null) {
+			throw new ReservationNotFoundException("Reservation not found");
+		}
+		return reservation;
+	}
+
+	private Iterable<Product> withCurrentStock(final Iterable<Product> products) {
+		if (stockLedger == null) {
+			return products;
+		}
+
+		List<Product> current = new ArrayList<>();
+		products.forEach(product -> current.add(stockLedger.overlay(product)));
+		return current;
+	}
+
+	/**
+	 * Applies the given change of the ledger and publishes the stock changes it
+	 * reports, also if it fails after giving stock back.
+	 */
+	private <T> T published(final Function<Consumer<ProductStockChangedEvent>, T> change) {
+		List<ProductStockChangedEvent> events = new ArrayList<>(1);
+		try {
+			return change.apply(events::add);
+		} finally {
+			publish(events);
+		}
+	}
+
+	/**
+	 * Publishes the given stock changes, unless they are made by the {@link Warmup}.
+	 */
+	private void publish(final List<ProductStockChangedEvent> events) {
+		if (!Warmup.isRunning()) {
+			events.forEach(eventPublisher::publishEvent);
+		}
+	}
+
+	/**
+	 * Applies the given change of the store and publishes the changed products,
+	 * again after a backoff as long as it fails optimistically and attempts are left.
+	 */
+	private <T> T updated(final Function<Consumer<Product>, T> change) {
+		long backoff = backoffMillis;
+		for (int attempt = 1;; attempt++) {
+			List<ProductStockChangedEvent> events = new ArrayList<>(1);
+			try {
+				T result = change.apply(product -> events.add(new ProductStockChangedEvent(product)));
+				publish(events);
+				return result;
+			} catch (OptimisticLockingFailureException e) {
+				if (attempt >= maxAttempts) {
+					throw e;
+				}
+				pause(ThreadLocalRandom.current().nextLong(backoff + 1), e);
+				backoff = Math.min(backoff * 2, maxBackoffMillis);
+			}
+		}
+	}
+
+	private static void pause(final long millis, final OptimisticLockingFailureException failure) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw failure;
+		}
 	}
 }
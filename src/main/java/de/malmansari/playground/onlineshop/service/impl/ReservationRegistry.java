@@ -0,0 +1,141 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import de.malmansari.playground.onlineshop.model.Reservation;
+import de.malmansari.playground.onlineshop.util.TimerWheel;
+
+/**
+ * <pre>
+ * Keeps the pending reservations in memory and expires them 
+ * with a {@link TimerWheel}, so neither a task per reservation
+ * nor polling the database is needed.
+ *
+ * Every tick the quantities of the expired reservations are 
+ * summed up per product and handed to the expiry handler at 
+ * once. If the handler fails, the quantities it has not yet
+ * given back are handed again on the next tick together with
+ * the newly expired ones; a handler giving them back one by 
+ * one removes every product it has given back.
+ *
+ * The reservations are not persisted, on shutdown the pending
+ * ones stay taken from the stock.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+public class ReservationRegistry {
+	private static final Logger LOG = LoggerFactory.getLogger(ReservationRegistry.class);
+
+	private final long ttlMillis;
+
+	private final AtomicLong ids = new AtomicLong();
+
+	private final Map<Long, Reservation> pending = new ConcurrentHashMap<>();
+
+	private final TimerWheel<Reservation> wheel;
+
+	private final ScheduledExecutorService expirer;
+
+	/**
+	 * The expired quantities not yet given back, only accessed by the expirer.
+	 */
+	private final SortedMap<Long, Long> expired = new TreeMap<>();
+
+	private volatile Consumer<SortedMap<Long, Long>> expiryHandler;
+
+	public ReservationRegistry(@Value("${onlineshop.reservations.ttl-ms:900000}") long ttlMillis,
+			@Value("${onlineshop.reservations.tick-ms:100}") long tickMillis,
+			@Value("${onlineshop.reservations.wheel-size:1024}") int wheelSize) {
+		this.ttlMillis = ttlMillis;
+		this.wheel = new TimerWheel<>(tickMillis, wheelSize, System.currentTimeMillis());
+		this.expirer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "reservation-expirer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.expirer.scheduleWithFixedDelay(this::expire, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sets the handler giving the expired quantities back to the stock.
+	 *
+	 * @param expiryHandler receives the expired quantities per product id
+	 */
+	void onExpiry(final Consumer<SortedMap<Long, Long>> expiryHandler) {
+		this.expiryHandler = expiryHandler;
+	}
+
+	/**
+	 * Registers a reservation of items already taken from the stock.
+	 *
+	 * @param productId the reserved product
+	 * @param quantity the number of reserved items
+	 * @return the pending reservation
+	 */
+	Reservation hold(final long productId, final long quantity) {
+		Reservation reservation = new Reservation(ids.incrementAndGet(), productId, quantity,
+				System.currentTimeMillis() + ttlMillis);
+		pending.put(reservation.getId(), reservation);
+		wheel.schedule(reservation, reservation.getExpiresAt());
+		return reservation;
+	}
+
+	/**
+	 * Removes the given pending reservation, so it does not expire anymore.
+	 *
+	 * @param id the reservation id
+	 * @return the reservation, or null if it is not pending
+	 */
+	Reservation take(final long id) {
+		return pending.remove(id);
+	}
+
+	/**
+	 * Returns the number of pending reservations.
+	 *
+	 * @return the number of pending reservations
+	 */
+	public int size() {
+		return pending.size();
+	}
+
+	@PreDestroy
+	public void close() {
+		expirer.shutdownNow();
+	}
+
+	private void expire() {
+		try {
+			wheel.advance(System.currentTimeMillis(), reservation -> {
+				if (pending.remove(reservation.getId(), reservation)) {
+					expired.merge(reservation.getProductId(), reservation.getQuantity(), Long::sum);
+				}
+			});
+			Consumer<SortedMap<Long, Long>> handler = expiryHandler;
+			if (!expired.isEmpty() && handler != null) {
+				handler.accept(expired);
+				expired.clear();
+			}
+		} catch (RuntimeException e) {
+			LOG.warn("Expired reservations of {} products could not be given back, retrying", expired.size(), e);
+		}
+	}
+}
@@ -0,0 +1,514 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+import de.malmansari.playground.onlineshop.service.ProductsImportedEvent;
+import de.malmansari.playground.onlineshop.util.LongIndex;
+
+/**
+ * <pre>
+ * An in-memory stock engine which sits in front of the
+ * {@link ProductRepository}.
+ *
+ * Every known product owns one slot holding an atomic stock
+ * counter. Orders are applied with a compare-and-set loop
+ * which only decrements if the stock is sufficient, so no
+ * lock and no database round trip is involved.
+ *
+ * Changed slots are marked dirty and written back to the
+ * product table in JDBC batches by a background flusher.
+ * If the {@link OrderJournal} is enabled, every change is 
+ * journaled instead and the journal writes it back.
+ * Products are loaded lazily on their first access.
+ *
+ * Every change of a counter, including the ones given back
+ * and the imported ones, is reported as a
+ * {@link ProductStockChangedEvent} which is numbered after the
+ * change and reads the counter after that, see
+ * {@link ProductStockChangedEvent#ProductStockChangedEvent(java.util.function.Supplier)}.
+ *
+ * The ledger is only active if the property
+ * onlineshop.stock-ledger.enabled is set to true.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "onlineshop.stock-ledger.enabled", havingValue = "true")
+public class StockLedger {
+	private static final Logger LOG = LoggerFactory.getLogger(StockLedger.class);
+
+	private static final String UPDATE_STOCK_SQL = "UPDATE product SET stock = ?, version = version + 1 WHERE id = ?";
+
+	private static final int CHUNK_SHIFT = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final ProductRepository productRepository;
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final int batchSize;
+
+	private final LongIndex index = new LongIndex(1024);
+
+	private final Object flushLock = new Object();
+
+	private final ScheduledExecutorService flusher;
+
+	private final OrderJournal orderJournal;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	/**
+	 * The slot storage, grown chunk by chunk so that counters never move.
+	 */
+	private volatile Chunk[] chunks = new Chunk[0];
+
+	private int nextSlot;
+
+	/**
+	 * The number of handled imports, a product read before one of them is read again.
+	 */
+	private volatile long imports;
+
+	public StockLedger(ProductRepository productRepository, JdbcTemplate jdbcTemplate,
+			PlatformTransactionManager transactionManager, ObjectProvider<OrderJournal> orderJournal,
+			ApplicationEventPublisher eventPublisher,
+			@Value("${onlineshop.stock-ledger.flush-interval-ms:50}") long flushIntervalMs,
+			@Value("${onlineshop.stock-ledger.batch-size:500}") int batchSize) {
+		this.productRepository = productRepository;
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.batchSize = batchSize;
+		this.orderJournal = orderJournal.getIfAvailable();
+		this.eventPublisher = eventPublisher;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "stock-ledger-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (this.orderJournal == null) {
+			this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Decrements the stock of the given product if it is sufficient.
+	 *
+	 * @param id the product id
+	 * @param quantity the number of items to be ordered
+	 * @param changed receives the stock changes
+	 * @return the updated product
+	 */
+	public Product order(final long id, final long quantity, final Consumer<ProductStockChangedEvent> changed) {
+		int slot = slotOf(id);
+		long remaining = tryDecrement(slot, quantity);
+		if (remaining < 0) {
+			throw ProductHasNotEnoughStockException.INSTANCE;
+		}
+
+		record(slot, -quantity, changed);
+		changed.accept(changeOf(slot));
+		return new Product(id, chunks[slot >>> CHUNK_SHIFT].names[slot & CHUNK_MASK], remaining);
+	}
+
+	/**
+	 * <pre>
+	 * Decrements the stock of all given products, or of none of them.
+	 * 
+	 * The lines are applied in ascending id order. If one of them 
+	 * fails, the already applied ones are given back, so concurrent 
+	 * orders may briefly observe the reduced stock.
+	 * </pre>
+	 * 
+	 * @param lines the number of items to be ordered per product id
+	 * @param changed receives the stock changes, also the ones given back
+	 * @return the updated products sorted by id
+	 */
+	public List<Product> orderBatch(final SortedMap<Long, Long> lines,
+			final Consumer<ProductStockChangedEvent> changed) {
+		int[] slots = new int[lines.size()];
+		long[] quantities = new long[lines.size()];
+		int i = 0;
+		for (Map.Entry<Long, Long> line : lines.entrySet()) {
+			slots[i] = slotOf(line.getKey());
+			quantities[i++] = line.getValue();
+		}
+
+		long[] remaining = new long[slots.length];
+		for (i = 0; i < slots.length; i++) {
+			remaining[i] = tryDecrement(slots[i], quantities[i]);
+			if (remaining[i] < 0) {
+				for (int j = 0; j < i; j++) {
+					chunks[slots[j] >>> CHUNK_SHIFT].stock.addAndGet(slots[j] & CHUNK_MASK, quantities[j]);
+					changed.accept(changeOf(slots[j]));
+				}
+				throw ProductHasNotEnoughStockException.INSTANCE;
+			}
+		}
+
+		record(slots, quantities, changed);
+
+		List<Product> products = new ArrayList<>(slots.length);
+		for (i = 0; i < slots.length; i++) {
+			changed.accept(changeOf(slots[i]));
+			Chunk chunk = chunks[slots[i] >>> CHUNK_SHIFT];
+			int offset = slots[i] & CHUNK_MASK;
+			products.add(new Product(chunk.ids[offset], chunk.names[offset], remaining[i]));
+		}
+		return products;
+	}
+
+	/**
+	 * Increments the stock of the given product.
+	 *
+	 * @param id the product id
+	 * @param quantity the number of items to be added
+	 * @param changed receives the stock changes
+	 * @return the updated product
+	 */
+	public Product addToStock(final long id, final long quantity, final Consumer<ProductStockChangedEvent> changed) {
+		int slot = slotOf(id);
+		Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+		int offset = slot & CHUNK_MASK;
+
+		long updated = chunk.stock.addAndGet(offset, quantity);
+		record(slot, quantity, changed);
+		changed.accept(changeOf(slot));
+		return new Product(id, chunk.names[offset], updated);
+	}
+
+	/**
+	 * Replaces the stock of the given product by the ledger value, since the
+	 * database may lag behind the ledger.
+	 *
+	 * @param product the product as read from the database
+	 * @return the product with its current stock
+	 */
+	public Product overlay(final Product product) {
+		int slot = index.get(product.getId());
+		if (slot == LongIndex.NO_SLOT) {
+			return product;
+		}
+		return new Product(product.getId(), product.getName(),
+				chunks[slot >>> CHUNK_SHIFT].stock.get(slot & CHUNK_MASK));
+	}
+
+	/**
+	 * <pre>
+	 * Sets the loaded products to the imported stock, as the import
+	 * did in the database, no matter whether their changes were 
+	 * written back before. The changes this call overwrites, also 
+	 * the ones made between the import and this call, come before 
+	 * the import.
+	 * 
+	 * With the order journal, the deltas journaled but not yet 
+	 * applied would end up on top of the imported stock in the 
+	 * database. Their sum is the overwritten stock minus the stock
+	 * the import replaced in the database, so that difference is 
+	 * journaled back and the ledger and the database agree.
+	 * 
+	 * The resulting stocks are published as stock changes, which 
+	 * come after the import for its listeners.
+	 * </pre>
+	 *
+	 * @param event the import of a chunk of products
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onProductsImported(final ProductsImportedEvent event) {
+		Map<Long, Long> corrections = new LinkedHashMap<>();
+		List<ProductStockChangedEvent> changes = imported(event, corrections);
+		try {
+			if (!corrections.isEmpty()) {
+				orderJournal.append(corrections.keySet().stream().mapToLong(Long::longValue).toArray(),
+						corrections.values().stream().mapToLong(Long::longValue).toArray());
+			}
+		} finally {
+			changes.forEach(eventPublisher::publishEvent);
+		}
+	}
+
+	/**
+	 * @param corrections receives the deltas to be journaled per product id
+	 */
+	private synchronized List<ProductStockChangedEvent> imported(final ProductsImportedEvent event,
+			final Map<Long, Long> corrections) {
+		imports++;
+
+		// the last line of a product wins, as in the database
+		Map<Long, Product> loaded = new LinkedHashMap<>();
+		for (Product product : event.getProducts()) {
+			if (index.get(product.getId()) != LongIndex.NO_SLOT) {
+				loaded.put(product.getId(), product);
+			}
+		}
+
+		List<ProductStockChangedEvent> changes = new ArrayList<>(loaded.size());
+		for (Product product : loaded.values()) {
+			int slot = index.get(product.getId());
+			Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+			int offset = slot & CHUNK_MASK;
+			chunk.names[offset] = product.getName();
+
+			long overwritten = chunk.stock.getAndSet(offset, product.getStock());
+			Long replaced = event.getReplacedStocks().get(product.getId());
+			if (orderJournal == null) {
+				chunk.markDirty(offset);
+			} else if (replaced != null && replaced != overwritten) {
+				// a product removed and inserted again had no stock in the database to add the deltas to
+				corrections.put(product.getId(), replaced - overwritten);
+			}
+			changes.add(changeOf(slot));
+		}
+		return changes;
+	}
+
+	/**
+	 * Writes all dirty stock counters back to the database.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			long[] ids = new long[batchSize];
+			long[] stocks = new long[batchSize];
+			int count = 0;
+
+			for (Chunk chunk : chunks) {
+				for (int word = 0; word < chunk.dirty.length(); word++) {
+					long bits = chunk.dirty.getAndSet(word, 0L);
+					while (bits != 0L) {
+						int offset = (word << 6) | Long.numberOfTrailingZeros(bits);
+						bits &= bits - 1;
+
+						ids[count] = chunk.ids[offset];
+						stocks[count] = chunk.stock.get(offset);
+						if (++count == batchSize) {
+							write(ids, stocks, count);
+							count = 0;
+						}
+					}
+				}
+			}
+			if (count > 0) {
+				write(ids, stocks, count);
+			}
+		}
+	}
+
+	@PreDestroy
+	public void close() throws InterruptedException {
+		flusher.shutdown();
+		flusher.awaitTermination(5, TimeUnit.SECONDS);
+		flush();
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			LOG.warn("Writing the stock ledger back to the database failed, retrying later", e);
+		}
+	}
+
+	private void write(final long[] ids, final long[] stocks, final int count) {
+		try {
+			transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(UPDATE_STOCK_SQL,
+					new BatchPreparedStatementSetter() {
+						@Override
+						public void setValues(PreparedStatement ps, int i) throws SQLException {
+							ps.setLong(1, stocks[i]);
+							ps.setLong(2, ids[i]);
+						}
+
+						@Override
+						public int getBatchSize() {
+							return count;
+						}
+					}));
+		} catch (DataAccessException e) {
+			// keep the counters dirty, the next flush writes them again
+			for (int i = 0; i < count; i++) {
+				int slot = index.get(ids[i]);
+				chunks[slot >>> CHUNK_SHIFT].markDirty(slot & CHUNK_MASK);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Makes an applied change durable, either by journaling it or by marking
+	 * it to be written back. If it cannot be journaled, it is undone.
+	 */
+	private void record(final int slot, final long delta, final Consumer<ProductStockChangedEvent> changed) {
+		Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+		int offset = slot & CHUNK_MASK;
+		if (orderJournal == null) {
+			chunk.markDirty(offset);
+			return;
+		}
+
+		try {
+			orderJournal.append(chunk.ids[offset], delta);
+		} catch (RuntimeException e) {
+			chunk.stock.addAndGet(offset, -delta);
+			changed.accept(changeOf(slot));
+			throw e;
+		}
+	}
+
+	/**
+	 * Makes the applied decrements of a batch order durable, see {@link #record(int, long, Consumer)}.
+	 */
+	private void record(final int[] slots, final long[] quantities,
+			final Consumer<ProductStockChangedEvent> changed) {
+		if (orderJournal == null) {
+			for (int slot : slots) {
+				chunks[slot >>> CHUNK_SHIFT].markDirty(slot & CHUNK_MASK);
+			}
+			return;
+		}
+
+		long[] ids = new long[slots.length];
+		long[] deltas = new long[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			ids[i] = chunks[slots[i] >>> CHUNK_SHIFT].ids[slots[i] & CHUNK_MASK];
+			deltas[i] = -quantities[i];
+		}
+		try {
+			orderJournal.append(ids, deltas);
+		} catch (RuntimeException e) {
+			for (int i = 0; i < slots.length; i++) {
+				chunks[slots[i] >>> CHUNK_SHIFT].stock.addAndGet(slots[i] & CHUNK_MASK, quantities[i]);
+				changed.accept(changeOf(slots[i]));
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Reports an applied change of the given slot. The changes are not ordered by
+	 * a lock, so the stock is read after the event is numbered: whichever event of
+	 * the product is numbered last, it sees all changes applied before.
+	 */
+	private ProductStockChangedEvent changeOf(final int slot) {
+		Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+		int offset = slot & CHUNK_MASK;
+		return new ProductStockChangedEvent(
+				() -> new Product(chunk.ids[offset], chunk.names[offset], chunk.stock.get(offset)));
+	}
+
+	/**
+	 * @return the remaining stock, or -1 if the stock was not sufficient
+	 */
+	private long tryDecrement(final int slot, final long quantity) {
+		AtomicLongArray stock = chunks[slot >>> CHUNK_SHIFT].stock;
+		int offset = slot & CHUNK_MASK;
+
+		long current;
+		do {
+			current = stock.get(offset);
+			if (current < quantity) {
+				return -1;
+			}
+		} while (!stock.compareAndSet(offset, current, current - quantity));
+		return current - quantity;
+	}
+
+	private int slotOf(final long id) {
+		int slot = index.get(id);
+		while (slot == LongIndex.NO_SLOT) {
+			long generation = imports;
+			Product product = productRepository
+					.findById(id)
+					.orElseThrow(() -> ProductNotFoundException.INSTANCE);
+			slot = install(product, generation);
+		}
+		return slot;
+	}
+
+	/**
+	 * @return the slot of the product, or {@link LongIndex#NO_SLOT} if an import
+	 *         was handled since the product was read, since it may have replaced it
+	 */
+	private synchronized int install(final Product product, final long generation) {
+		int slot = index.get(product.getId());
+		if (slot != LongIndex.NO_SLOT || generation != imports) {
+			return slot;
+		}
+
+		slot = nextSlot++;
+		int chunkIndex = slot >>> CHUNK_SHIFT;
+		if (chunkIndex == chunks.length) {
+			Chunk[] grown = new Chunk[chunkIndex + 1];
+			System.arraycopy(chunks, 0, grown, 0, chunks.length);
+			grown[chunkIndex] = new Chunk();
+			chunks = grown;
+		}
+
+		Chunk chunk = chunks[chunkIndex];
+		int offset = slot & CHUNK_MASK;
+		chunk.ids[offset] = product.getId();
+		chunk.names[offset] = product.getName();
+		chunk.stock.set(offset, product.getStock());
+
+		return index.putIfAbsent(product.getId(), slot);
+	}
+
+	private static final class Chunk {
+		private final long[] ids = new long[CHUNK_SIZE];
+
+		private final String[] names = new String[CHUNK_SIZE];
+
+		private final AtomicLongArray stock = new AtomicLongArray(CHUNK_SIZE);
+
+		private final AtomicLongArray dirty = new AtomicLongArray(CHUNK_SIZE >>> 6);
+
+		void markDirty(final int offset) {
+			int word = offset >>> 6;
+			long bit = 1L << offset;
+			long bits;
+			do {
+				bits = dirty.get(word);
+				if ((bits & bit) != 0L) {
+					return;
+				}
+			} while (!dirty.compareAndSet(word, bits, bits | bit));
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package de.malmansari.playground.onlineshop.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <pre>
+ * Maps the product ids to the nodes by consistent hashing.
+ *
+ * Every node is placed on a ring of 64-bit hashes at as many
+ * points as there are virtual nodes, so the ids are spread
+ * evenly even over few nodes. An id belongs to the node of
+ * the first point at or after its hash, wrapping around. If a
+ * node is added, it only takes over the ids falling right
+ * before its points, about one in (nodes + 1), the other ids
+ * keep their node.
+ *
+ * The points are kept in one sorted array and found by binary
+ * search, the ring is immutable.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public final class ConsistentHashRing {
+	private final List<String> nodes;
+
+	private final long[] points;
+
+	private final int[] owners;
+
+	/**
+	 * @param nodes the names of the nodes, e.g. their base URLs, must not be empty
+	 * @param virtualNodes the number of points per node, must be positive
+	 */
+	public ConsistentHashRing(final List<String> nodes, final int virtualNodes) {
+		if (nodes.isEmpty() || virtualNodes <= 0) {
+			throw new IllegalArgumentException("A ring needs at least one node and one point per node");
+		}
+		this.nodes = Collections.unmodifiableList(nodes);
+
+		long[] hashes = new long[nodes.size() * virtualNodes];
+		for (int node = 0; node < nodes.size(); node++) {
+			long seed = hash(nodes.get(node));
+			for (int point = 0; point < virtualNodes; point++) {
+				hashes[node * virtualNodes + point] = mix(seed + point * 0x9E3779B97F4A7C15L);
+			}
+		}
+
+		// the points are sorted together with their nodes as pairs of
+		// (hash, node), ties are broken by the node for a stable ring
+		Integer[] byPoint = new Integer[hashes.length];
+		for (int i = 0; i < byPoint.length; i++) {
+			byPoint[i] = i;
+		}
+		Arrays.sort(byPoint, (a, b) -> hashes[a] != hashes[b] ? Long.compare(hashes[a], hashes[b])
+				: Integer.compare(a / virtualNodes, b / virtualNodes));
+		this.points = new long[hashes.length];
+		this.owners = new int[hashes.length];
+		for (int i = 0; i < byPoint.length; i++) {
+			points[i] = hashes[byPoint[i]];
+			owners[i] = byPoint[i] / virtualNodes;
+		}
+	}
+
+	public List<String> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @param id the id of a product
+	 * @return the index of the node owning the product
+	 */
+	public int ownerOf(final long id) {
+		int i = Arrays.binarySearch(points, mix(id));
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return owners[i == points.length ? 0 : i];
+	}
+
+	/**
+	 * FNV-1a over the UTF-8 bytes of the node name.
+	 */
+	private static long hash(final String node) {
+		long hash = 0xCBF29CE484222325L;
+		for (byte b : node.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xFF;
+			hash *= 0x100000001B3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, so neighbouring ids land far apart on the ring.
+	 */
+	private static long mix(final long value) {
+		long hash = value;
+		hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+		hash = (hash ^ (hash >>> 33)) * 0xC4CEB93FE1A85A63L;
+		return hash ^ (hash >>> 33);
+	}
+}
@@ -0,0 +1,51 @@
+package de.malmansari.playground.onlineshop.sharding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+import de.malmansari.playground.onlineshop.storage.ProductStore;
+
+/**
+ * <pre>
+ * Removes the products owned by other nodes from the store of
+ * this node, e.g. the ones of data.sql, which every node
+ * inserts.
+ *
+ * It runs once all beans are created, i.e. before the web
+ * server accepts requests and before the indexes are built
+ * from the catalog, so no read ever sees a product which is
+ * changed on another node. The import keeps the products of
+ * this node only as well.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public class ShardCatalogPruner implements SmartInitializingSingleton {
+	private static final Logger LOG = LoggerFactory.getLogger(ShardCatalogPruner.class);
+
+	private final ProductStore productStore;
+
+	private final ShardForwardingInterceptor shardForwarding;
+
+	public ShardCatalogPruner(final ProductStore productStore, final ShardForwardingInterceptor shardForwarding) {
+		this.productStore = productStore;
+		this.shardForwarding = shardForwarding;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		List<Long> foreign = new ArrayList<>();
+		productStore.forEachProduct(product -> {
+			if (!shardForwarding.owns(product.getId())) {
+				foreign.add(product.getId());
+			}
+		});
+		foreign.forEach(productStore::delete);
+		LOG.info("Removed {} products owned by other shard nodes", foreign.size());
+	}
+}
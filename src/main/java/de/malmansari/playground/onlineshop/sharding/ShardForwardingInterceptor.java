@@ -0,0 +1,297 @@
+package de.malmansari.playground.onlineshop.sharding;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import de.malmansari.playground.onlineshop.exception.CrossShardOrderException;
+import de.malmansari.playground.onlineshop.exception.ErrorResponse;
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.exception.RemoteShardException;
+import de.malmansari.playground.onlineshop.exception.ServiceOverloadedException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.model.Reservation;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <pre>
+ * Runs the stock mutations of the {@link ProductService} on
+ * the node owning the product, see {@link ConsistentHashRing}.
+ * A call for a product of this node proceeds locally, any
+ * other call is forwarded to the REST API of the owning node,
+ * which then finds the product to be its own.
+ *
+ * The reservations are kept by the node owning their product,
+ * so their ids tell the node: a local reservation id r is
+ * handed out as r * nodes + node, thus a reservation can be
+ * confirmed or released on any node as well.
+ *
+ * A batch order is forwarded as a whole if all its products
+ * belong to one node, a batch spanning several nodes cannot
+ * be ordered atomically and is rejected.
+ *
+ * A forwarded request carries the header X-Shard-Forwarded. A
+ * node receiving such a request for a product it does not own
+ * rejects it with 409 instead of forwarding it again, so nodes
+ * disagreeing on the ring cannot forward a request in a loop.
+ *
+ * The errors of the owning node are passed on with their HTTP
+ * status and error code, an overloaded node as 
+ * {@link ServiceOverloadedException}, and the rejected orders
+ * as the shared exceptions of a local rejection.
+ *
+ * The reads are served locally. Every node keeps only the
+ * products it owns, see {@link ShardCatalogPruner}, so its
+ * listings, search and low stock show the current stock of
+ * its own products and never a stale copy of another's.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public class ShardForwardingInterceptor implements MethodInterceptor, SmartInitializingSingleton {
+	/**
+	 * Names the node which forwarded a request.
+	 */
+	public static final String FORWARDED_HEADER = "X-Shard-Forwarded";
+
+	private static final ParameterizedTypeReference<Product> PRODUCT = new ParameterizedTypeReference<Product>() {
+	};
+
+	private static final ParameterizedTypeReference<Reservation> RESERVATION =
+			new ParameterizedTypeReference<Reservation>() {
+			};
+
+	private static final ParameterizedTypeReference<List<Product>> PRODUCTS =
+			new ParameterizedTypeReference<List<Product>>() {
+			};
+
+	private final ConsistentHashRing ring;
+
+	private final int self;
+
+	private final ObjectProvider<RestTemplateBuilder> restTemplateBuilder;
+
+	private final ObjectProvider<MeterRegistry> meterRegistry;
+
+	private final Duration connectTimeout;
+
+	private final Duration readTimeout;
+
+	private RestTemplate restTemplate;
+
+	private Counter[] forwarded;
+
+	public ShardForwardingInterceptor(final ConsistentHashRing ring, final String self,
+			final ObjectProvider<RestTemplateBuilder> restTemplateBuilder,
+			final ObjectProvider<MeterRegistry> meterRegistry, final Duration connectTimeout,
+			final Duration readTimeout) {
+		this.ring = ring;
+		this.self = ring.getNodes().indexOf(self);
+		if (this.self < 0) {
+			throw new IllegalStateException("The node " + self + " is not one of the shard nodes " + ring.getNodes());
+		}
+		this.restTemplateBuilder = restTemplateBuilder;
+		this.meterRegistry = meterRegistry;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	public ConsistentHashRing getRing() {
+		return ring;
+	}
+
+	/**
+	 * @return the index of this node on the ring
+	 */
+	public int getSelf() {
+		return self;
+	}
+
+	/**
+	 * @param id the id of a product
+	 * @return whether the product belongs to this node
+	 */
+	public boolean owns(final long id) {
+		return ring.ownerOf(id) == self;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		restTemplate = restTemplateBuilder.getObject()
+				.setConnectTimeout(connectTimeout)
+				.setReadTimeout(readTimeout)
+				.build();
+
+		MeterRegistry registry = meterRegistry.getObject();
+		Counter[] counters = new Counter[ring.getNodes().size()];
+		for (int node = 0; node < counters.length; node++) {
+			counters[node] = Counter.builder("onlineshop.sharding.forwarded")
+					.description("Product service calls forwarded to the node owning the product")
+					.tag("node", ring.getNodes().get(node))
+					.register(registry);
+		}
+		forwarded = counters;
+	}
+
+	@Override
+	public Object invoke(final MethodInvocation invocation) throws Throwable {
+		Object[] arguments = invocation.getArguments();
+		switch (invocation.getMethod().getName()) {
+		case "order":
+			return ownedLocally(arguments[0]) ? invocation.proceed()
+					: forward(ownerOf(arguments[0]), HttpMethod.GET, "/api/order/products/{id}/{quantity}", null,
+							PRODUCT, arguments[0], arguments[1]);
+		case "orderOnce":
+			if (ownedLocally(arguments[0])) {
+				return invocation.proceed();
+			}
+			HttpHeaders headers = new HttpHeaders();
+			headers.set("Idempotency-Key", (String) arguments[2]);
+			return forward(ownerOf(arguments[0]), HttpMethod.POST, "/api/order/products/{id}/{quantity}",
+					new HttpEntity<>(headers), PRODUCT, arguments[0], arguments[1]);
+		case "addToStock":
+			return ownedLocally(arguments[0]) ? invocation.proceed()
+					: forward(ownerOf(arguments[0]), HttpMethod.GET, "/api/add/products/{id}/{quantity}", null,
+							PRODUCT, arguments[0], arguments[1]);
+		case "reserve":
+			return ownedLocally(arguments[0]) ? handedOut((Reservation) invocation.proceed())
+					: forward(ownerOf(arguments[0]), HttpMethod.GET, "/api/reserve/products/{id}/{quantity}", null,
+							RESERVATION, arguments[0], arguments[1]);
+		case "confirm":
+			return holdsReservation(arguments) ? handedOut((Reservation) invocation.proceed())
+					: forward(reservationNode(arguments[0]), HttpMethod.GET, "/api/confirm/reservations/{id}", null,
+							RESERVATION, arguments[0]);
+		case "release":
+			return holdsReservation(arguments) ? invocation.proceed()
+					: forward(reservationNode(arguments[0]), HttpMethod.GET, "/api/release/reservations/{id}", null,
+							PRODUCT, arguments[0]);
+		case "orderBatch":
+			int owner = batchOwner(arguments[0]);
+			return owner == self ? invocation.proceed()
+					: forward(owner, HttpMethod.POST, "/api/order/products", new HttpEntity<>(arguments[0]),
+							PRODUCTS);
+		default:
+			return invocation.proceed();
+		}
+	}
+
+	private int ownerOf(final Object id) {
+		return ring.ownerOf((Long) id);
+	}
+
+	private boolean ownedLocally(final Object id) {
+		return ownerOf(id) == self;
+	}
+
+	private int reservationNode(final Object reservationId) {
+		return (int) Math.floorMod((Long) reservationId, (long) ring.getNodes().size());
+	}
+
+	/**
+	 * Turns the handed out reservation id into the local one if the reservation is held here.
+	 */
+	private boolean holdsReservation(final Object[] arguments) {
+		if (reservationNode(arguments[0]) != self) {
+			return false;
+		}
+		arguments[0] = Math.floorDiv((Long) arguments[0], (long) ring.getNodes().size());
+		return true;
+	}
+
+	private Reservation handedOut(final Reservation reservation) {
+		return new Reservation(reservation.getId() * ring.getNodes().size() + self, reservation.getProductId(),
+				reservation.getQuantity(), reservation.getExpiresAt());
+	}
+
+	/**
+	 * @return the node owning all products of the batch, this node if the batch is left to the validation
+	 */
+	private int batchOwner(final Object batch) {
+		int owner = -1;
+		if (batch != null) {
+			for (Object id : ((Map<?, ?>) batch).keySet()) {
+				if (!(id instanceof Long)) {
+					return self;
+				}
+				int node = ownerOf(id);
+				if (owner >= 0 && node != owner) {
+					throw new CrossShardOrderException(
+							"The products of a batch order must belong to the same shard, order them one by one");
+				}
+				owner = node;
+			}
+		}
+		return owner < 0 ? self : owner;
+	}
+
+	private <T> T forward(final int node, final HttpMethod method, final String path, final HttpEntity<?> request,
+			final ParameterizedTypeReference<T> type, final Object... variables) {
+		String forwardedBy = forwardedBy();
+		if (forwardedBy != null) {
+			throw new RemoteShardException(HttpStatus.CONFLICT.value(), ErrorResponse.SHARD_MISROUTED,
+					"The shard node " + forwardedBy + " forwarded a request to " + ring.getNodes().get(self)
+							+ ", which does not own its product, the nodes disagree on the shard nodes");
+		}
+
+		HttpHeaders headers = new HttpHeaders();
+		if (request != null) {
+			headers.putAll(request.getHeaders());
+		}
+		headers.set(FORWARDED_HEADER, ring.getNodes().get(self));
+		String url = ring.getNodes().get(node) + path;
+		forwarded[node].increment();
+		try {
+			return restTemplate.exchange(url, method, new HttpEntity<>(request == null ? null : request.getBody(), headers),
+					type, variables).getBody();
+		} catch (HttpStatusCodeException e) {
+			ErrorResponse error = ErrorResponse.read(e.getRawStatusCode(), e.getResponseBodyAsString());
+			if (e.getRawStatusCode() == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+				throw new ServiceOverloadedException(error.getMessage());
+			}
+			// the rejections of the owning node are rejections of this node as well
+			switch (error.getError()) {
+			case ErrorResponse.PRODUCT_NOT_FOUND:
+				throw ProductNotFoundException.INSTANCE;
+			case ErrorResponse.NOT_ENOUGH_STOCK:
+				throw ProductHasNotEnoughStockException.INSTANCE;
+			default:
+				throw new RemoteShardException(e.getRawStatusCode(), error.getError(), error.getMessage(), e);
+			}
+		} catch (ResourceAccessException e) {
+			throw new RemoteShardException(HttpStatus.BAD_GATEWAY.value(), ErrorResponse.SHARD_UNREACHABLE,
+					"The shard node " + ring.getNodes().get(node) + " is not reachable", e);
+		}
+	}
+
+	/**
+	 * @return the node which forwarded the current request, or null if it was not forwarded
+	 */
+	private static String forwardedBy() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (!(attributes instanceof ServletRequestAttributes)) {
+			return null;
+		}
+		return ((ServletRequestAttributes) attributes).getRequest().getHeader(FORWARDED_HEADER);
+	}
+}
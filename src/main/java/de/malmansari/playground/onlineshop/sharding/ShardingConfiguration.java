@@ -0,0 +1,76 @@
+package de.malmansari.playground.onlineshop.sharding;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.RootClassFilter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.storage.ProductStore;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <pre>
+ * Partitions the products over several shop nodes, each one
+ * with a database of its own, see {@link ShardForwardingInterceptor}.
+ *
+ * The sharding is only active if the property
+ * onlineshop.sharding.enabled is set to true. All nodes have
+ * to be configured with the same onlineshop.sharding.nodes,
+ * the base URLs of the nodes in the same order, and each one
+ * with its own URL as onlineshop.sharding.self. The forwarding
+ * runs inside the service metrics and the admission control,
+ * so a forwarded call is measured and limited on both nodes.
+ * The forwarded calls are counted per owning node as
+ * onlineshop.sharding.forwarded. Every node keeps the products
+ * it owns only, see {@link ShardCatalogPruner}.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Configuration
+@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+@ConditionalOnProperty(name = "onlineshop.sharding.enabled", havingValue = "true")
+public class ShardingConfiguration {
+
+	@Bean
+	@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+	public ShardForwardingInterceptor shardForwardingInterceptor(@Value("${onlineshop.sharding.nodes}") String[] nodes,
+			@Value("${onlineshop.sharding.self}") String self,
+			@Value("${onlineshop.sharding.virtual-nodes:128}") int virtualNodes,
+			@Value("${onlineshop.sharding.connect-timeout-ms:1000}") long connectTimeoutMillis,
+			@Value("${onlineshop.sharding.read-timeout-ms:5000}") long readTimeoutMillis,
+			ObjectProvider<RestTemplateBuilder> restTemplateBuilder, ObjectProvider<MeterRegistry> meterRegistry) {
+		return new ShardForwardingInterceptor(new ConsistentHashRing(Arrays.asList(nodes), virtualNodes), self,
+				restTemplateBuilder, meterRegistry, Duration.ofMillis(connectTimeoutMillis),
+				Duration.ofMillis(readTimeoutMillis));
+	}
+
+	@Bean
+	@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+	public Advisor shardForwardingAdvisor(ShardForwardingInterceptor shardForwardingInterceptor) {
+		DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(
+				new ComposablePointcut(new RootClassFilter(ProductService.class)), shardForwardingInterceptor);
+		advisor.setOrder(Ordered.HIGHEST_PRECEDENCE + 2);
+		return advisor;
+	}
+
+	@Bean
+	public ShardCatalogPruner shardCatalogPruner(ProductStore productStore,
+			ShardForwardingInterceptor shardForwardingInterceptor) {
+		return new ShardCatalogPruner(productStore, shardForwardingInterceptor);
+	}
+}
@@ -0,0 +1,198 @@
+package de.malmansari.playground.onlineshop.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+
+/**
+ * <pre>
+ * Stores the products in the products table of the database
+ * with the {@link ProductRepository}.
+ *
+ * Every change runs in a transaction of its own. A single
+ * product is updated as configured by
+ * onlineshop.stock-updates.mode, see {@link StockUpdateMode};
+ * an optimistic update that loses against a concurrent one
+ * fails, its retry is up to the caller. A batch locks its rows
+ * in ascending id order.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public class JpaProductStore implements ProductStore {
+	private final ProductRepository productRepository;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final StockUpdateMode stockUpdateMode;
+
+	public JpaProductStore(final ProductRepository productRepository,
+			final PlatformTransactionManager transactionManager, final StockUpdateMode stockUpdateMode) {
+		this.productRepository = productRepository;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.stockUpdateMode = stockUpdateMode;
+	}
+
+	@Override
+	public Optional<Product> findById(final long id) {
+		return productRepository.findById(id);
+	}
+
+	@Override
+	public Iterable<Product> findAllById(final Collection<Long> ids) {
+		return productRepository.findAllById(ids);
+	}
+
+	@Override
+	public Iterable<Product> findAll() {
+		return productRepository.findAll();
+	}
+
+	@Override
+	public List<Product> findPage(final long afterId, final int limit) {
+		return productRepository.findByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, limit));
+	}
+
+	@Override
+	public void forEachProduct(final Consumer<Product> action) {
+		productRepository.forEachProduct(action);
+	}
+
+	@Override
+	public Product decrementStock(final long id, final long quantity, final Consumer<Product> changed) {
+		return transactionTemplate.execute(status -> {
+			Product product = decrementInTransaction(id, quantity);
+			changed.accept(product);
+			return product;
+		});
+	}
+
+	@Override
+	public Product incrementStock(final long id, final long quantity, final Consumer<Product> changed) {
+		return transactionTemplate.execute(status -> {
+			Product product = incrementInTransaction(id, quantity);
+			changed.accept(product);
+			return product;
+		});
+	}
+
+	@Override
+	public List<Product> decrementStocks(final SortedMap<Long, Long> quantities, final Consumer<Product> changed) {
+		return transactionTemplate.execute(status -> {
+			List<Product> products = productRepository.findByIdInOrderByIdAsc(quantities.keySet());
+			if (products.size() < quantities.size()) {
+				throw ProductNotFoundException.INSTANCE;
+			}
+
+			Iterator<Long> lines = quantities.values().iterator();
+			for (Product product : products) {
+				if (product.getStock() < lines.next()) {
+					throw ProductHasNotEnoughStockException.INSTANCE;
+				}
+			}
+
+			// the managed products are flushed as one JDBC batch on commit
+			lines = quantities.values().iterator();
+			for (Product product : products) {
+				product.setStock(product.getStock() - lines.next());
+				changed.accept(product);
+			}
+			return products;
+		});
+	}
+
+	@Override
+	public List<Product> incrementStocks(final SortedMap<Long, Long> quantities, final Consumer<Product> changed) {
+		return transactionTemplate.execute(status -> {
+			productRepository.incrementStocks(quantities);
+			List<Product> products = new ArrayList<>(quantities.size());
+			productRepository.findAllById(quantities.keySet()).forEach(products::add);
+			products.forEach(changed);
+			return products;
+		});
+	}
+
+	@Override
+	public void saveAll(final List<Product> products, final BiConsumer<List<Product>, Map<Long, Long>> saved) {
+		transactionTemplate.execute(status -> {
+			saved.accept(products, productRepository.mergeProducts(products));
+			return null;
+		});
+	}
+
+	@Override
+	public void delete(final long id) {
+		transactionTemplate.execute(status -> {
+			productRepository.removeById(id);
+			return null;
+		});
+	}
+
+	private Product decrementInTransaction(final long id, final long quantity) {
+		if (stockUpdateMode != StockUpdateMode.ATOMIC) {
+			Product product = loadForUpdate(id);
+			if (product.getStock() < quantity) {
+				throw ProductHasNotEnoughStockException.INSTANCE;
+			}
+			product.setStock(product.getStock() - quantity);
+			return product;
+		}
+
+		if (productRepository.decrementStock(id, quantity) == 0) {
+			if (!productRepository.existsById(id)) {
+				throw ProductNotFoundException.INSTANCE;
+			}
+			throw ProductHasNotEnoughStockException.INSTANCE;
+		}
+
+		return reload(id);
+	}
+
+	private Product incrementInTransaction(final long id, final long quantity) {
+		if (stockUpdateMode != StockUpdateMode.ATOMIC) {
+			Product product = loadForUpdate(id);
+			product.setStock(product.getStock() + quantity);
+			return product;
+		}
+
+		if (productRepository.incrementStock(id, quantity) == 0) {
+			throw ProductNotFoundException.INSTANCE;
+		}
+
+		return reload(id);
+	}
+
+	/**
+	 * Reads the product to be changed, locked in the pessimistic mode. The
+	 * managed product is written on commit, checking its version.
+	 */
+	private Product loadForUpdate(final long id) {
+		return (stockUpdateMode == StockUpdateMode.PESSIMISTIC ? productRepository.findLockedById(id)
+				: productRepository.findById(id))
+				.orElseThrow(() -> ProductNotFoundException.INSTANCE);
+	}
+
+	/**
+	 * Reads the product updated by the current transaction. The row is
+	 * still locked by the update, so this sees exactly our change.
+	 */
+	private Product reload(final long id) {
+		return productRepository.findById(id).orElseThrow(() -> ProductNotFoundException.INSTANCE);
+	}
+}
@@ -0,0 +1,504 @@
+package de.malmansari.playground.onlineshop.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import de.malmansari.playground.onlineshop.exception.InvalidCatalogException;
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.util.LongIndex;
+
+/**
+ * <pre>
+ * Stores the products in a memory-mapped file, outside of the
+ * heap and without a database.
+ *
+ * Every product is a record of 128 bytes:
+ *
+ *   id (8) | stock (8) | deleted (1) | unused (1) | name length (2) | name (108, UTF-8)
+ *
+ * The records follow a header of the same size and are mapped
+ * in segments of 65536 records, a new segment is mapped when
+ * the last one is full. The heap only holds the index from the
+ * id to the record and, for the ordered reads, the sorted ids,
+ * which are sorted again after products were added. Neither
+ * holds an object per product.
+ *
+ * The records are guarded by 1024 striped locks. A change
+ * locks the stripes of its records in ascending order, so two
+ * batches cannot deadlock. A removed product keeps its record,
+ * it is reused if the product is saved again.
+ *
+ * The records are written to the page cache of the file and
+ * flushed by the operating system, and forced to the disk on
+ * close. Reopening the file only reads the ids, so a restart
+ * does not depend on a database; a crash of the operating
+ * system may lose the changes since the last flush.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public class MappedProductStore implements ProductStore, Closeable {
+	/**
+	 * The maximum length of a product name in UTF-8 bytes.
+	 */
+	public static final int MAX_NAME_BYTES = 108;
+
+	private static final int RECORD_BYTES = 128;
+
+	private static final int ID = 0;
+
+	private static final int STOCK = 8;
+
+	private static final int DELETED = 16;
+
+	private static final int NAME_LENGTH = 18;
+
+	private static final int NAME = 20;
+
+	private static final long MAGIC = 0x4F4E4C494E455348L;
+
+	private static final int HEADER_RECORD_BYTES = 8;
+
+	private static final int HEADER_COUNT = 16;
+
+	private static final int SEGMENT_RECORDS = 1 << 16;
+
+	private static final long SEGMENT_BYTES = (long) SEGMENT_RECORDS * RECORD_BYTES;
+
+	private static final int STRIPES = 1024;
+
+	private final Path file;
+
+	private final boolean temporary;
+
+	private final FileChannel channel;
+
+	private final MappedByteBuffer header;
+
+	private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+	private final LongIndex slots;
+
+	/**
+	 * The mapped segments, replaced by a longer copy under the lock of this store before a record beyond them is
+	 * published.
+	 */
+	private volatile MappedByteBuffer[] segments;
+
+	/**
+	 * The ids of all records in ascending order, null after records were added.
+	 */
+	private volatile long[] sortedIds;
+
+	/**
+	 * The number of records, guarded by this store.
+	 */
+	private int count;
+
+	private MappedProductStore(final Path file, final boolean temporary) throws IOException {
+		this.file = file;
+		this.temporary = temporary;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		boolean created = channel.size() == 0;
+		this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, RECORD_BYTES);
+		if (created) {
+			header.putLong(0, MAGIC);
+			header.putInt(HEADER_RECORD_BYTES, RECORD_BYTES);
+			header.putLong(HEADER_COUNT, 0);
+		} else if (header.getLong(0) != MAGIC || header.getInt(HEADER_RECORD_BYTES) != RECORD_BYTES) {
+			channel.close();
+			throw new IOException(file + " is not a product store");
+		}
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+		}
+
+		count = (int) header.getLong(HEADER_COUNT);
+		segments = new MappedByteBuffer[(count + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = map(i);
+		}
+		slots = new LongIndex(count);
+		for (int slot = 0; slot < count; slot++) {
+			slots.putIfAbsent(segment(slot).getLong(offset(slot) + ID), slot);
+		}
+	}
+
+	/**
+	 * Opens the store of the given file, creating it if it does not exist.
+	 *
+	 * @param file the file of the store
+	 * @return the store with the products of the file
+	 * @throws IOException if the file cannot be mapped or is not a product store
+	 */
+	public static MappedProductStore open(final Path file) throws IOException {
+		return new MappedProductStore(file, false);
+	}
+
+	/**
+	 * Opens an empty store in a temporary file, which is deleted on close.
+	 *
+	 * @return the empty store
+	 * @throws IOException if the file cannot be created
+	 */
+	public static MappedProductStore temporary() throws IOException {
+		return new MappedProductStore(Files.createTempFile("products", ".store"), true);
+	}
+
+	/**
+	 * @return the number of records, including the removed products
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	@Override
+	public Optional<Product> findById(final long id) {
+		int slot = slots.get(id);
+		if (slot == LongIndex.NO_SLOT) {
+			return Optional.empty();
+		}
+		ReentrantLock lock = lockOf(slot);
+		lock.lock();
+		try {
+			return Optional.ofNullable(read(slot));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Iterable<Product> findAllById(final Collection<Long> ids) {
+		List<Product> products = new ArrayList<>(ids.size());
+		for (Long id : ids) {
+			findById(id).ifPresent(products::add);
+		}
+		return products;
+	}
+
+	@Override
+	public Iterable<Product> findAll() {
+		List<Product> products = new ArrayList<>();
+		forEachProduct(products::add);
+		return products;
+	}
+
+	@Override
+	public List<Product> findPage(final long afterId, final int limit) {
+		long[] ids = sortedIds();
+		int index = Arrays.binarySearch(ids, afterId);
+		List<Product> products = new ArrayList<>(limit);
+		for (int i = index < 0 ? -index - 1 : index + 1; i < ids.length && products.size() < limit; i++) {
+			findById(ids[i]).ifPresent(products::add);
+		}
+		return products;
+	}
+
+	@Override
+	public void forEachProduct(final Consumer<Product> action) {
+		for (long id : sortedIds()) {
+			findById(id).ifPresent(action);
+		}
+	}
+
+	@Override
+	public Product decrementStock(final long id, final long quantity, final Consumer<Product> changed) {
+		int slot = slotOf(id);
+		ReentrantLock lock = lockOf(slot);
+		lock.lock();
+		try {
+			MappedByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			if (segment.get(offset + DELETED) != 0) {
+				throw ProductNotFoundException.INSTANCE;
+			}
+			long stock = segment.getLong(offset + STOCK);
+			if (stock < quantity) {
+				throw ProductHasNotEnoughStockException.INSTANCE;
+			}
+			segment.putLong(offset + STOCK, stock - quantity);
+			Product product = read(slot);
+			changed.accept(product);
+			return product;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Product incrementStock(final long id, final long quantity, final Consumer<Product> changed) {
+		int slot = slotOf(id);
+		ReentrantLock lock = lockOf(slot);
+		lock.lock();
+		try {
+			MappedByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			if (segment.get(offset + DELETED) != 0) {
+				throw ProductNotFoundException.INSTANCE;
+			}
+			segment.putLong(offset + STOCK, segment.getLong(offset + STOCK) + quantity);
+			Product product = read(slot);
+			changed.accept(product);
+			return product;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public List<Product> decrementStocks(final SortedMap<Long, Long> quantities, final Consumer<Product> changed) {
+		int[] lines = new int[quantities.size()];
+		int line = 0;
+		for (Long id : quantities.keySet()) {
+			lines[line++] = slotOf(id);
+		}
+
+		int[] stripes = lockAll(lines);
+		try {
+			for (int slot : lines) {
+				if (segment(slot).get(offset(slot) + DELETED) != 0) {
+					throw ProductNotFoundException.INSTANCE;
+				}
+			}
+			line = 0;
+			for (long quantity : quantities.values()) {
+				int slot = lines[line++];
+				if (segment(slot).getLong(offset(slot) + STOCK) < quantity) {
+					throw ProductHasNotEnoughStockException.INSTANCE;
+				}
+			}
+
+			List<Product> products = new ArrayList<>(lines.length);
+			line = 0;
+			for (long quantity : quantities.values()) {
+				int slot = lines[line++];
+				MappedByteBuffer segment = segment(slot);
+				int offset = offset(slot);
+				segment.putLong(offset + STOCK, segment.getLong(offset + STOCK) - quantity);
+				Product product = read(slot);
+				changed.accept(product);
+				products.add(product);
+			}
+			return products;
+		} finally {
+			unlockAll(stripes);
+		}
+	}
+
+	@Override
+	public List<Product> incrementStocks(final SortedMap<Long, Long> quantities, final Consumer<Product> changed) {
+		List<Product> products = new ArrayList<>(quantities.size());
+		for (Map.Entry<Long, Long> line : quantities.entrySet()) {
+			if (slots.get(line.getKey()) == LongIndex.NO_SLOT) {
+				continue;
+			}
+			try {
+				products.add(incrementStock(line.getKey(), line.getValue(), changed));
+			} catch (ProductNotFoundException e) {
+				// removed, skipped like an unknown product
+			}
+		}
+		return products;
+	}
+
+	@Override
+	public void saveAll(final List<Product> products, final BiConsumer<List<Product>, Map<Long, Long>> saved) {
+		byte[][] names = new byte[products.size()][];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = products.get(i).getName().getBytes(StandardCharsets.UTF_8);
+			if (names[i].length > MAX_NAME_BYTES) {
+				throw new InvalidCatalogException("The name of the product " + products.get(i).getId()
+						+ " is longer than " + MAX_NAME_BYTES + " bytes");
+			}
+		}
+
+		int[] targets = new int[names.length];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = slotOrInsert(products.get(i).getId());
+		}
+
+		int[] stripes = lockAll(targets);
+		try {
+			Map<Long, Long> replaced = new HashMap<>();
+			for (int i = 0; i < targets.length; i++) {
+				MappedByteBuffer segment = segment(targets[i]);
+				int offset = offset(targets[i]);
+				if (segment.get(offset + DELETED) == 0) {
+					replaced.putIfAbsent(products.get(i).getId(), segment.getLong(offset + STOCK));
+				}
+				segment.putLong(offset + STOCK, products.get(i).getStock());
+				segment.putShort(offset + NAME_LENGTH, (short) names[i].length);
+				for (int b = 0; b < names[i].length; b++) {
+					segment.put(offset + NAME + b, names[i][b]);
+				}
+				segment.put(offset + DELETED, (byte) 0);
+			}
+			saved.accept(products, replaced);
+		} finally {
+			unlockAll(stripes);
+		}
+	}
+
+	@Override
+	public void delete(final long id) {
+		int slot = slots.get(id);
+		if (slot == LongIndex.NO_SLOT) {
+			return;
+		}
+		ReentrantLock lock = lockOf(slot);
+		lock.lock();
+		try {
+			segment(slot).put(offset(slot) + DELETED, (byte) 1);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forces the records to the disk and unmaps the file, a temporary file is deleted.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+		header.force();
+		channel.close();
+		if (temporary) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Reads the record of the given slot, its stripe must be locked.
+	 *
+	 * @return the product, or null if it was removed
+	 */
+	private Product read(final int slot) {
+		MappedByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		if (segment.get(offset + DELETED) != 0) {
+			return null;
+		}
+		byte[] name = new byte[segment.getShort(offset + NAME_LENGTH)];
+		for (int b = 0; b < name.length; b++) {
+			name[b] = segment.get(offset + NAME + b);
+		}
+		return new Product(segment.getLong(offset + ID), new String(name, StandardCharsets.UTF_8),
+				segment.getLong(offset + STOCK));
+	}
+
+	private int slotOf(final long id) {
+		int slot = slots.get(id);
+		if (slot == LongIndex.NO_SLOT) {
+			throw ProductNotFoundException.INSTANCE;
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the slot of the given product, appending a removed record for it if it is unknown.
+	 */
+	private synchronized int slotOrInsert(final long id) {
+		int slot = slots.get(id);
+		if (slot != LongIndex.NO_SLOT) {
+			return slot;
+		}
+
+		slot = count;
+		if (slot / SEGMENT_RECORDS == segments.length) {
+			MappedByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+			try {
+				grown[segments.length] = map(segments.length);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			segments = grown;
+		}
+		// the record is not reachable before its slot is published
+		MappedByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		segment.putLong(offset + ID, id);
+		segment.putLong(offset + STOCK, 0);
+		segment.put(offset + DELETED, (byte) 1);
+		segment.putShort(offset + NAME_LENGTH, (short) 0);
+		header.putLong(HEADER_COUNT, ++count);
+		sortedIds = null;
+		return slots.putIfAbsent(id, slot);
+	}
+
+	private long[] sortedIds() {
+		long[] ids = sortedIds;
+		if (ids == null) {
+			synchronized (this) {
+				ids = sortedIds;
+				if (ids == null) {
+					ids = new long[count];
+					for (int slot = 0; slot < count; slot++) {
+						ids[slot] = segment(slot).getLong(offset(slot) + ID);
+					}
+					Arrays.sort(ids);
+					sortedIds = ids;
+				}
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Locks the distinct stripes of the given slots in ascending order.
+	 *
+	 * @return the locked stripes
+	 */
+	private int[] lockAll(final int[] slots) {
+		int[] stripes = Arrays.stream(slots).map(slot -> slot & (STRIPES - 1)).sorted().distinct().toArray();
+		for (int stripe : stripes) {
+			locks[stripe].lock();
+		}
+		return stripes;
+	}
+
+	private void unlockAll(final int[] stripes) {
+		for (int i = stripes.length - 1; i >= 0; i--) {
+			locks[stripes[i]].unlock();
+		}
+	}
+
+	private ReentrantLock lockOf(final int slot) {
+		return locks[slot & (STRIPES - 1)];
+	}
+
+	private MappedByteBuffer segment(final int slot) {
+		return segments[slot / SEGMENT_RECORDS];
+	}
+
+	private static int offset(final int slot) {
+		return (slot % SEGMENT_RECORDS) * RECORD_BYTES;
+	}
+
+	private MappedByteBuffer map(final int segment) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_WRITE, RECORD_BYTES + segment * SEGMENT_BYTES, SEGMENT_BYTES);
+	}
+}
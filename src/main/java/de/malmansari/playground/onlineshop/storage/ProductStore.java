@@ -0,0 +1,134 @@
+package de.malmansari.playground.onlineshop.storage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.Product;
+
+/**
+ * <pre>
+ * The storage of the products: their catalog and their stock.
+ *
+ * The backend is chosen by onlineshop.storage.backend:
+ *  - jpa: the products table of the database, see {@link JpaProductStore}
+ *  - mapped: a memory-mapped file of fixed-width records, see
+ *    {@link MappedProductStore}
+ *
+ * Every change is atomic on its own: a stock change is checked
+ * and applied at once, a batch is applied completely or not at
+ * all. The changed products are passed to the given callback
+ * while the change is still exclusive, i.e. in its transaction
+ * or under the lock of its records, so the callbacks of the
+ * changes of one product are called in the order of the
+ * changes. The callback must neither block nor call the store.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public interface ProductStore {
+	/**
+	 * @param id the id of the product
+	 * @return the product, if found
+	 */
+	Optional<Product> findById(long id);
+
+	/**
+	 * @param ids the ids of the products
+	 * @return the found products, the unknown ids are skipped
+	 */
+	Iterable<Product> findAllById(Collection<Long> ids);
+
+	/**
+	 * @return all products
+	 */
+	Iterable<Product> findAll();
+
+	/**
+	 * @param afterId the id after which the page starts
+	 * @param limit the maximum number of products
+	 * @return the products following the given id, sorted by id
+	 */
+	List<Product> findPage(long afterId, int limit);
+
+	/**
+	 * <pre>
+	 * Passes all products in ascending id order to the given
+	 * action, without keeping them, so the memory use does not
+	 * depend on the number of products.
+	 * </pre>
+	 *
+	 * @param action the action to be performed for each product
+	 */
+	void forEachProduct(Consumer<Product> action);
+
+	/**
+	 * Removes the given quantity from the stock, but only if the stock is sufficient.
+	 *
+	 * @param id the id of the product
+	 * @param quantity the number of items to be removed
+	 * @param changed called with the changed product
+	 * @return the changed product
+	 * @throws ProductNotFoundException if the product is unknown
+	 * @throws ProductHasNotEnoughStockException if the stock is not sufficient
+	 * @throws OptimisticLockingFailureException if a concurrent change won, the change may be retried
+	 */
+	Product decrementStock(long id, long quantity, Consumer<Product> changed);
+
+	/**
+	 * Adds the given quantity to the stock.
+	 *
+	 * @param id the id of the product
+	 * @param quantity the number of items to be added
+	 * @param changed called with the changed product
+	 * @return the changed product
+	 * @throws ProductNotFoundException if the product is unknown
+	 * @throws OptimisticLockingFailureException if a concurrent change won, the change may be retried
+	 */
+	Product incrementStock(long id, long quantity, Consumer<Product> changed);
+
+	/**
+	 * Removes the given quantities from the stock of the products, either of all of them or of none.
+	 *
+	 * @param quantities the number of items to be removed per product id
+	 * @param changed called with every changed product
+	 * @return the changed products sorted by id
+	 * @throws ProductNotFoundException if a product is unknown
+	 * @throws ProductHasNotEnoughStockException if the stock of a product is not sufficient
+	 */
+	List<Product> decrementStocks(SortedMap<Long, Long> quantities, Consumer<Product> changed);
+
+	/**
+	 * Adds the given quantities to the stock of the products, the unknown products are skipped.
+	 *
+	 * @param quantities the number of items to be added per product id
+	 * @param changed called with every changed product
+	 * @return the changed products sorted by id
+	 */
+	List<Product> incrementStocks(SortedMap<Long, Long> quantities, Consumer<Product> changed);
+
+	/**
+	 * Inserts the unknown products and overwrites the known ones, all at once.
+	 *
+	 * @param products the products with their ids
+	 * @param saved called with the given products once they are written and with
+	 *        the stock the known ones had before, by id
+	 */
+	void saveAll(List<Product> products, BiConsumer<List<Product>, Map<Long, Long>> saved);
+
+	/**
+	 * Removes the given product, if it is known.
+	 *
+	 * @param id the id of the product
+	 */
+	void delete(long id);
+}
@@ -0,0 +1,30 @@
+package de.malmansari.playground.onlineshop.storage;
+
+/**
+ * <pre>
+ * How the {@link JpaProductStore} updates the stock of a single product,
+ * set by the property onlineshop.stock-updates.mode.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public enum StockUpdateMode {
+	/**
+	 * One conditional UPDATE statement checks and changes the stock.
+	 */
+	ATOMIC,
+
+	/**
+	 * The product is read without a lock and written with a check of its
+	 * version. A concurrent change fails the transaction, which is retried
+	 * with a growing, randomized backoff.
+	 */
+	OPTIMISTIC,
+
+	/**
+	 * The product row is locked with SELECT ... FOR UPDATE before its stock
+	 * is checked and changed, concurrent updates wait for the lock.
+	 */
+	PESSIMISTIC
+}
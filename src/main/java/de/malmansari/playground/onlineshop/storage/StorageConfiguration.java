@@ -0,0 +1,83 @@
+package de.malmansari.playground.onlineshop.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+
+/**
+ * <pre>
+ * Creates the {@link ProductStore} of the backend set by
+ * onlineshop.storage.backend, jpa by default.
+ *
+ * The mapped backend keeps the products in the file
+ * onlineshop.storage.mapped.file, or in a temporary file if it
+ * is empty, which is deleted when the store is closed. The
+ * database is started in either case, and a new file is filled
+ * with its products, i.e. of data.sql; an existing one is used
+ * as is.
+ * The stock ledger and the order combining work on the
+ * database, they cannot be enabled with the mapped backend.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Configuration
+public class StorageConfiguration {
+	private static final Logger LOG = LoggerFactory.getLogger(StorageConfiguration.class);
+
+	private static final String BACKEND = "onlineshop.storage.backend";
+
+	private static final int SEED_CHUNK_SIZE = 1000;
+
+	@Bean
+	@ConditionalOnProperty(name = BACKEND, havingValue = "jpa", matchIfMissing = true)
+	public ProductStore jpaProductStore(ProductRepository productRepository,
+			PlatformTransactionManager transactionManager,
+			@Value("${onlineshop.stock-updates.mode:atomic}") StockUpdateMode stockUpdateMode) {
+		return new JpaProductStore(productRepository, transactionManager, stockUpdateMode);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = BACKEND, havingValue = "mapped")
+	public ProductStore mappedProductStore(ProductRepository productRepository,
+			@Value("${onlineshop.storage.mapped.file:}") String file,
+			@Value("${onlineshop.stock-ledger.enabled:false}") boolean stockLedgerEnabled,
+			@Value("${onlineshop.order-combining.enabled:false}") boolean orderCombiningEnabled) throws IOException {
+		if (stockLedgerEnabled || orderCombiningEnabled) {
+			throw new IllegalStateException(
+					"The stock ledger and the order combining need the jpa storage backend");
+		}
+
+		Path path = file.isEmpty() ? null : Paths.get(file);
+		MappedProductStore store = path == null ? MappedProductStore.temporary() : MappedProductStore.open(path);
+		if (store.size() == 0) {
+			List<Product> chunk = new ArrayList<>(SEED_CHUNK_SIZE);
+			productRepository.forEachProduct(product -> {
+				chunk.add(product);
+				if (chunk.size() == SEED_CHUNK_SIZE) {
+					store.saveAll(chunk, (saved, replaced) -> { });
+					chunk.clear();
+				}
+			});
+			store.saveAll(chunk, (saved, replaced) -> { });
+			LOG.info("Copied {} products of the database to {}", store.size(), path == null ? "a temporary file" : path);
+		} else {
+			LOG.info("Opened {} products of {}", store.size(), path);
+		}
+		return store;
+	}
+}
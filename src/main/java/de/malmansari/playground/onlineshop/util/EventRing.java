@@ -0,0 +1,122 @@
+package de.malmansari.playground.onlineshop.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * <pre>
+ * A bounded ring of events with sequence numbers, in the
+ * manner of the LMAX disruptor: any number of producers claim
+ * the next sequence with one atomic increment and write the
+ * event into its slot, any number of readers follow the ring
+ * with cursors of their own.
+ *
+ * The producers never wait for the readers: a full ring
+ * overwrites its oldest events, so a reader falling behind
+ * by more than the capacity is told it was overrun instead
+ * of slowing down the producers. Publishing is lock-free and
+ * O(1), nothing is copied per reader.
+ *
+ * The slots are published out of order by concurrent
+ * producers, a reader stops at the first slot not written
+ * yet and continues there on its next poll.
+ * </pre>
+ *
+ * @param <T> the type of the events
+ * @author malmansari
+ *
+ */
+public final class EventRing<T> {
+	/**
+	 * Returned by {@link #poll} if the events to be read were overwritten.
+	 */
+	public static final long OVERRUN = -1;
+
+	private final AtomicReferenceArray<Slot<T>> slots;
+
+	private final int mask;
+
+	private final AtomicLong claimed = new AtomicLong();
+
+	/**
+	 * @param capacity the number of events kept, rounded up to a power of two
+	 */
+	public EventRing(final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	public int capacity() {
+		return slots.length();
+	}
+
+	/**
+	 * Appends the given event, may be called by any thread.
+	 *
+	 * @param event the event
+	 * @return the sequence of the event
+	 */
+	public long publish(final T event) {
+		long sequence = claimed.getAndIncrement();
+		slots.set((int) sequence & mask, new Slot<>(sequence, event));
+		return sequence;
+	}
+
+	/**
+	 * @return the sequence the next published event gets
+	 */
+	public long head() {
+		return claimed.get();
+	}
+
+	/**
+	 * <pre>
+	 * Passes the events from the given sequence on to the given
+	 * consumer in sequence order, up to the first one not yet
+	 * written. If the events turn out to be overwritten, the
+	 * ones passed on so far have to be discarded.
+	 * </pre>
+	 *
+	 * @param from the sequence of the first event to be read
+	 * @param consumer receives the events
+	 * @return the sequence to be read next, or {@link #OVERRUN}
+	 */
+	public long poll(final long from, final Consumer<? super T> consumer) {
+		long head = claimed.get();
+		if (head - from > slots.length()) {
+			return OVERRUN;
+		}
+
+		long sequence = from;
+		for (; sequence < head; sequence++) {
+			Slot<T> slot = slots.get((int) sequence & mask);
+			if (slot == null || slot.sequence < sequence) {
+				break;
+			}
+			if (slot.sequence > sequence) {
+				return OVERRUN;
+			}
+			consumer.accept(slot.event);
+		}
+		return sequence;
+	}
+
+	private static final class Slot<T> {
+		private final long sequence;
+
+		private final T event;
+
+		Slot(final long sequence, final T event) {
+			this.sequence = sequence;
+			this.event = event;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package de.malmansari.playground.onlineshop.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * A primitive open addressing index from a long key (e.g. a
+ * {@link de.malmansari.playground.onlineshop.model.Product} id)
+ * to a dense int slot.
+ *
+ * Lookups are lock-free and never allocate, inserts are
+ * serialized by the index itself. A slot is published only
+ * after its key, so a reader that finds a slot always sees
+ * the matching key.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public final class LongIndex {
+	public static final int NO_SLOT = -1;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private volatile Table table;
+
+	private int size;
+
+	public LongIndex() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongIndex(final int expectedSize) {
+		this.table = new Table(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Returns the slot of the given key.
+	 *
+	 * @param key the key to look up
+	 * @return the slot, or {@link #NO_SLOT} if the key is unknown
+	 */
+	public int get(final long key) {
+		return table.get(key);
+	}
+
+	/**
+	 * Maps the given key to the given slot, unless it is already mapped.
+	 *
+	 * @param key the key to insert
+	 * @param slot the slot, must not be negative
+	 * @return the slot the key is mapped to after this call
+	 */
+	public synchronized int putIfAbsent(final long key, final int slot) {
+		int existing = table.get(key);
+		if (existing != NO_SLOT) {
+			return existing;
+		}
+		if ((size + 1) * 2 > table.capacity()) {
+			table = table.resize(table.capacity() * 2);
+		}
+		table.insert(key, slot);
+		size++;
+		return slot;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	private static int capacityFor(final int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int hash(final long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static final class Table {
+		private final AtomicLongArray keys;
+
+		/**
+		 * Holds slot + 1, so that zero marks an empty bucket.
+		 */
+		private final AtomicIntegerArray slots;
+
+		private final int mask;
+
+		Table(final int capacity) {
+			this.keys = new AtomicLongArray(capacity);
+			this.slots = new AtomicIntegerArray(capacity);
+			this.mask = capacity - 1;
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+
+		int get(final long key) {
+			int i = hash(key) & mask;
+			while (true) {
+				int slot = slots.get(i);
+				if (slot == 0) {
+					return NO_SLOT;
+				}
+				if (keys.get(i) == key) {
+					return slot - 1;
+				}
+				i = (i + 1) & mask;
+			}
+		}
+
+		void insert(final long key, final int slot) {
+			int i = hash(key) & mask;
+			while (slots.get(i) != 0) {
+				i = (i + 1) & mask;
+			}
+			keys.set(i, key);
+			slots.set(i, slot + 1);
+		}
+
+		Table resize(final int capacity) {
+			Table resized = new Table(capacity);
+			for (int i = 0; i <= mask; i++) {
+				int slot = slots.get(i);
+				if (slot != 0) {
+					resized.insert(keys.get(i), slot - 1);
+				}
+			}
+			return resized;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package de.malmansari.playground.onlineshop.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * <pre>
+ * A hashed timer wheel: items are put into the bucket of their
+ * deadline tick modulo the number of buckets. Items due in a
+ * later round of the wheel stay in their bucket until then.
+ *
+ * Scheduling is O(1) and lock-free, the items are handed over
+ * to the wheel on the next {@link #advance}. Advancing by one 
+ * tick only visits the items of one bucket, so expiring costs 
+ * O(1) per item. Deadlines are rounded up to whole ticks, an 
+ * item never expires early, but up to a tick late.
+ *
+ * Items cannot be cancelled, the expiry callback has to ignore
+ * items which are not pending anymore.
+ * </pre>
+ *
+ * @param <T> the type of the scheduled items
+ * @author malmansari
+ *
+ */
+public final class TimerWheel<T> {
+	private final long tickMillis;
+
+	private final long startMillis;
+
+	private final Node<T>[] buckets;
+
+	private final int mask;
+
+	private final Queue<Node<T>> scheduled = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The next tick to be expired, only accessed by the advancing thread.
+	 */
+	private long tick;
+
+	/**
+	 * Creates a wheel starting at the given time.
+	 *
+	 * @param tickMillis the duration of one tick, the resolution of the deadlines
+	 * @param wheelSize the number of buckets, rounded up to a power of two
+	 * @param startMillis the current time
+	 */
+	@SuppressWarnings("unchecked")
+	public TimerWheel(final long tickMillis, final int wheelSize, final long startMillis) {
+		if (tickMillis <= 0 || wheelSize <= 0) {
+			throw new IllegalArgumentException("Tick and wheel size must be positive");
+		}
+		this.tickMillis = tickMillis;
+		this.startMillis = startMillis;
+		int size = 1;
+		while (size < wheelSize) {
+			size <<= 1;
+		}
+		this.buckets = new Node[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Schedules the given item, may be called by any thread.
+	 *
+	 * @param item the item to expire
+	 * @param deadlineMillis the time at which the item expires
+	 */
+	public void schedule(final T item, final long deadlineMillis) {
+		long ticks = (deadlineMillis - startMillis + tickMillis - 1) / tickMillis;
+		scheduled.add(new Node<>(item, ticks));
+	}
+
+	/**
+	 * Expires all items due at the given time. Must only be 
+	 * called by one thread at a time.
+	 *
+	 * @param nowMillis the current time
+	 * @param expired the callback of each expired item
+	 */
+	public void advance(final long nowMillis, final Consumer<T> expired) {
+		long now = (nowMillis - startMillis) / tickMillis;
+		for (Node<T> node = scheduled.poll(); node != null; node = scheduled.poll()) {
+			long due = Math.max(node.deadlineTick, tick);
+			int bucket = (int) (due & mask);
+			node.next = buckets[bucket];
+			buckets[bucket] = node;
+		}
+
+		for (; tick <= now; tick++) {
+			int bucket = (int) (tick & mask);
+			Node<T> remaining = null;
+			for (Node<T> node = buckets[bucket]; node != null;) {
+				Node<T> next = node.next;
+				if (node.deadlineTick <= tick) {
+					expired.accept(node.item);
+				} else {
+					node.next = remaining;
+					remaining = node;
+				}
+				node = next;
+			}
+			buckets[bucket] = remaining;
+		}
+	}
+
+	private static final class Node<T> {
+		private final T item;
+
+		private final long deadlineTick;
+
+		private Node<T> next;
+
+		Node(final T item, final long deadlineTick) {
+			this.item = item;
+			this.deadlineTick = deadlineTick;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package de.malmansari.playground.onlineshop.warmup;
+
+/**
+ * <pre>
+ * Tells whether the {@link WarmupRunner} is running.
+ *
+ * The warmup runs before the web server accepts requests, so
+ * every service call meanwhile belongs to it. Its calls are
+ * not measured and its stock changes are not published, so
+ * the scratch product shows up neither in the metrics nor in
+ * the stock change stream, the registries and the indexes.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+public final class Warmup {
+	private static volatile boolean running;
+
+	private Warmup() {
+	}
+
+	/**
+	 * @return whether the warmup is running
+	 */
+	public static boolean isRunning() {
+		return running;
+	}
+
+	static void run(final Runnable calls) {
+		running = true;
+		try {
+			calls.run();
+		} finally {
+			running = false;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package de.malmansari.playground.onlineshop.warmup;
+
+import java.util.Collections;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.sharding.ShardForwardingInterceptor;
+import de.malmansari.playground.onlineshop.storage.ProductStore;
+
+/**
+ * <pre>
+ * Warms up the hot paths before the web server accepts
+ * requests, so the first requests do not pay for the JIT
+ * compilation, the opening of the pooled connections and the
+ * first use of the persistence layer. It is started in the
+ * phase right before the one of the web server.
+ *
+ * A scratch product is created, then ordered, refilled and
+ * listed with all other products onlineshop.warmup.iterations 
+ * times through the {@link ProductService} as configured. The
+ * scratch product is deleted afterwards, the product caches 
+ * and indexes are built only once the application is ready.
+ * The warmup calls are neither measured nor announced, see
+ * {@link Warmup}.
+ *
+ * With sharding, the scratch product is the highest id up to
+ * onlineshop.warmup.scratch-product-id which this node owns, 
+ * so every node warms up locally instead of forwarding the
+ * calls to a node which does not serve yet.
+ *
+ * The warmup is only active if the property 
+ * onlineshop.warmup.enabled is set to true, it is enabled by
+ * the production profile. A failing warmup is logged, it does
+ * not stop the application.
+ * </pre>
+ *
+ * @author malmansari
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "onlineshop.warmup.enabled", havingValue = "true")
+public class WarmupRunner implements SmartLifecycle {
+	private static final Logger LOG = LoggerFactory.getLogger(WarmupRunner.class);
+
+	/**
+	 * Right before the web server, which is started in the phase Integer.MAX_VALUE - 1.
+	 */
+	private static final int PHASE = Integer.MAX_VALUE - 2;
+
+	private final ProductService productService;
+
+	private final ProductStore productStore;
+
+	private final ObjectProvider<ShardForwardingInterceptor> shardForwardingInterceptor;
+
+	private final int iterations;
+
+	private final long scratchProductId;
+
+	private volatile boolean running;
+
+	public WarmupRunner(ProductService productService, ProductStore productStore,
+			ObjectProvider<ShardForwardingInterceptor> shardForwardingInterceptor,
+			@Value("${onlineshop.warmup.iterations:1000}") int iterations,
+			@Value("${onlineshop.warmup.scratch-product-id:9223372036854775807}") long scratchProductId) {
+		this.productService = productService;
+		this.productStore = productStore;
+		this.shardForwardingInterceptor = shardForwardingInterceptor;
+		this.iterations = iterations;
+		this.scratchProductId = scratchProductId;
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		Warmup.run(this::warmUp);
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public int getPhase() {
+		return PHASE;
+	}
+
+	private void warmUp() {
+		long productId = ownScratchProductId();
+		if (productStore.findById(productId).isPresent()) {
+			LOG.warn("Skipping the warmup, the scratch product {} is a real product", productId);
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		// saved with its id, without announcing it as an import
+		productStore.saveAll(Collections.singletonList(new Product(productId, "Warmup", 0)), (saved, replaced) -> { });
+		try {
+			for (int i = 0; i < iterations; i++) {
+				productService.addToStock(productId, 1);
+				productService.order(productId, 1);
+				productService.getAllProducts();
+			}
+			LOG.info("Warmed up with {} iterations in {} ms", iterations, System.currentTimeMillis() - start);
+		} catch (RuntimeException e) {
+			LOG.warn("The warmup failed, the first requests may be slow", e);
+		} finally {
+			productStore.delete(productId);
+		}
+	}
+
+	/**
+	 * @return the highest id up to the scratch product id which belongs to this node
+	 */
+	private long ownScratchProductId() {
+		ShardForwardingInterceptor sharding = shardForwardingInterceptor.getIfAvailable();
+		long productId = scratchProductId;
+		while (sharding != null && !sharding.owns(productId)) {
+			productId--;
+		}
+		return productId;
+	}
+}
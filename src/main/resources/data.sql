@@ -1,6 +1,6 @@
 -- initial data will be added the H2 database when spring boot application is loaded
-INSERT INTO product VALUES(1,'Men Jeans', 100);
-INSERT INTO product VALUES(2,'Men Jacket', 100);
-INSERT INTO product VALUES(3,'Women Shoe', 100);
-INSERT INTO product VALUES(4,'Women Shirt', 100);
-INSERT INTO product VALUES(5,'Children Short', 100);
\ No newline at end of file
+INSERT INTO product (id, name, stock) VALUES(1,'Men Jeans', 100);
+INSERT INTO product (id, name, stock) VALUES(2,'Men Jacket', 100);
+INSERT INTO product (id, name, stock) VALUES(3,'Women Shoe', 100);
+INSERT INTO product (id, name, stock) VALUES(4,'Women Shirt', 100);
+INSERT INTO product (id, name, stock) VALUES(5,'Children Short', 100);
\ No newline at end of file
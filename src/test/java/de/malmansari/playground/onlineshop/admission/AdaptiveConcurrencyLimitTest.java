@@ -0,0 +1,128 @@
+package de.malmansari.playground.onlineshop.admission;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimitTest {
+	private static final long MILLIS = 1_000_000;
+
+	@Test
+	void tryAcquire_limitIsReached_noPermit() {
+		// assume
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10, 2.0, 0.5);
+
+		// act
+		long first = limit.tryAcquire();
+		long second = limit.tryAcquire();
+		long third = limit.tryAcquire();
+
+		// assert
+		assertNotEquals(AdaptiveConcurrencyLimit.NO_PERMIT, first);
+		assertNotEquals(AdaptiveConcurrencyLimit.NO_PERMIT, second);
+		assertEquals(AdaptiveConcurrencyLimit.NO_PERMIT, third);
+		limit.release(first);
+		assertNotEquals(AdaptiveConcurrencyLimit.NO_PERMIT, limit.tryAcquire());
+	}
+
+	@Test
+	void release_callsAreSlow_limitIsDecreasedOncePerRound() {
+		// assume
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(8, 1, 10, 2.0, 0.5);
+		long now = System.nanoTime();
+		limit.release(limit.tryAcquire(now), now + MILLIS);
+
+		// act
+		long[] starts = new long[4];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = limit.tryAcquire(now + 2 * MILLIS);
+		}
+		for (long start : starts) {
+			limit.release(start, start + 10 * MILLIS);
+		}
+
+		// assert
+		assertEquals(4, limit.getLimit());
+		long start = limit.tryAcquire(now + 20 * MILLIS);
+		limit.release(start, start + 10 * MILLIS);
+		assertEquals(2, limit.getLimit());
+	}
+
+	@Test
+	void release_callsAreFastAndLimitIsUsed_limitGrowsUpToMax() {
+		// assume
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 4, 2.0, 0.5);
+		long now = System.nanoTime();
+
+		// act
+		for (int i = 0; i < 100; i++) {
+			long first = limit.tryAcquire(now);
+			long second = limit.tryAcquire(now);
+			limit.release(first, now + MILLIS);
+			limit.release(second, now + MILLIS);
+		}
+
+		// assert
+		assertEquals(4, limit.getLimit());
+		assertEquals(0, limit.getInFlight());
+	}
+
+	@Test
+	void release_callsAreSlowForGood_limitStaysAboveMin() {
+		// assume
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 3, 10, 2.0, 0.5);
+		long now = System.nanoTime();
+		limit.release(limit.tryAcquire(now), now + MILLIS);
+
+		// act
+		for (int i = 1; i <= 20; i++) {
+			long start = limit.tryAcquire(now + i * 100 * MILLIS);
+			limit.release(start, start + 50 * MILLIS);
+		}
+
+		// assert
+		assertEquals(3, limit.getLimit());
+	}
+
+	@Test
+	void release_concurrentCalls_permitsAreAllGivenBack() throws Exception {
+		// assume
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 2, 16, 2.0, 0.5);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Callable<Integer>> calls = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			calls.add(() -> {
+				int admitted = 0;
+				for (int j = 0; j < 10_000; j++) {
+					long start = limit.tryAcquire();
+					if (start != AdaptiveConcurrencyLimit.NO_PERMIT) {
+						admitted++;
+						limit.release(start);
+					}
+				}
+				return admitted;
+			});
+		}
+
+		// act
+		int admitted = 0;
+		for (Future<Integer> result : executor.invokeAll(calls)) {
+			admitted += result.get();
+		}
+		executor.shutdown();
+
+		// assert
+		assertTrue(admitted > 0);
+		assertEquals(0, limit.getInFlight());
+		assertTrue(limit.getLimit() >= 2 && limit.getLimit() <= 16);
+	}
+}
@@ -0,0 +1,50 @@
+package de.malmansari.playground.onlineshop.admission;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.exception.ServiceOverloadedException;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest(properties = { "onlineshop.admission.enabled=true", "onlineshop.admission.write.initial-limit=2",
+		"onlineshop.admission.write.max-limit=2", "onlineshop.admission.min-limit=2" })
+class AdmissionControlTest {
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private AdmissionControlInterceptor admissionControlInterceptor;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void order_writeLimitIsReached_isShedWhileReadsAreAdmitted() {
+		// assume
+		AdaptiveConcurrencyLimit writeLimit = admissionControlInterceptor.getWriteLimit();
+		long first = writeLimit.tryAcquire();
+		long second = writeLimit.tryAcquire();
+
+		// act & assert
+		assertThrows(ServiceOverloadedException.class, () -> productService.order(1, 1));
+		assertThrows(ServiceOverloadedException.class, () -> productService.addToStock(1, 1));
+		assertEquals(5, productService.getProductPage(0, 10).getProducts().size());
+		assertEquals(2, meterRegistry.get("onlineshop.admission.in-flight").tag("traffic", "write").gauge().value());
+		assertEquals(2, meterRegistry.get("onlineshop.service.rejections").tag("reason", "overloaded").counter().count());
+
+		writeLimit.release(first);
+		writeLimit.release(second);
+		assertEquals(99, productService.order(1, 1).getStock());
+		assertEquals(2, meterRegistry.get("onlineshop.admission.limit").tag("traffic", "write").gauge().value());
+	}
+}
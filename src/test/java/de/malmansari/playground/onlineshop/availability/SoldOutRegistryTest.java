@@ -0,0 +1,97 @@
+package de.malmansari.playground.onlineshop.availability;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+import de.malmansari.playground.onlineshop.service.ProductsImportedEvent;
+
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest
+class SoldOutRegistryTest {
+
+	@Autowired
+	private SoldOutRegistry soldOutRegistry;
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void order_productSellsOut_isRejectedUntilRefilled() {
+		// assume
+		productService.order(1, 100);
+
+		// act
+		assertThrows(ProductHasNotEnoughStockException.class, () -> soldOutRegistry.checkOrderable(1));
+		productService.addToStock(1, 1);
+
+		// assert
+		assertFalse(soldOutRegistry.isSoldOut(1));
+		soldOutRegistry.checkOrderable(1);
+	}
+
+	@Test
+	void onStockChanged_olderChangeArrivesLate_isIgnored() {
+		// assume
+		ProductStockChangedEvent soldOut = new ProductStockChangedEvent(new Product(2, "Men Jacket", 0));
+		ProductStockChangedEvent refilled = new ProductStockChangedEvent(new Product(2, "Men Jacket", 5));
+
+		// act
+		soldOutRegistry.onStockChanged(refilled);
+		soldOutRegistry.onStockChanged(soldOut);
+
+		// assert
+		assertFalse(soldOutRegistry.isSoldOut(2));
+	}
+
+	@Test
+	void rebuild_productSoldOutInTheDatabase_isFlaggedUnlessChangedSince() {
+		// assume
+		jdbcTemplate.update("UPDATE product SET stock = 0 WHERE id IN (3, 4)");
+		soldOutRegistry.onStockChanged(new ProductStockChangedEvent(new Product(4, "Women Shirt", 7)));
+
+		// act
+		soldOutRegistry.rebuild();
+
+		// assert
+		assertTrue(soldOutRegistry.isSoldOut(3));
+		assertFalse(soldOutRegistry.isSoldOut(4));
+	}
+
+	@Test
+	void markUnknown_untilTheNextImport_isRejected() {
+		// assume
+		long imports = soldOutRegistry.getImports();
+		assertThrows(ProductNotFoundException.class, () -> productService.order(999, 1));
+		soldOutRegistry.markUnknown(999, imports);
+
+		// act
+		assertThrows(ProductNotFoundException.class, () -> soldOutRegistry.checkOrderable(999));
+		soldOutRegistry.onProductsImported(new ProductsImportedEvent(Arrays.asList(new Product(999, "New", 0)),
+				Collections.emptyMap()));
+		soldOutRegistry.markUnknown(999, imports);
+
+		// assert
+		assertFalse(soldOutRegistry.isUnknown(999));
+		assertTrue(soldOutRegistry.isSoldOut(999));
+	}
+}
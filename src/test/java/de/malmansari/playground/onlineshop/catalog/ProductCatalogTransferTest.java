@@ -0,0 +1,125 @@
+package de.malmansari.playground.onlineshop.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.cache.ProductCatalogCache;
+import de.malmansari.playground.onlineshop.exception.InvalidCatalogException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.model.TransferReport;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.search.ProductSearchIndex;
+
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest(properties = "onlineshop.catalog.import-chunk-size=2")
+class ProductCatalogTransferTest {
+
+	@Autowired
+	private ProductImporter productImporter;
+
+	@Autowired
+	private ProductExporter productExporter;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ProductCatalogCache productCatalogCache;
+
+	@Autowired
+	private ProductSearchIndex productSearchIndex;
+
+	@Test
+	void importProducts_csvWithHeader_productsAreAddedAndOverwritten() {
+		// assume
+		productCatalogCache.get();
+		String csv = "id,name,stock\n"
+				+ "1,Men Jeans,7\n"
+				+ "6,\"Socks, 3 \"\"pairs\"\"\",30\n"
+				+ "\n"
+				+ "7,Children Jeans,0\n";
+
+		// act
+		TransferReport report = productImporter.importProducts(stream(csv), CatalogFormat.CSV);
+
+		// assert
+		assertEquals(3, report.getProducts());
+		assertEquals(7, productRepository.findById(1L).get().getStock());
+		assertEquals("Socks, 3 \"pairs\"", productRepository.findById(6L).get().getName());
+		assertEquals(7, productRepository.count());
+		assertTrue(new String(productCatalogCache.get().getJson(), StandardCharsets.UTF_8).contains("Children Jeans"));
+		assertEquals(2, productSearchIndex.search("jeans", true, false, 20).size());
+		assertEquals(1, productSearchIndex.search("jeans", true, true, 20).size());
+	}
+
+	@Test
+	void importProducts_ndjson_productsAreAdded() {
+		// assume
+		String ndjson = "{\"id\":6,\"name\":\"Men Socks\",\"stock\":30}\n"
+				+ "{\"id\":7,\"name\":\"Men Hat\",\"stock\":40}\n"
+				+ "{\"id\":8,\"name\":\"Men Belt\",\"stock\":50}\n";
+
+		// act
+		TransferReport report = productImporter.importProducts(stream(ndjson), CatalogFormat.NDJSON);
+
+		// assert
+		assertEquals(3, report.getProducts());
+		assertEquals(50, productRepository.findById(8L).get().getStock());
+	}
+
+	@Test
+	void importProducts_lineIsInvalid_previousChunksStayImported() {
+		// assume
+		String csv = "6,Men Socks,30\n"
+				+ "7,Men Hat,40\n"
+				+ "8,Men Belt,-1\n";
+
+		// act
+		InvalidCatalogException thrown = assertThrows(InvalidCatalogException.class,
+				() -> productImporter.importProducts(stream(csv), CatalogFormat.CSV));
+
+		// assert
+		assertTrue(thrown.getMessage().startsWith("Line 3:"));
+		assertTrue(productRepository.existsById(7L));
+		assertFalse(productRepository.existsById(8L));
+	}
+
+	@Test
+	void exportProducts_csv_canBeImportedAgain() throws IOException {
+		// assume
+		productImporter.importProducts(stream("6,\"Socks, 3 pairs\",30\n"), CatalogFormat.CSV);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		// act
+		TransferReport report = productExporter.exportProducts(output, CatalogFormat.CSV);
+		productRepository.deleteAll();
+		productImporter.importProducts(new ByteArrayInputStream(output.toByteArray()), CatalogFormat.CSV);
+
+		// assert
+		assertEquals(6, report.getProducts());
+		assertTrue(output.toString("UTF-8").startsWith("id,name,stock\n1,Men Jeans,100\n"));
+		Product socks = productRepository.findById(6L).get();
+		assertEquals("Socks, 3 pairs", socks.getName());
+		assertEquals(30, socks.getStock());
+		assertEquals(6, productRepository.count());
+	}
+
+	private static InputStream stream(final String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
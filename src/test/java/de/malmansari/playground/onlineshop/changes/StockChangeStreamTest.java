@@ -0,0 +1,199 @@
+package de.malmansari.playground.onlineshop.changes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.junit.jupiter.api.Test;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+
+/**
+ * The events are only dispatched by the tests, the interval never elapses.
+ */
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"onlineshop.stock-stream.interval-ms=3600000", "onlineshop.stock-stream.buffer-size=16" })
+class StockChangeStreamTest {
+
+	@LocalServerPort
+	private int randomPort;
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private StockChangeStream stockChangeStream;
+
+	@Test
+	void subscribe_rapidChanges_areCoalescedPerProduct() throws IOException, JSONException, InterruptedException {
+		// assume
+		try (EventReader events = subscribe(null)) {
+			productService.order(1, 1);
+			productService.order(1, 1);
+			productService.addToStock(2, 5);
+			productService.order(1, 1);
+
+			// act
+			Map<String, String> event = events.next();
+
+			// assert
+			assertEquals("stock", event.get("event"));
+			JSONAssert.assertEquals("[{\"id\":1,\"name\":\"Men Jeans\",\"stock\":97},"
+					+ "{\"id\":2,\"name\":\"Men Jacket\",\"stock\":105}]", event.get("data"), true);
+		}
+	}
+
+	@Test
+	void subscribe_ringOvertakesTheSubscriber_isReset() throws IOException, JSONException, InterruptedException {
+		// assume
+		try (EventReader events = subscribe(null)) {
+			for (int i = 0; i < 17; i++) {
+				productService.addToStock(3, 1);
+			}
+
+			// act
+			Map<String, String> reset = events.next();
+			productService.order(3, 7);
+			Map<String, String> event = events.next();
+
+			// assert
+			assertEquals("reset", reset.get("event"));
+			assertEquals("stock", event.get("event"));
+			JSONAssert.assertEquals("[{\"id\":3,\"stock\":110}]", event.get("data"), false);
+		}
+	}
+
+	@Test
+	void subscribe_withLastEventId_resumesAfterIt() throws IOException, JSONException, InterruptedException {
+		// assume
+		String lastEventId;
+		try (EventReader events = subscribe(null)) {
+			productService.order(4, 1);
+			lastEventId = events.next().get("id");
+		}
+		productService.order(4, 1);
+
+		// act
+		try (EventReader resumed = subscribe(lastEventId); EventReader unknown = subscribe("previous-start-7")) {
+			Map<String, String> event = resumed.next();
+
+			// assert
+			assertEquals("stock", event.get("event"));
+			JSONAssert.assertEquals("[{\"id\":4,\"stock\":98}]", event.get("data"), false);
+			assertEquals("reset", unknown.next().get("event"));
+		}
+	}
+
+	@Test
+	void onStockChanged_olderChangeArrivesLate_isDropped() throws IOException, JSONException, InterruptedException {
+		// assume
+		ProductStockChangedEvent older = new ProductStockChangedEvent(new Product(5, "Children Short", 1));
+		ProductStockChangedEvent newer = new ProductStockChangedEvent(new Product(5, "Children Short", 2));
+		try (EventReader events = subscribe(null)) {
+			stockChangeStream.onStockChanged(newer);
+			Map<String, String> first = events.next();
+
+			// act
+			stockChangeStream.onStockChanged(older);
+			productService.order(4, 1);
+			Map<String, String> second = events.next();
+
+			// assert
+			JSONAssert.assertEquals("[{\"id\":5,\"stock\":2}]", first.get("data"), false);
+			JSONAssert.assertEquals("[{\"id\":4,\"stock\":99}]", second.get("data"), false);
+		}
+	}
+
+	/**
+	 * Subscribes with HTTP/1.0, so the events are not chunked and closing the socket ends the subscription.
+	 */
+	private EventReader subscribe(final String lastEventId) throws IOException {
+		Socket socket = new Socket("localhost", randomPort);
+		String request = "GET /api/products/changes HTTP/1.0\r\n"
+				+ (lastEventId == null ? "" : "Last-Event-ID: " + lastEventId + "\r\n") + "\r\n";
+		socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		assertTrue(reader.readLine().contains(" 200"));
+		for (String header = reader.readLine(); !header.isEmpty(); header = reader.readLine()) {
+			// skipped
+		}
+		return new EventReader(socket, reader, stockChangeStream);
+	}
+
+	/**
+	 * Reads the server-sent events in the background, dispatching until the next one arrives.
+	 */
+	private static final class EventReader implements AutoCloseable {
+		private final Socket socket;
+
+		private final StockChangeStream stream;
+
+		private final BlockingQueue<Map<String, String>> events = new LinkedBlockingQueue<>();
+
+		EventReader(final Socket socket, final BufferedReader reader, final StockChangeStream stream) {
+			this.socket = socket;
+			this.stream = stream;
+			Thread thread = new Thread(() -> read(reader), "event-reader");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		Map<String, String> next() throws InterruptedException {
+			for (int attempt = 0; attempt < 100; attempt++) {
+				Map<String, String> event = events.poll(100, TimeUnit.MILLISECONDS);
+				if (event != null) {
+					return event;
+				}
+				stream.dispatch();
+			}
+			throw new AssertionError("No event within 10 seconds");
+		}
+
+		private void read(final BufferedReader reader) {
+			Map<String, String> event = new HashMap<>();
+			try {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					if (line.isEmpty()) {
+						if (!event.isEmpty()) {
+							events.add(event);
+							event = new HashMap<>();
+						}
+					} else if (!line.startsWith(":")) {
+						int colon = line.indexOf(':');
+						event.merge(line.substring(0, colon), line.substring(colon + 1), String::concat);
+					}
+				}
+			} catch (IOException e) {
+				// disconnected by the test
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package de.malmansari.playground.onlineshop.controller;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+
+/**
+ * Runs all API tests again with the handlers executed on the async handler pool.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "onlineshop.execution.mode=async")
+public class AsyncExecutionModeControllerTest extends OnlineShopControllerTest {
+}
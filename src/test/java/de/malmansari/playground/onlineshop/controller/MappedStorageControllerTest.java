@@ -0,0 +1,11 @@
+package de.malmansari.playground.onlineshop.controller;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+
+/**
+ * Runs all API tests again with the products in a memory-mapped file instead of the database.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "onlineshop.storage.backend=mapped")
+public class MappedStorageControllerTest extends OnlineShopControllerTest {
+}
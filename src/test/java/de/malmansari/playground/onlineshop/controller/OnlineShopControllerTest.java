@@ -1,14 +1,17 @@
 package de.malmansari.playground.onlineshop.controller;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.net.URI;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
@@ -16,12 +19,20 @@ import org.skyscreamer.jsonassert.JSONAssert;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
 @ActiveProfiles("test")
 @DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
@@ -50,6 +61,205 @@ public class OnlineShopControllerTest {
 		JSONAssert.assertEquals(result.getBody(), expectedProducts.toString(), true);
 	}
 
+	@Test
+	public void getProducts_requestWithCurrentETag_returnsNotModified() throws URISyntaxException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+		
+		final String baseUrl = HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/";
+		URI uri = new URI(baseUrl);
+		String etag = restTemplate.getForEntity(uri, String.class).getHeaders().getETag();
+		HttpHeaders headers = new HttpHeaders();
+		headers.setIfNoneMatch(etag);
+		
+		// act
+		ResponseEntity<String> result = restTemplate.exchange(uri, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+		
+		// assert
+		assertEquals(304, result.getStatusCodeValue());
+	}
+	
+	@Test
+	public void getProducts_afterOrder_returnsChangedStockWithNewETag() throws URISyntaxException, JSONException {
+		// assume
+		prepareProductList();
+		expectedProducts.get(0).put("stock", 95);
+		RestTemplate restTemplate = new RestTemplate();
+		
+		URI productsUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/");
+		URI orderUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/1/5/");
+		String etag = restTemplate.getForEntity(productsUri, String.class).getHeaders().getETag();
+		restTemplate.getForEntity(orderUri, String.class);
+		
+		// act
+		ResponseEntity<String> result = restTemplate.getForEntity(productsUri, String.class);
+		
+		// assert
+		assertEquals(200, result.getStatusCodeValue());
+		assertNotEquals(etag, result.getHeaders().getETag());
+		JSONAssert.assertEquals(result.getBody(), expectedProducts.toString(), true);
+	}
+
+	@Test
+	public void getProducts_cborIsAccepted_returnsCborList() throws URISyntaxException, JSONException, IOException {
+		// assume
+		prepareProductList();
+		RestTemplate restTemplate = new RestTemplate();
+
+		URI uri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/");
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.ACCEPT, "application/json;q=0.5, application/cbor");
+
+		// act
+		ResponseEntity<byte[]> result = restTemplate.exchange(uri, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+
+		// assert
+		assertEquals(200, result.getStatusCodeValue());
+		assertEquals(MediaType.APPLICATION_CBOR, result.getHeaders().getContentType());
+		String decoded = new ObjectMapper(new CBORFactory()).readTree(result.getBody()).toString();
+		JSONAssert.assertEquals(decoded, expectedProducts.toString(), true);
+		assertNotEquals(restTemplate.getForEntity(uri, String.class).getHeaders().getETag(), result.getHeaders().getETag());
+	}
+
+	@Test
+	public void order_smileIsAccepted_returnsSmileProduct() throws URISyntaxException, JSONException, IOException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+
+		URI uri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/1/5/");
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.ACCEPT, "application/x-jackson-smile");
+		JSONObject expectedResult = new JSONObject().put("id", 1).put("name", "Men Jeans").put("stock", 95);
+
+		// act
+		ResponseEntity<byte[]> result = restTemplate.exchange(uri, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+
+		// assert
+		assertEquals(200, result.getStatusCodeValue());
+		String decoded = new ObjectMapper(new SmileFactory()).readTree(result.getBody()).toString();
+		JSONAssert.assertEquals(decoded, expectedResult.toString(), true);
+	}
+
+	@Test
+	public void getProductPage_pagesAreFollowed_allProductsAreRetrieved() throws URISyntaxException, JSONException {
+		// assume
+		prepareProductList();
+		RestTemplate restTemplate = new RestTemplate();
+		
+		URI firstPageUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/page?limit=3");
+		URI secondPageUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/page?limit=3&after=3");
+		JSONObject expectedFirstPage = new JSONObject()
+				.put("products", new JSONArray(expectedProducts.subList(0, 3)))
+				.put("nextCursor", 3);
+		JSONObject expectedSecondPage = new JSONObject()
+				.put("products", new JSONArray(expectedProducts.subList(3, 5)))
+				.put("nextCursor", JSONObject.NULL);
+		
+		// act
+		ResponseEntity<String> firstPage = restTemplate.getForEntity(firstPageUri, String.class);
+		ResponseEntity<String> secondPage = restTemplate.getForEntity(secondPageUri, String.class);
+		
+		// assert
+		JSONAssert.assertEquals(firstPage.getBody(), expectedFirstPage.toString(), true);
+		JSONAssert.assertEquals(secondPage.getBody(), expectedSecondPage.toString(), true);
+	}
+	
+	@Test
+	public void getProductPage_requestWithTooLargeLimit_returnsConstraintsViolationError() throws URISyntaxException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+		
+		final String baseUrl = HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/page?limit=100000";
+		URI uri = new URI(baseUrl);
+		
+		// act
+		HttpClientErrorException.BadRequest thrown =
+				assertThrows(HttpClientErrorException.BadRequest.class,
+						() -> restTemplate.getForEntity(uri, String.class),
+						"Expected getProductPage to throw exception, but it didn't");
+		// assert
+		assertTrue(thrown.getMessage().contains("getProductPage.limit: must be less than or equal to 1000"));
+	}
+	
+	@Test
+	public void searchProducts_queryMatchesSeveralProducts_returnsThem() throws URISyntaxException, JSONException {
+		// assume
+		prepareProductList();
+		RestTemplate restTemplate = new RestTemplate();
+		
+		final String baseUrl = HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/search?q=women";
+		URI uri = new URI(baseUrl);
+		
+		// act
+		ResponseEntity<String> result = restTemplate.getForEntity(uri, String.class);
+		
+		// assert
+		assertEquals(200, result.getStatusCodeValue());
+		JSONAssert.assertEquals(result.getBody(), new JSONArray(expectedProducts.subList(2, 4)).toString(), true);
+	}
+	
+	@Test
+	public void getLowStockProducts_thresholdIsCrossed_returnsProduct() throws URISyntaxException, JSONException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.postForEntity(new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/threshold/products/2/50"), null,
+				String.class);
+		restTemplate.getForEntity(new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/2/60"), String.class);
+		
+		final String baseUrl = HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/low-stock";
+		URI uri = new URI(baseUrl);
+		
+		// act
+		ResponseEntity<String> result = restTemplate.getForEntity(uri, String.class);
+		
+		// assert
+		assertEquals(200, result.getStatusCodeValue());
+		JSONAssert.assertEquals("[{\"id\":2,\"name\":\"Men Jacket\",\"stock\":40,\"threshold\":50,\"low\":true}]",
+				result.getBody(), true);
+	}
+	
+	@Test
+	public void streamProducts_allProductsAreStreamedLineByLine() throws URISyntaxException, JSONException {
+		// assume
+		prepareProductList();
+		RestTemplate restTemplate = new RestTemplate();
+		
+		final String baseUrl = HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/stream";
+		URI uri = new URI(baseUrl);
+		
+		// act
+		ResponseEntity<String> result = restTemplate.getForEntity(uri, String.class);
+		
+		// assert
+		assertEquals(200, result.getStatusCodeValue());
+		String[] lines = result.getBody().split("\n");
+		assertEquals(expectedProducts.size(), lines.length);
+		for (int i = 0; i < lines.length; i++) {
+			JSONAssert.assertEquals(lines[i], expectedProducts.get(i).toString(), true);
+		}
+	}
+	
+	@Test
+	public void importProducts_csvIsPosted_productsCanBeExported() throws URISyntaxException, JSONException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+		
+		URI importUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/import");
+		URI exportUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/export?format=csv");
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.parseMediaType("text/csv"));
+		
+		// act
+		ResponseEntity<String> imported = restTemplate.postForEntity(importUri,
+				new HttpEntity<>("id,name,stock\n6,Men Socks,30\n", headers), String.class);
+		ResponseEntity<String> exported = restTemplate.getForEntity(exportUri, String.class);
+		
+		// assert
+		assertEquals(200, imported.getStatusCodeValue());
+		assertEquals(1, new JSONObject(imported.getBody()).getLong("products"));
+		assertTrue(exported.getBody().endsWith("5,Children Short,100\n6,Men Socks,30\n"));
+	}
+	
 	@Test
 	public void order_requestIsValid_returnsUpdatedProduct() throws URISyntaxException, JSONException {
 		// assume
@@ -68,6 +278,29 @@ public class OnlineShopControllerTest {
 		JSONAssert.assertEquals(result.getBody(), expectedResult.toString(), true);
 	}
 
+	@Test
+	public void release_reservationIsPending_returnsRestoredProduct() throws URISyntaxException, JSONException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+
+		URI reserveUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/reserve/products/1/5/");
+		long reservationId = new JSONObject(restTemplate.getForEntity(reserveUri, String.class).getBody()).getLong("id");
+		URI releaseUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/release/reservations/" + reservationId);
+		JSONObject expectedResult = new JSONObject().put("id", 1).put("name", "Men Jeans").put("stock", 100);
+
+		// act
+		ResponseEntity<String> result = restTemplate.getForEntity(releaseUri, String.class);
+
+		// assert
+		assertEquals(200, result.getStatusCodeValue());
+		JSONAssert.assertEquals(result.getBody(), expectedResult.toString(), true);
+		HttpClientErrorException.NotFound thrown =
+				assertThrows(HttpClientErrorException.NotFound.class,
+						() -> restTemplate.getForEntity(releaseUri, String.class),
+						"Expected release() to throw exception, but it didn't");
+		assertTrue(thrown.getMessage().contains("Reservation not found"));
+	}
+
 	@Test
 	public void order_requestWithInvalidProductId_returnsProductNotFoundError() throws URISyntaxException, JSONException {
 		// assume
@@ -102,6 +335,32 @@ public class OnlineShopControllerTest {
 		assertTrue(thrown.getMessage().contains("Product has not enough stock for your order"));
 	}
 	
+	@Test
+	public void order_requestIsRejected_returnsStructuredErrors() throws URISyntaxException, JSONException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+		
+		final String baseUrl = HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/";
+		
+		// act
+		HttpClientErrorException notEnoughStock = assertThrows(HttpClientErrorException.class,
+				() -> restTemplate.getForEntity(new URI(baseUrl + "2/500"), String.class));
+		HttpClientErrorException notFound = assertThrows(HttpClientErrorException.class,
+				() -> restTemplate.getForEntity(new URI(baseUrl + "17/5"), String.class));
+		HttpClientErrorException invalid = assertThrows(HttpClientErrorException.class,
+				() -> restTemplate.getForEntity(new URI(baseUrl + "2/-5"), String.class));
+		
+		// assert
+		assertEquals(MediaType.APPLICATION_JSON, notEnoughStock.getResponseHeaders().getContentType());
+		JSONAssert.assertEquals("{\"status\":400,\"error\":\"not-enough-stock\","
+				+ "\"message\":\"Product has not enough stock for your order\"}",
+				notEnoughStock.getResponseBodyAsString(), true);
+		JSONAssert.assertEquals("{\"status\":404,\"error\":\"product-not-found\",\"message\":\"Product not found\"}",
+				notFound.getResponseBodyAsString(), true);
+		JSONAssert.assertEquals("{\"status\":400,\"error\":\"invalid-request\"}", invalid.getResponseBodyAsString(),
+				false);
+	}
+	
 	@Test
 	public void order_requestWithNonStrictlyPositiveQuantity_returnsConstraintsViolationError() throws URISyntaxException, JSONException {
 		// assume
@@ -137,6 +396,112 @@ public class OnlineShopControllerTest {
 	}
 	
 	
+	@Test
+	public void orderOnce_requestIsRetried_isOrderedOnce() throws URISyntaxException, JSONException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+
+		URI orderUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/1/5");
+		URI productsUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/");
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("Idempotency-Key", "3f0c1f9e-order");
+		JSONObject expectedResult = new JSONObject().put("id", 1).put("name", "Men Jeans").put("stock", 95);
+
+		// act
+		ResponseEntity<String> first = restTemplate.postForEntity(orderUri, new HttpEntity<>(headers), String.class);
+		ResponseEntity<String> retried = restTemplate.postForEntity(orderUri, new HttpEntity<>(headers), String.class);
+
+		// assert
+		assertEquals(200, first.getStatusCodeValue());
+		JSONAssert.assertEquals(first.getBody(), expectedResult.toString(), true);
+		JSONAssert.assertEquals(retried.getBody(), expectedResult.toString(), true);
+		assertTrue(restTemplate.getForEntity(productsUri, String.class).getBody().contains("\"stock\":95"));
+		HttpClientErrorException.UnprocessableEntity thrown =
+				assertThrows(HttpClientErrorException.UnprocessableEntity.class,
+						() -> restTemplate.postForEntity(new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/1/6"),
+								new HttpEntity<>(headers), String.class),
+						"Expected orderOnce to throw exception, but it didn't");
+		assertTrue(thrown.getMessage().contains("Idempotency key was already used for another order"));
+	}
+	
+	@Test
+	public void orderBatch_requestIsValid_returnsUpdatedProducts() throws URISyntaxException, JSONException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+		
+		final String baseUrl = HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/";
+		URI uri = new URI(baseUrl);
+		JSONObject cart = new JSONObject().put("3", 30).put("1", 10);
+		JSONArray expectedResult = new JSONArray()
+				.put(new JSONObject().put("id", 1).put("name", "Men Jeans").put("stock", 90))
+				.put(new JSONObject().put("id", 3).put("name", "Women Shoe").put("stock", 70));
+		
+		// act
+		ResponseEntity<String> result = restTemplate.postForEntity(uri, jsonRequest(cart), String.class);
+		
+		// assert
+		assertEquals(200, result.getStatusCodeValue());
+		JSONAssert.assertEquals(result.getBody(), expectedResult.toString(), true);
+	}
+	
+	@Test
+	public void orderBatch_oneLineHasNotEnoughStock_nothingIsOrdered() throws URISyntaxException, JSONException {
+		// assume
+		prepareProductList();
+		RestTemplate restTemplate = new RestTemplate();
+		
+		URI orderUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/");
+		URI productsUri = new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/products/");
+		JSONObject cart = new JSONObject().put("1", 10).put("2", 500);
+		
+		// act
+		HttpClientErrorException.BadRequest thrown =
+				assertThrows(HttpClientErrorException.BadRequest.class,
+						() -> restTemplate.postForEntity(orderUri, jsonRequest(cart), String.class),
+						"Expected orderBatch to throw exception, but it didn't");
+		
+		// assert
+		assertTrue(thrown.getMessage().contains("Product has not enough stock for your order"));
+		JSONAssert.assertEquals(restTemplate.getForEntity(productsUri, String.class).getBody(),
+				expectedProducts.toString(), true);
+	}
+	
+	@Test
+	public void orderBatch_requestWithInvalidProductId_returnsProductNotFoundError() throws URISyntaxException, JSONException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+		
+		final String baseUrl = HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/";
+		URI uri = new URI(baseUrl);
+		JSONObject cart = new JSONObject().put("1", 10).put("17", 5);
+		
+		// act
+		HttpClientErrorException.NotFound thrown =
+				assertThrows(HttpClientErrorException.NotFound.class,
+						() -> restTemplate.postForEntity(uri, jsonRequest(cart), String.class),
+						"Expected orderBatch to throw exception, but it didn't");
+		// assert
+		assertTrue(thrown.getMessage().contains("Product not found"));
+	}
+	
+	@Test
+	public void orderBatch_requestWithNonStrictlyPositiveQuantity_returnsConstraintsViolationError() throws URISyntaxException, JSONException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+		
+		final String baseUrl = HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/";
+		URI uri = new URI(baseUrl);
+		JSONObject cart = new JSONObject().put("1", -10);
+		
+		// act
+		HttpClientErrorException.BadRequest thrown =
+				assertThrows(HttpClientErrorException.BadRequest.class,
+						() -> restTemplate.postForEntity(uri, jsonRequest(cart), String.class),
+						"Expected orderBatch to throw exception, but it didn't");
+		// assert
+		assertTrue(thrown.getMessage().contains("must be greater than 0"));
+	}
+	
 	@Test
 	public void addToStock_requestIsValid_returnsUpdatedProduct() throws URISyntaxException, JSONException {
 		// assume
@@ -206,6 +571,12 @@ public class OnlineShopControllerTest {
 		assertTrue(thrown.getMessage().contains("addToStock.id: must be greater than 0"));
 	}
 	
+	private HttpEntity<String> jsonRequest(final JSONObject body) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		return new HttpEntity<>(body.toString(), headers);
+	}
+	
 	private void prepareProductList() throws JSONException {
 
 		expectedProducts = new ArrayList<>();
@@ -0,0 +1,177 @@
+package de.malmansari.playground.onlineshop.lowstock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolationException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.LowStockProduct;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+import de.malmansari.playground.onlineshop.service.ProductsImportedEvent;
+
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest(properties = "onlineshop.low-stock.default-threshold=10")
+class LowStockIndexTest {
+
+	@Autowired
+	private LowStockIndex lowStockIndex;
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private Alerts alerts;
+
+	@Test
+	void order_belowThreshold_isAlertedOnceAndListed() {
+		// assume
+		lowStockIndex.setThreshold(1, 50);
+
+		// act
+		productService.order(1, 40);
+		productService.order(1, 20);
+		productService.order(1, 5);
+
+		// assert
+		assertEquals(Arrays.asList(new LowStockProduct(1, "Men Jeans", 35, 50)),
+				lowStockIndex.getLowStockProducts(10));
+		assertEquals(Arrays.asList(new LowStockProduct(1, "Men Jeans", 40, 50)), alerts.products);
+	}
+
+	@Test
+	void getLowStockProducts_severalProductsAreLow_largestShortfallFirst() {
+		// assume
+		productService.order(3, 95);
+		productService.order(4, 99);
+		lowStockIndex.setThreshold(5, 200);
+		productService.order(2, 91);
+
+		// act
+		List<LowStockProduct> products = lowStockIndex.getLowStockProducts(3);
+
+		// assert
+		assertEquals(Arrays.asList(5L, 4L, 3L),
+				products.stream().map(LowStockProduct::getId).collect(Collectors.toList()));
+		assertEquals(4, lowStockIndex.size());
+	}
+
+	@Test
+	void addToStock_upToThreshold_isNotLowAnymoreAndAlertedAgain() {
+		// assume
+		productService.order(2, 95);
+
+		// act
+		productService.addToStock(2, 5);
+		boolean low = !lowStockIndex.getLowStockProducts(10).isEmpty();
+		productService.order(2, 1);
+
+		// assert
+		assertFalse(low);
+		assertEquals(Arrays.asList(5L, 9L),
+				alerts.products.stream().map(LowStockProduct::getStock).collect(Collectors.toList()));
+	}
+
+	@Test
+	void setThreshold_stockIsAlreadyBelow_isAlertedRightAway() {
+		// act
+		LowStockProduct product = lowStockIndex.setThreshold(3, 101);
+		LowStockProduct cleared = lowStockIndex.setThreshold(4, 0);
+
+		// assert
+		assertTrue(product.isLow());
+		assertFalse(cleared.isLow());
+		assertEquals(Arrays.asList(product), alerts.products);
+		assertThrows(ProductNotFoundException.class, () -> lowStockIndex.setThreshold(42, 1));
+		assertThrows(ConstraintViolationException.class, () -> lowStockIndex.setThreshold(1, -1));
+	}
+
+	@Test
+	void getLowStockProducts_afterImport_isRebuilt() {
+		// assume
+		jdbcTemplate.update("INSERT INTO product (id, name, stock) VALUES (6, 'Kids Hat', 3)");
+		jdbcTemplate.update("UPDATE product SET stock = 7 WHERE id = 1");
+
+		// act
+		lowStockIndex.onProductsImported(new ProductsImportedEvent(Arrays.asList(), Collections.emptyMap()));
+		List<LowStockProduct> products = lowStockIndex.getLowStockProducts(10);
+
+		// assert
+		assertEquals(Arrays.asList(new LowStockProduct(6, "Kids Hat", 3, 10), new LowStockProduct(1, "Men Jeans", 7, 10)),
+				products);
+		assertEquals(Arrays.asList(products.get(1), products.get(0)), alerts.products);
+	}
+
+	@Test
+	void onStockChanged_olderChangeArrivesLate_isIgnored() {
+		// assume
+		ProductStockChangedEvent older = new ProductStockChangedEvent(new Product(1, "Men Jeans", 5));
+		ProductStockChangedEvent newer = new ProductStockChangedEvent(new Product(1, "Men Jeans", 50));
+
+		// act
+		lowStockIndex.onStockChanged(newer);
+		lowStockIndex.onStockChanged(older);
+
+		// assert
+		assertTrue(lowStockIndex.getLowStockProducts(10).isEmpty());
+		assertTrue(alerts.products.isEmpty());
+	}
+
+	@Test
+	void onStockChanged_olderChangeArrivesAfterRebuild_isIgnored() {
+		// assume
+		ProductStockChangedEvent older = new ProductStockChangedEvent(new Product(1, "Men Jeans", 5));
+		lowStockIndex.onStockChanged(new ProductStockChangedEvent(new Product(1, "Men Jeans", 50)));
+		jdbcTemplate.update("UPDATE product SET stock = 50 WHERE id = 1");
+		lowStockIndex.onProductsImported(new ProductsImportedEvent(Arrays.asList(), Collections.emptyMap()));
+		assertTrue(lowStockIndex.getLowStockProducts(10).isEmpty());
+
+		// act
+		lowStockIndex.onStockChanged(older);
+
+		// assert
+		assertTrue(lowStockIndex.getLowStockProducts(10).isEmpty());
+		assertEquals(0, lowStockIndex.size());
+	}
+
+	@TestConfiguration
+	static class AlertsConfiguration {
+		@Bean
+		Alerts alerts() {
+			return new Alerts();
+		}
+	}
+
+	static class Alerts {
+		private final List<LowStockProduct> products = new CopyOnWriteArrayList<>();
+
+		@EventListener
+		void onStockLow(final ProductStockLowEvent event) {
+			products.add(event.getProduct());
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package de.malmansari.playground.onlineshop.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+@ActiveProfiles("test")
+@DirtiesContext
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+public class MetricsTest {
+	private static final String HTTP_LOCALHOST_PREFIX = "http://localhost:";
+
+	@LocalServerPort
+	private int randomPort;
+
+	@Test
+	public void prometheus_afterOrders_exposesServiceTimersAndRejections() throws URISyntaxException {
+		// assume
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.getForEntity(new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/1/5"), String.class);
+		assertThrows(HttpClientErrorException.BadRequest.class, () -> restTemplate.getForEntity(
+				new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/api/order/products/1/500"), String.class));
+
+		// act
+		ResponseEntity<String> result = restTemplate.getForEntity(
+				new URI(HTTP_LOCALHOST_PREFIX + randomPort + "/actuator/prometheus"), String.class);
+
+		// assert
+		assertEquals(200, result.getStatusCodeValue());
+		assertTrue(result.getBody().contains(
+				"onlineshop_service_calls_seconds_count{method=\"order\",outcome=\"success\",} 1.0"));
+		assertTrue(result.getBody().contains(
+				"onlineshop_service_rejections_total{reason=\"not_enough_stock\",} 1.0"));
+		assertTrue(result.getBody().contains("onlineshop_db_calls_seconds_count{method=\"decrementStock\",}"));
+		assertTrue(result.getBody().contains("http_server_requests_seconds_bucket"));
+	}
+}
@@ -0,0 +1,134 @@
+package de.malmansari.playground.onlineshop.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolationException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest
+class ProductSearchIndexTest {
+
+	@Autowired
+	private ProductSearchIndex productSearchIndex;
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void search_prefixesOfSeveralWords_returnsProductsMatchingAllWords() {
+		// act & assert
+		assertEquals(Arrays.asList(1L, 2L), ids(productSearchIndex.search("men", true, false, 20)));
+		assertEquals(Arrays.asList(1L), ids(productSearchIndex.search("je", true, false, 20)));
+		assertEquals(Arrays.asList(3L, 4L, 5L), ids(productSearchIndex.search("SH", true, false, 20)));
+		assertEquals(Arrays.asList(3L, 4L), ids(productSearchIndex.search("women sh", true, false, 20)));
+		assertEquals(Arrays.asList(3L), ids(productSearchIndex.search("women sh", true, false, 1)));
+	}
+
+	@Test
+	void search_withoutPrefix_returnsProductsMatchingWholeWords() {
+		// act & assert
+		assertEquals(Arrays.asList(), ids(productSearchIndex.search("jea", false, false, 20)));
+		assertEquals(Arrays.asList(1L), ids(productSearchIndex.search("jeans", false, false, 20)));
+	}
+
+	@Test
+	void search_inStockOnly_skipsSoldOutProducts() {
+		// assume
+		productService.order(3, 100);
+
+		// act
+		List<Product> all = productSearchIndex.search("sh", true, false, 20);
+		List<Product> inStock = productSearchIndex.search("sh", true, true, 20);
+
+		// assert
+		assertEquals(0, all.get(0).getStock());
+		assertEquals(Arrays.asList(4L, 5L), ids(inStock));
+	}
+
+	@Test
+	void search_productIsAddedAfterStartup_isFoundAfterItsFirstStockChange() {
+		// assume
+		jdbcTemplate.update("INSERT INTO product (id, name, stock) VALUES (6, 'Children Jeans', 10)");
+
+		// act
+		productService.addToStock(6, 5);
+
+		// assert
+		List<Product> result = productSearchIndex.search("jeans", true, false, 20);
+		assertEquals(Arrays.asList(1L, 6L), ids(result));
+		assertEquals(15, result.get(1).getStock());
+	}
+
+	@Test
+	void onStockChanged_olderChangeArrivesLate_isIgnored() {
+		// assume
+		ProductStockChangedEvent older = new ProductStockChangedEvent(new Product(1, "Men Jeans", 5));
+		ProductStockChangedEvent newer = new ProductStockChangedEvent(new Product(1, "Men Jeans", 50));
+
+		// act
+		productSearchIndex.onStockChanged(newer);
+		productSearchIndex.onStockChanged(older);
+
+		// assert
+		assertEquals(50, productSearchIndex.search("jeans", false, false, 20).get(0).getStock());
+	}
+
+	@Test
+	void onStockChanged_olderChangeArrivesAfterRebuild_isIgnored() {
+		// assume
+		ProductStockChangedEvent older = new ProductStockChangedEvent(new Product(1, "Men Jeans", 5));
+		productSearchIndex.onStockChanged(new ProductStockChangedEvent(new Product(1, "Men Jeans", 50)));
+		jdbcTemplate.update("UPDATE product SET stock = 50 WHERE id = 1");
+		productSearchIndex.rebuild();
+
+		// act
+		productSearchIndex.onStockChanged(older);
+
+		// assert
+		assertEquals(50, productSearchIndex.search("jeans", false, false, 20).get(0).getStock());
+	}
+
+	@Test
+	void onStockChanged_manyProductsAreAdded_keepsTheStocksOfTheOthers() {
+		// act
+		productService.order(2, 7);
+		for (long id = 6; id < 40; id++) {
+			productSearchIndex.onStockChanged(new ProductStockChangedEvent(new Product(id, "Kids Shirt " + id, id)));
+		}
+
+		// assert
+		assertEquals(93, productSearchIndex.search("men jacket", false, false, 20).get(0).getStock());
+		assertEquals(34, productSearchIndex.search("kids shirt", false, false, 100).size());
+		assertEquals(39, productSearchIndex.search("39", false, false, 20).get(0).getStock());
+	}
+
+	@Test
+	void search_limitIsTooLarge_throwsConstraintViolationException() {
+		// act & assert
+		assertThrows(ConstraintViolationException.class, () -> productSearchIndex.search("men", true, false, 100000));
+	}
+
+	private static List<Long> ids(final List<Product> products) {
+		return products.stream().map(Product::getId).collect(Collectors.toList());
+	}
+}
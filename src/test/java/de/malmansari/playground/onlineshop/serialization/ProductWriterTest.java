@@ -0,0 +1,69 @@
+package de.malmansari.playground.onlineshop.serialization;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import de.malmansari.playground.onlineshop.model.Product;
+
+class ProductWriterTest {
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final ProductWriter productWriter = new ProductWriter(objectMapper);
+
+	private final List<Product> products = Arrays.asList(new Product(1, "Men \"Slim\" Jeans ä", 100),
+			new Product(Long.MAX_VALUE, "Children\nShort", 0));
+
+	@Test
+	void toBytes_json_equalsObjectMapper() throws IOException {
+		// act & assert
+		for (Product product : products) {
+			assertArrayEquals(objectMapper.writeValueAsBytes(product),
+					productWriter.toBytes(product, ProductEncoding.JSON));
+		}
+		assertArrayEquals(objectMapper.writeValueAsBytes(products),
+				productWriter.toBytes(products, ProductEncoding.JSON));
+	}
+
+	@Test
+	void writeAll_binaryEncodings_areReadBack() throws IOException {
+		// assume
+		ObjectMapper smile = new ObjectMapper(new SmileFactory());
+		ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+
+		// act
+		ByteArrayOutputStream smileOutput = new ByteArrayOutputStream();
+		productWriter.writeAll(products, ProductEncoding.SMILE, smileOutput);
+		ByteArrayOutputStream cborOutput = new ByteArrayOutputStream();
+		productWriter.writeAll(products, ProductEncoding.CBOR, cborOutput);
+
+		// assert
+		assertEquals(products, smile.readValue(smileOutput.toByteArray(), new TypeReference<List<Product>>() {
+		}));
+		assertEquals(products, cbor.readValue(cborOutput.toByteArray(), new TypeReference<List<Product>>() {
+		}));
+	}
+
+	@Test
+	void negotiate_acceptHeaders_preferredEncodingIsSelected() {
+		// act & assert
+		assertEquals(ProductEncoding.JSON, ProductEncoding.negotiate(MediaType.parseMediaTypes("*/*")));
+		assertEquals(ProductEncoding.JSON, ProductEncoding.negotiate(MediaType.parseMediaTypes("text/html")));
+		assertEquals(ProductEncoding.CBOR,
+				ProductEncoding.negotiate(MediaType.parseMediaTypes("application/json;q=0.9, application/cbor")));
+		assertEquals(ProductEncoding.SMILE,
+				ProductEncoding.negotiate(MediaType.parseMediaTypes("application/x-jackson-smile, */*;q=0.1")));
+	}
+}
@@ -0,0 +1,165 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.exception.IdempotencyKeyReusedException;
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ServiceOverloadedException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest(properties = { "onlineshop.idempotency.ttl-ms=1000", "onlineshop.idempotency.max-keys=3" })
+class IdempotentOrderTest {
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private IdempotencyKeyStore idempotencyKeyStore;
+
+	@Test
+	void orderOnce_keyIsRetried_isOrderedOnce() {
+		// act
+		Product first = productService.orderOnce(1, 5, "order-1");
+		productService.order(1, 10);
+		Product retried = productService.orderOnce(1, 5, "order-1");
+
+		// assert
+		assertEquals(95, first.getStock());
+		assertEquals(first, retried);
+		assertEquals(85, productRepository.findById(1L).get().getStock());
+	}
+
+	@Test
+	void orderOnce_keyIsUsedForAnotherOrder_throwsIdempotencyKeyReusedException() {
+		// assume
+		productService.orderOnce(1, 5, "order-1");
+
+		// act & assert
+		assertThrows(IdempotencyKeyReusedException.class, () -> productService.orderOnce(1, 6, "order-1"));
+		assertThrows(IdempotencyKeyReusedException.class, () -> productService.orderOnce(2, 5, "order-1"));
+		assertEquals(95, productRepository.findById(1L).get().getStock());
+	}
+
+	@Test
+	void orderOnce_firstOrderFailed_retryIsOrdered() {
+		// assume
+		assertThrows(ProductHasNotEnoughStockException.class, () -> productService.orderOnce(2, 150, "order-2"));
+		productService.addToStock(2, 50);
+
+		// act
+		Product retried = productService.orderOnce(2, 150, "order-2");
+
+		// assert
+		assertEquals(0, retried.getStock());
+	}
+
+	@Test
+	void orderOnce_keyExpiredOrDropped_isOrderedAgain() throws InterruptedException {
+		// assume
+		productService.orderOnce(3, 1, "order-1");
+		productService.orderOnce(3, 1, "order-2");
+		productService.orderOnce(3, 1, "order-3");
+		productService.orderOnce(3, 1, "order-4");
+
+		// act
+		productService.orderOnce(3, 1, "order-1");
+		productService.orderOnce(3, 1, "order-4");
+		Thread.sleep(1100);
+		productService.orderOnce(3, 1, "order-4");
+
+		// assert
+		assertEquals(94, productRepository.findById(3L).get().getStock());
+		assertEquals(1, idempotencyKeyStore.size());
+	}
+
+	@Test
+	void orderOnce_hundredsOfThreadsRetryTheSameKey_isOrderedOnce() throws Exception {
+		// assume
+		final int threads = 200;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Callable<Product>> retries = new ArrayList<>();
+		// started together, so all of them come within the short ttl of the key
+		CountDownLatch ready = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			retries.add(() -> {
+				ready.countDown();
+				await(ready);
+				return productService.orderOnce(4, 7, "order-4");
+			});
+		}
+
+		// act
+		List<Future<Product>> results = executor.invokeAll(retries);
+		executor.shutdown();
+
+		// assert
+		for (Future<Product> result : results) {
+			assertEquals(93, result.get().getStock());
+		}
+		assertEquals(93, productRepository.findById(4L).get().getStock());
+	}
+
+	@Test
+	void orderOnce_storeIsFullOfOrdersInProgress_rejectsNewKeysOnly() throws Exception {
+		// assume
+		CountDownLatch started = new CountDownLatch(3);
+		CountDownLatch finish = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Product>> inProgress = new ArrayList<>();
+		for (int i = 1; i <= 3; i++) {
+			String key = "order-" + i;
+			inProgress.add(executor.submit(() -> idempotencyKeyStore.orderOnce(key, 5, 1, () -> {
+				started.countDown();
+				await(finish);
+				return productService.order(5, 1);
+			})));
+		}
+		started.await();
+
+		// act
+		Future<Product> duplicate = executor.submit(() -> productService.orderOnce(5, 1, "order-1"));
+		assertThrows(ServiceOverloadedException.class, () -> productService.orderOnce(5, 1, "order-4"));
+		finish.countDown();
+		for (Future<Product> result : inProgress) {
+			result.get();
+		}
+		Product accepted = productService.orderOnce(5, 1, "order-4");
+		executor.shutdown();
+
+		// assert
+		assertEquals(inProgress.get(0).get(), duplicate.get());
+		assertEquals(96, accepted.getStock());
+		assertEquals(96, productRepository.findById(5L).get().getStock());
+	}
+
+	private static void await(final CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Runs the service tests with the products in a memory-mapped file instead of the database.
+ */
+@SpringBootTest(properties = "onlineshop.storage.backend=mapped")
+class MappedProductServiceImplTest extends ProductServiceImplTest {
+}
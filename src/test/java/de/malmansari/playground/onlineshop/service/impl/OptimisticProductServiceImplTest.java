@@ -0,0 +1,42 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Collections;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+/**
+ * Runs the service tests with optimistic stock updates, retried often
+ * enough that hundreds of competing threads all get through. Their
+ * lost updates are expected, so the batch errors are not logged.
+ */
+@SpringBootTest(properties = { "onlineshop.stock-updates.mode=optimistic",
+		"onlineshop.stock-updates.max-attempts=1000", "onlineshop.stock-updates.max-backoff-ms=10",
+		"logging.level.org.hibernate.engine.jdbc.batch.internal.BatchingBatch=OFF" })
+class OptimisticProductServiceImplTest extends ProductServiceImplTest {
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Test
+	void order_productIsChanged_versionIsIncremented() {
+		// act
+		productService.order(1, 5);
+		productService.addToStock(1, 2);
+		productRepository.incrementStocks(new TreeMap<>(Collections.singletonMap(1L, 3L)));
+
+		// assert
+		assertEquals(3, productRepository.findById(1L).get().getVersion());
+		assertEquals(100, productRepository.findById(1L).get().getStock());
+	}
+}
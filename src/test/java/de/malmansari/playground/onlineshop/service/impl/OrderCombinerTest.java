@@ -0,0 +1,116 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest(properties = { "onlineshop.order-combining.enabled=true", "onlineshop.order-combining.window-us=200" })
+class OrderCombinerTest {
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Test
+	void order_quantityIsAvailable_stockIsDecremented() {
+		// act
+		Product result = productService.order(1, 5);
+
+		// assert
+		assertEquals(95, result.getStock());
+		assertEquals("Men Jeans", result.getName());
+		assertEquals(95, productRepository.findById(1L).get().getStock());
+	}
+
+	@Test
+	void order_productIsUnknown_throwsProductNotFoundException() {
+		// act & assert
+		assertThrows(ProductNotFoundException.class, () -> productService.order(17, 1));
+	}
+
+	@Test
+	void order_concurrentOrdersOfOneProduct_everyOrderGetsItsOwnOutcome() throws Exception {
+		// assume
+		ExecutorService executor = Executors.newFixedThreadPool(64);
+		List<Callable<Long>> orders = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			orders.add(() -> {
+				try {
+					return productService.order(3, 1).getStock();
+				} catch (ProductHasNotEnoughStockException e) {
+					return -1L;
+				}
+			});
+		}
+
+		// act
+		Set<Long> remainingStocks = new TreeSet<>();
+		int succeeded = 0;
+		for (Future<Long> result : executor.invokeAll(orders)) {
+			if (result.get() >= 0) {
+				succeeded++;
+				remainingStocks.add(result.get());
+			}
+		}
+		executor.shutdown();
+
+		// assert
+		assertEquals(100, succeeded);
+		assertEquals(100, remainingStocks.size());
+		assertEquals(0, productRepository.findById(3L).get().getStock());
+	}
+
+	@Test
+	void order_concurrentOrdersOfSeveralProducts_grantedQuantitiesMatchStock() throws Exception {
+		// assume
+		ExecutorService executor = Executors.newFixedThreadPool(32);
+		List<Callable<long[]>> orders = new ArrayList<>();
+		for (int i = 0; i < 150; i++) {
+			final long id = 4 + i % 2;
+			final long quantity = 1 + i % 3;
+			orders.add(() -> {
+				try {
+					productService.order(id, quantity);
+					return new long[] { id, quantity };
+				} catch (ProductHasNotEnoughStockException e) {
+					return new long[] { id, 0 };
+				}
+			});
+		}
+
+		// act
+		long[] granted = new long[2];
+		for (Future<long[]> result : executor.invokeAll(orders)) {
+			granted[(int) result.get()[0] - 4] += result.get()[1];
+		}
+		executor.shutdown();
+
+		// assert
+		assertEquals(100 - granted[0], productRepository.findById(4L).get().getStock());
+		assertEquals(100 - granted[1], productRepository.findById(5L).get().getStock());
+	}
+}
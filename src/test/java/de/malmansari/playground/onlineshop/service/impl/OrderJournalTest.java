@@ -0,0 +1,193 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.FileSystemUtils;
+
+import de.malmansari.playground.onlineshop.catalog.CatalogFormat;
+import de.malmansari.playground.onlineshop.catalog.ProductImporter;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest(properties = { "onlineshop.stock-ledger.enabled=true", "onlineshop.order-journal.enabled=true",
+		"onlineshop.order-journal.directory=target/order-journal-test/application" })
+class OrderJournalTest {
+	private static final Path REPLAY_DIRECTORY = Paths.get("target/order-journal-test/replay");
+
+	private static final long NEVER = Long.MAX_VALUE / 2;
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ProductImporter productImporter;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		FileSystemUtils.deleteRecursively(REPLAY_DIRECTORY);
+	}
+
+	@Test
+	void order_journalIsApplied_stockIsWrittenBack() throws InterruptedException {
+		// act
+		productService.order(1, 5);
+		productService.addToStock(2, 3);
+
+		// assert
+		long deadline = System.currentTimeMillis() + 5000;
+		while (productRepository.findById(2L).get().getStock() != 103 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(95, productRepository.findById(1L).get().getStock());
+		assertEquals(103, productRepository.findById(2L).get().getStock());
+	}
+
+	@Test
+	void onProductsImported_orderIsNotYetApplied_stockIsImported() throws InterruptedException {
+		// assume
+		productService.order(2, 10);
+
+		// act
+		productImporter.importProducts(
+				new ByteArrayInputStream("2,Men Jacket,200\n".getBytes(StandardCharsets.UTF_8)), CatalogFormat.CSV);
+		productService.order(2, 5);
+
+		// assert
+		long deadline = System.currentTimeMillis() + 5000;
+		while (productRepository.findById(2L).get().getStock() != 195 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(195, productService.getProducts(Arrays.asList(2L)).iterator().next().getStock());
+		assertEquals(195, productRepository.findById(2L).get().getStock());
+	}
+
+	@Test
+	void recover_journalWasNotApplied_changesAreReplayedOnce() throws Exception {
+		// assume
+		OrderJournal crashed = journal();
+		crashed.append(2, -7);
+		crashed.append(new long[] { 1, 3 }, new long[] { -1, -2 });
+
+		// act
+		journal().close();
+		journal().close();
+
+		// assert
+		assertEquals(99, productRepository.findById(1L).get().getStock());
+		assertEquals(93, productRepository.findById(2L).get().getStock());
+		assertEquals(98, productRepository.findById(3L).get().getStock());
+	}
+
+	@Test
+	void recover_lastGroupIsTorn_groupIsDiscarded() throws Exception {
+		// assume
+		OrderJournal crashed = journal();
+		crashed.append(2, -7);
+		crashed.append(new long[] { 1, 3 }, new long[] { -1, -2 });
+		tearLastRecord();
+
+		// act
+		journal().close();
+
+		// assert
+		assertEquals(100, productRepository.findById(1L).get().getStock());
+		assertEquals(93, productRepository.findById(2L).get().getStock());
+		assertEquals(100, productRepository.findById(3L).get().getStock());
+	}
+
+	@Test
+	void recover_databaseIsFresh_oldJournalIsSetAside() throws Exception {
+		// assume
+		// a fresh in-memory database has no checkpoint and the stock of data.sql
+		jdbcTemplate.update("DELETE FROM order_journal_checkpoint");
+		OrderJournal applied = journal();
+		applied.append(2, -7);
+		applied.close();
+		assertEquals(93, productRepository.findById(2L).get().getStock());
+		jdbcTemplate.update("DELETE FROM order_journal_checkpoint");
+		jdbcTemplate.update("UPDATE product SET stock = 100 WHERE id = 2");
+
+		// act
+		journal().close();
+
+		// assert
+		assertEquals(100, productRepository.findById(2L).get().getStock());
+		try (Stream<Path> files = Files.list(REPLAY_DIRECTORY)) {
+			assertTrue(files.anyMatch(file -> file.getFileName().toString().endsWith(".discarded")));
+		}
+	}
+
+	@Test
+	void append_nextSegmentCannotBeOpened_laterAppendsAreJournaled() throws Exception {
+		// assume
+		OrderJournal journal = journal(1);
+		journal.append(2, -1);
+		Path nextSegment = lastSegment().resolveSibling(
+				lastSegment().getFileName().toString().replace("00000000000000000001.journal", "00000000000000000002.journal"));
+		Files.createDirectory(nextSegment);
+		assertThrows(UncheckedIOException.class, () -> journal.append(2, -2));
+		Files.delete(nextSegment);
+
+		// act
+		journal.append(2, -3);
+		journal.close();
+
+		// assert
+		assertEquals(96, productRepository.findById(2L).get().getStock());
+	}
+
+	private OrderJournal journal() throws IOException {
+		return journal(1 << 20);
+	}
+
+	private OrderJournal journal(final long segmentSize) throws IOException {
+		return new OrderJournal(jdbcTemplate, transactionManager, REPLAY_DIRECTORY.toString(), segmentSize, 16, NEVER);
+	}
+
+	private static Path lastSegment() throws IOException {
+		try (Stream<Path> files = Files.list(REPLAY_DIRECTORY)) {
+			return files.sorted().reduce((first, second) -> second).get();
+		}
+	}
+
+	private void tearLastRecord() throws IOException {
+		Path segment = lastSegment();
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 42 }), channel.size() - 1);
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Runs the service tests with stock updates locking the product row.
+ */
+@SpringBootTest(properties = "onlineshop.stock-updates.mode=pessimistic")
+class PessimisticProductServiceImplTest extends ProductServiceImplTest {
+}
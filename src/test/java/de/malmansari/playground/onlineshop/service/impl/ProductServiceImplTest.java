@@ -1,19 +1,108 @@
 package de.malmansari.playground.onlineshop.service.impl;
 
-import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.storage.ProductStore;
 
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest
 class ProductServiceImplTest {
 
-	@BeforeEach
-	void setUp() throws Exception {
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private ProductStore productStore;
+
+	@Test
+	void order_quantityIsAvailable_stockIsDecremented() {
+		// act
+		Product result = productService.order(1, 5);
+
+		// assert
+		assertEquals(95, result.getStock());
+		assertEquals(95, productStore.findById(1L).get().getStock());
+	}
+
+	@Test
+	void order_quantityIsLargerThanStock_throwsProductHasNotEnoughStockException() {
+		// act & assert
+		assertThrows(ProductHasNotEnoughStockException.class, () -> productService.order(2, 101));
+		assertEquals(100, productStore.findById(2L).get().getStock());
+	}
+
+	@Test
+	void order_productIsUnknown_throwsProductNotFoundException() {
+		// act & assert
+		assertThrows(ProductNotFoundException.class, () -> productService.order(17, 1));
+	}
+
+	@Test
+	void addToStock_productIsKnown_stockIsIncremented() {
+		// act
+		Product result = productService.addToStock(3, 7);
+
+		// assert
+		assertEquals(107, result.getStock());
+		assertEquals(107, productStore.findById(3L).get().getStock());
 	}
 
 	@Test
-	void test() {
-		fail("Not yet implemented");
+	void addToStock_productIsUnknown_throwsProductNotFoundException() {
+		// act & assert
+		assertThrows(ProductNotFoundException.class, () -> productService.addToStock(17, 1));
 	}
 
+	@Test
+	void order_hundredsOfThreadsOrderInParallel_nothingIsOversold() throws Exception {
+		// assume
+		final int threads = 200;
+		final int ordersPerThread = 3;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Callable<Long>> customers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			customers.add(() -> {
+				long ordered = 0;
+				for (int j = 0; j < ordersPerThread; j++) {
+					try {
+						productService.order(4, 1);
+						ordered++;
+					} catch (ProductHasNotEnoughStockException e) {
+						// sold out
+					}
+				}
+				return ordered;
+			});
+		}
+
+		// act
+		long ordered = 0;
+		for (Future<Long> result : executor.invokeAll(customers)) {
+			ordered += result.get();
+		}
+		executor.shutdown();
+
+		// assert
+		assertEquals(100, ordered);
+		assertEquals(0, productStore.findById(4L).get().getStock());
+	}
 }
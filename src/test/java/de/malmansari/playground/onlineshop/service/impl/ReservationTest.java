@@ -0,0 +1,96 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ReservationNotFoundException;
+import de.malmansari.playground.onlineshop.model.Reservation;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.service.ProductService;
+
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest(properties = { "onlineshop.reservations.ttl-ms=300", "onlineshop.reservations.tick-ms=10",
+		"onlineshop.reservations.wheel-size=16" })
+class ReservationTest {
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private ReservationRegistry reservationRegistry;
+
+	@Test
+	void reserve_quantityIsAvailable_stockIsHeld() {
+		// act
+		Reservation reservation = productService.reserve(1, 40);
+
+		// assert
+		assertEquals(60, productRepository.findById(1L).get().getStock());
+		assertThrows(ProductHasNotEnoughStockException.class, () -> productService.reserve(1, 61));
+		assertEquals(1, reservation.getProductId());
+		assertEquals(40, reservation.getQuantity());
+	}
+
+	@Test
+	void confirm_reservationIsPending_itemsAreNotGivenBack() throws InterruptedException {
+		// assume
+		Reservation reservation = productService.reserve(2, 10);
+
+		// act
+		productService.confirm(reservation.getId());
+		Thread.sleep(600);
+
+		// assert
+		assertEquals(90, productRepository.findById(2L).get().getStock());
+		assertThrows(ReservationNotFoundException.class, () -> productService.confirm(reservation.getId()));
+		assertThrows(ReservationNotFoundException.class, () -> productService.release(reservation.getId()));
+	}
+
+	@Test
+	void release_reservationIsPending_itemsAreGivenBack() {
+		// assume
+		Reservation reservation = productService.reserve(3, 10);
+
+		// act
+		productService.release(reservation.getId());
+
+		// assert
+		assertEquals(100, productRepository.findById(3L).get().getStock());
+		assertEquals(0, reservationRegistry.size());
+	}
+
+	@Test
+	void reserve_reservationsAreNotConfirmed_itemsAreGivenBackOnExpiry() throws InterruptedException {
+		// assume
+		Reservation first = productService.reserve(4, 10);
+		productService.reserve(4, 20);
+		productService.reserve(5, 30);
+
+		// act
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((stock(4) < 100 || stock(5) < 100) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+
+		// assert
+		assertEquals(0, reservationRegistry.size());
+		assertEquals(100, stock(4));
+		assertEquals(100, stock(5));
+		assertThrows(ReservationNotFoundException.class, () -> productService.confirm(first.getId()));
+	}
+
+	private long stock(final long id) {
+		return productRepository.findById(id).get().getStock();
+	}
+}
@@ -0,0 +1,301 @@
+package de.malmansari.playground.onlineshop.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.event.EventListener;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.catalog.CatalogFormat;
+import de.malmansari.playground.onlineshop.catalog.ProductImporter;
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.exception.ProductNotFoundException;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import de.malmansari.playground.onlineshop.service.ProductStockChangedEvent;
+
+@ActiveProfiles("test")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@SpringBootTest(properties = { "onlineshop.stock-ledger.enabled=true",
+		"onlineshop.stock-ledger.flush-interval-ms=3600000", "onlineshop.reservations.ttl-ms=300",
+		"onlineshop.reservations.tick-ms=10" })
+class StockLedgerTest {
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private StockLedger stockLedger;
+
+	@Autowired
+	private ProductImporter productImporter;
+
+	@Autowired
+	private LatestChanges latestChanges;
+
+	@Test
+	void order_quantityIsAvailable_stockIsWrittenBackOnFlush() {
+		// act
+		Product result = productService.order(1, 5);
+		stockLedger.flush();
+
+		// assert
+		assertEquals(95, result.getStock());
+		assertEquals("Men Jeans", result.getName());
+		assertEquals(95, productRepository.findById(1L).get().getStock());
+	}
+
+	@Test
+	void order_productIsUnknown_throwsProductNotFoundException() {
+		// act & assert
+		assertThrows(ProductNotFoundException.class, () -> productService.order(17, 1));
+	}
+
+	@Test
+	void getAllProducts_ledgerIsAheadOfDatabase_returnsLedgerStock() {
+		// assume
+		productService.addToStock(2, 11);
+
+		// act
+		List<Product> products = new ArrayList<>();
+		productService.getAllProducts().forEach(products::add);
+
+		// assert
+		assertEquals(111, products.get(1).getStock());
+	}
+
+	@Test
+	void orderBatch_oneLineHasNotEnoughStock_givesBackAppliedLines() {
+		// assume
+		Map<Long, Long> cart = new HashMap<>();
+		cart.put(1L, 10L);
+		cart.put(2L, 101L);
+
+		// act
+		assertThrows(ProductHasNotEnoughStockException.class, () -> productService.orderBatch(cart));
+		cart.put(2L, 100L);
+		List<Product> result = productService.orderBatch(cart);
+
+		// assert
+		assertEquals(90, result.get(0).getStock());
+		assertEquals(0, result.get(1).getStock());
+	}
+
+	@Test
+	void order_concurrentOrders_nothingIsOversold() throws Exception {
+		// assume
+		ExecutorService executor = Executors.newFixedThreadPool(32);
+		List<Callable<Boolean>> orders = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			orders.add(() -> {
+				try {
+					productService.order(3, 1);
+					return true;
+				} catch (ProductHasNotEnoughStockException e) {
+					return false;
+				}
+			});
+		}
+
+		// act
+		int succeeded = 0;
+		for (Future<Boolean> result : executor.invokeAll(orders)) {
+			succeeded += result.get() ? 1 : 0;
+		}
+		executor.shutdown();
+		stockLedger.flush();
+
+		// assert
+		assertEquals(100, succeeded);
+		assertEquals(0, productRepository.findById(3L).get().getStock());
+	}
+
+	@Test
+	void onProductsImported_orderIsNotWrittenBack_stockIsImported() {
+		// assume
+		productService.order(2, 10);
+
+		// act
+		importProducts("2,Men Jacket,200\n");
+		stockLedger.flush();
+
+		// assert
+		assertEquals(200, stock(2));
+		assertEquals(200, productRepository.findById(2L).get().getStock());
+	}
+
+	@Test
+	void onProductsImported_orderIsWrittenBack_stockIsImported() {
+		// assume
+		productService.order(2, 10);
+		stockLedger.flush();
+
+		// act
+		importProducts("2,Men Jacket,200\n");
+		stockLedger.flush();
+
+		// assert
+		assertEquals(200, stock(2));
+		assertEquals(200, productRepository.findById(2L).get().getStock());
+	}
+
+	@Test
+	void onProductsImported_concurrentOrders_ledgerAndDatabaseAgree() throws Exception {
+		// assume
+		productService.order(1, 1);
+		AtomicBoolean importing = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Callable<Integer>> orders = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			orders.add(() -> {
+				int succeeded = 0;
+				while (importing.get()) {
+					try {
+						productService.order(1, 1);
+						succeeded++;
+					} catch (ProductHasNotEnoughStockException e) {
+						// sold out until the import
+						Thread.yield();
+					}
+				}
+				return succeeded;
+			});
+		}
+
+		// act
+		List<Future<Integer>> results = new ArrayList<>();
+		orders.forEach(order -> results.add(executor.submit(order)));
+		for (int i = 0; i < 5; i++) {
+			importProducts("1,Men Jeans,1000\n");
+		}
+		importing.set(false);
+		int succeeded = 0;
+		for (Future<Integer> result : results) {
+			succeeded += result.get();
+		}
+		executor.shutdown();
+		stockLedger.flush();
+		long stock = stock(1);
+
+		// assert
+		assertTrue(succeeded > 0);
+		assertTrue(stock >= 1000 - succeeded && stock <= 1000);
+		assertEquals(stock, productRepository.findById(1L).get().getStock());
+	}
+
+	@Test
+	void order_concurrentOrdersAndAdds_latestChangeHoldsTheStock() throws Exception {
+		// assume
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Callable<Void>> changes = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			boolean adding = i % 2 == 0;
+			changes.add(() -> {
+				for (int j = 0; j < 500; j++) {
+					try {
+						if (adding) {
+							productService.addToStock(2, 1);
+						} else {
+							productService.order(2, 1);
+						}
+					} catch (ProductHasNotEnoughStockException e) {
+						// added again by the others
+					}
+				}
+				return null;
+			});
+		}
+
+		// act
+		for (Future<Void> result : executor.invokeAll(changes)) {
+			result.get();
+		}
+		executor.shutdown();
+
+		// assert
+		assertEquals(productService.getProducts(Arrays.asList(2L)).iterator().next().getStock(),
+				latestChanges.events.get(2L).getProduct().getStock());
+	}
+
+	@Test
+	void reserve_givingBackOneProductFails_itemsAreGivenBackOnce() throws InterruptedException {
+		// assume
+		productService.reserve(4, 10);
+		productService.reserve(5, 30);
+		latestChanges.failOnce = 4;
+
+		// act
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((stock(4) < 100 || stock(5) < 100) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		Thread.sleep(100);
+
+		// assert
+		assertEquals(-1, latestChanges.failOnce);
+		assertEquals(100, stock(4));
+		assertEquals(100, stock(5));
+	}
+
+	private long stock(final long id) {
+		return productService.getProducts(Arrays.asList(id)).iterator().next().getStock();
+	}
+
+	private void importProducts(final String csv) {
+		productImporter.importProducts(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+				CatalogFormat.CSV);
+	}
+
+	@TestConfiguration
+	static class LatestChangesConfiguration {
+		@Bean
+		LatestChanges latestChanges() {
+			return new LatestChanges();
+		}
+	}
+
+	static class LatestChanges {
+		private final ConcurrentMap<Long, ProductStockChangedEvent> events = new ConcurrentHashMap<>();
+
+		/**
+		 * The id of a product whose next change fails to be published, or -1.
+		 */
+		private volatile long failOnce = -1;
+
+		@EventListener
+		void onStockChanged(final ProductStockChangedEvent event) {
+			if (event.getProduct().getId() == failOnce) {
+				failOnce = -1;
+				throw new IllegalStateException("The stock change could not be handled");
+			}
+			events.merge(event.getProduct().getId(), event,
+					(kept, later) -> later.getSequence() > kept.getSequence() ? later : kept);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package de.malmansari.playground.onlineshop.sharding;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class ConsistentHashRingTest {
+	private static final int IDS = 100_000;
+
+	@Test
+	void ownerOf_manyIds_areSpreadEvenlyOverTheNodes() {
+		// assume
+		ConsistentHashRing ring = new ConsistentHashRing(
+				Arrays.asList("http://shop-a:8080", "http://shop-b:8080", "http://shop-c:8080", "http://shop-d:8080"),
+				128);
+
+		// act
+		int[] owned = new int[4];
+		for (long id = 1; id <= IDS; id++) {
+			owned[ring.ownerOf(id)]++;
+		}
+
+		// assert
+		for (int count : owned) {
+			assertTrue(Math.abs(count - IDS / 4) < IDS / 4 * 0.2, "unbalanced: " + Arrays.toString(owned));
+		}
+	}
+
+	@Test
+	void ownerOf_nodeIsAdded_onlyIdsOfTheNewNodeMove() {
+		// assume
+		ConsistentHashRing before = new ConsistentHashRing(
+				Arrays.asList("http://shop-a:8080", "http://shop-b:8080", "http://shop-c:8080", "http://shop-d:8080"),
+				128);
+		ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("http://shop-a:8080", "http://shop-b:8080",
+				"http://shop-c:8080", "http://shop-d:8080", "http://shop-e:8080"), 128);
+
+		// act
+		int moved = 0;
+		for (long id = 1; id <= IDS; id++) {
+			int owner = after.ownerOf(id);
+			if (owner != before.ownerOf(id)) {
+				assertEquals(4, owner);
+				moved++;
+			}
+		}
+
+		// assert
+		assertTrue(moved > IDS / 5 * 0.8 && moved < IDS / 5 * 1.2, "moved: " + moved);
+	}
+}
@@ -0,0 +1,259 @@
+package de.malmansari.playground.onlineshop.sharding;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.support.HttpRequestWrapper;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import de.malmansari.playground.onlineshop.OnlineShopApplication;
+import de.malmansari.playground.onlineshop.catalog.CatalogFormat;
+import de.malmansari.playground.onlineshop.catalog.ProductImporter;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.model.Reservation;
+import de.malmansari.playground.onlineshop.repository.ProductRepository;
+
+/**
+ * <pre>
+ * Runs three shop nodes in this JVM, each one on its own port and with its own database.
+ *
+ * The nodes are named http://node0 to http://node2 on the ring, the forwarded
+ * requests are sent to the ports the nodes were bound to. Every test imports
+ * products of its own, so the tests do not depend on each other.
+ * </pre>
+ */
+class ShardingTest {
+	private static final int NODES = 3;
+
+	private static final ConfigurableApplicationContext[] CONTEXTS = new ConfigurableApplicationContext[NODES];
+
+	private static final String[] NAMES = new String[NODES];
+
+	private static final String[] URLS = new String[NODES];
+
+	private static final AtomicLong NEXT_ID = new AtomicLong(1000);
+
+	private static ConsistentHashRing ring;
+
+	private static RestTemplate restTemplate;
+
+	@BeforeAll
+	static void startNodes() {
+		for (int node = 0; node < NODES; node++) {
+			NAMES[node] = "http://node" + node;
+		}
+
+		// the forwarded requests of every node are sent to the bound port of the named node
+		RestTemplateCustomizer boundPorts = template -> template.getInterceptors().add((request, body, execution) ->
+				execution.execute(bound(request), body));
+		for (int node = 0; node < NODES; node++) {
+			CONTEXTS[node] = new SpringApplicationBuilder(OnlineShopApplication.class)
+					.profiles("test")
+					.initializers(context -> context.getBeanFactory().registerSingleton("boundPorts", boundPorts))
+					.run("--server.port=0",
+							"--spring.datasource.url=jdbc:h2:mem:shard" + node + ";DB_CLOSE_DELAY=-1",
+							"--onlineshop.sharding.enabled=true",
+							"--onlineshop.sharding.nodes=" + String.join(",", NAMES),
+							"--onlineshop.sharding.self=" + NAMES[node]);
+			URLS[node] = "http://localhost:" + ((WebServerApplicationContext) CONTEXTS[node]).getWebServer().getPort();
+		}
+		ring = CONTEXTS[0].getBean(ShardForwardingInterceptor.class).getRing();
+		// the object mapper of spring boot reads the reservations by their constructor parameter names
+		restTemplate = CONTEXTS[0].getBean(RestTemplateBuilder.class).build();
+	}
+
+	@AfterAll
+	static void stopNodes() {
+		for (ConfigurableApplicationContext context : CONTEXTS) {
+			if (context != null) {
+				context.close();
+			}
+		}
+	}
+
+	@Test
+	void order_onEveryNode_isOrderedOnTheOwner() {
+		// assume
+		long id = newProduct(-1);
+
+		// act
+		for (int node = 0; node < NODES; node++) {
+			Product product = restTemplate.getForObject(URLS[node] + "/api/order/products/{id}/2", Product.class, id);
+			assertEquals(100 - 2 * (node + 1), product.getStock());
+		}
+
+		// assert
+		for (int node = 0; node < NODES; node++) {
+			assertEquals(node == ring.ownerOf(id) ? 94 : -1, stockOn(node, id));
+		}
+	}
+
+	@Test
+	void addToStock_onANodeNotOwningTheProduct_isForwarded() {
+		// assume
+		long id = newProduct(0);
+
+		// act
+		Product product = restTemplate.getForObject(URLS[0] + "/api/add/products/{id}/5", Product.class, id);
+
+		// assert
+		assertEquals(105, product.getStock());
+		assertEquals(105, stockOn(ring.ownerOf(id), id));
+		assertEquals(-1, stockOn(0, id));
+	}
+
+	@Test
+	void reserve_onOneNode_isReleasedOnAnother() {
+		// assume
+		long id = newProduct(1);
+		Reservation reservation = restTemplate.getForObject(URLS[1] + "/api/reserve/products/{id}/10",
+				Reservation.class, id);
+		assertEquals(90, stockOn(ring.ownerOf(id), id));
+
+		// act
+		Product product = restTemplate.getForObject(URLS[2] + "/api/release/reservations/{id}", Product.class,
+				reservation.getId());
+
+		// assert
+		assertEquals(100, product.getStock());
+		assertEquals(100, stockOn(ring.ownerOf(id), id));
+		assertThrows(HttpClientErrorException.NotFound.class, () -> restTemplate
+				.getForObject(URLS[0] + "/api/confirm/reservations/{id}", Reservation.class, reservation.getId()));
+	}
+
+	@Test
+	void orderBatch_productsOfSeveralNodes_isRejected() {
+		// assume
+		long first = newProduct(0);
+		long second = newProduct(ring.ownerOf(first));
+		Map<Long, Long> quantities = new HashMap<>();
+		quantities.put(first, 1L);
+		quantities.put(second, 1L);
+
+		// act & assert
+		HttpClientErrorException e = assertThrows(HttpClientErrorException.class,
+				() -> restTemplate.postForObject(URLS[0] + "/api/order/products", quantities, String.class));
+		assertEquals(422, e.getRawStatusCode());
+		Product[] products = restTemplate.postForObject(URLS[0] + "/api/order/products",
+				Collections.singletonMap(first, 3L), Product[].class);
+		assertEquals(1, products.length);
+		assertEquals(97, stockOn(ring.ownerOf(first), first));
+		assertEquals(100, stockOn(ring.ownerOf(second), second));
+	}
+
+	@Test
+	void order_productIsUnknown_notFoundIsPassedOn() {
+		// assume
+		long unknown = NEXT_ID.incrementAndGet();
+		while (ring.ownerOf(unknown) == 0) {
+			unknown = NEXT_ID.incrementAndGet();
+		}
+		long id = unknown;
+
+		// act & assert
+		HttpClientErrorException e = assertThrows(HttpClientErrorException.class,
+				() -> restTemplate.getForObject(URLS[0] + "/api/order/products/{id}/1", Product.class, id));
+		assertEquals(404, e.getRawStatusCode());
+		assertTrue(e.getResponseBodyAsString().contains("Product not found"));
+	}
+
+	@Test
+	void order_forwardedToANodeNotOwningTheProduct_isRejected() {
+		// assume
+		long id = newProduct(0);
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(ShardForwardingInterceptor.FORWARDED_HEADER, NAMES[ring.ownerOf(id)]);
+
+		// act & assert
+		HttpClientErrorException e = assertThrows(HttpClientErrorException.class,
+				() -> restTemplate.exchange(URLS[0] + "/api/order/products/{id}/1", HttpMethod.GET,
+						new HttpEntity<>(headers), Product.class, id));
+		assertEquals(409, e.getRawStatusCode());
+		assertTrue(e.getResponseBodyAsString().contains("shard-misrouted"));
+		assertEquals(100, stockOn(ring.ownerOf(id), id));
+	}
+
+	@Test
+	void getAllProducts_onEveryNode_listsTheCurrentStockOfItsOwnProducts() {
+		// assume
+		long id = newProduct(0);
+		restTemplate.getForObject(URLS[0] + "/api/order/products/{id}/4", Product.class, id);
+
+		// act
+		Map<Long, Integer> listedBy = new HashMap<>();
+		Map<Long, Long> stocks = new HashMap<>();
+		for (int node = 0; node < NODES; node++) {
+			for (Product product : restTemplate.getForObject(URLS[node] + "/api/products", Product[].class)) {
+				assertEquals(null, listedBy.put(product.getId(), node));
+				stocks.put(product.getId(), product.getStock());
+			}
+		}
+
+		// assert
+		assertTrue(listedBy.keySet().containsAll(Arrays.asList(1L, 2L, 3L, 4L, 5L, id)));
+		listedBy.forEach((listed, node) -> assertEquals(ring.ownerOf(listed), node.intValue()));
+		assertEquals(96, stocks.get(id).longValue());
+	}
+
+	/**
+	 * Imports a new product with a stock of 100 on every node, which keeps it only if it owns it.
+	 *
+	 * @param notOwnedBy the node which must not own the product, or -1
+	 * @return the id of the product
+	 */
+	private static long newProduct(final int notOwnedBy) {
+		long id = NEXT_ID.incrementAndGet();
+		while (ring.ownerOf(id) == notOwnedBy) {
+			id = NEXT_ID.incrementAndGet();
+		}
+		for (ConfigurableApplicationContext context : CONTEXTS) {
+			context.getBean(ProductImporter.class).importProducts(
+					new ByteArrayInputStream((id + ",Product " + id + ",100\n").getBytes(StandardCharsets.UTF_8)),
+					CatalogFormat.CSV);
+		}
+		return id;
+	}
+
+	private static long stockOn(final int node, final long id) {
+		return CONTEXTS[node].getBean(ProductRepository.class).findById(id).map(Product::getStock).orElse(-1L);
+	}
+
+	private static HttpRequest bound(final HttpRequest request) {
+		URI uri = request.getURI();
+		for (int node = 0; node < NODES; node++) {
+			if (uri.toString().startsWith(NAMES[node] + "/")) {
+				URI target = URI.create(URLS[node] + uri.toString().substring(NAMES[node].length()));
+				return new HttpRequestWrapper(request) {
+					@Override
+					public URI getURI() {
+						return target;
+					}
+				};
+			}
+		}
+		return request;
+	}
+}
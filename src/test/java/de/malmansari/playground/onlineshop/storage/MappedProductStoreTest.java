@@ -0,0 +1,89 @@
+package de.malmansari.playground.onlineshop.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.malmansari.playground.onlineshop.exception.InvalidCatalogException;
+import de.malmansari.playground.onlineshop.exception.ProductHasNotEnoughStockException;
+import de.malmansari.playground.onlineshop.model.Product;
+
+class MappedProductStoreTest {
+	/**
+	 * More than one segment of records.
+	 */
+	private static final int PRODUCTS = 100_000;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void open_storeWasClosed_productsAreKept() throws IOException {
+		// assume
+		Path file = directory.resolve("products.store");
+		try (MappedProductStore store = MappedProductStore.open(file)) {
+			List<Product> products = new ArrayList<>(PRODUCTS);
+			for (long id = PRODUCTS; id > 0; id--) {
+				products.add(new Product(id, "Product " + id, id % 10));
+			}
+			store.saveAll(products, (saved, replaced) -> { });
+			store.decrementStock(7, 7, changed -> { });
+			store.delete(8);
+		}
+
+		// act
+		try (MappedProductStore store = MappedProductStore.open(file)) {
+
+			// assert
+			assertEquals(PRODUCTS, store.size());
+			assertEquals(new Product(7, "Product 7", 0), store.findById(7).get());
+			assertFalse(store.findById(8).isPresent());
+			assertEquals(Arrays.asList(9L, 10L, 11L),
+					store.findPage(7, 3).stream().map(Product::getId).collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	void decrementStocks_oneProductHasNotEnoughStock_noneIsChanged() throws IOException {
+		// assume
+		try (MappedProductStore store = MappedProductStore.temporary()) {
+			store.saveAll(Arrays.asList(new Product(1, "Men Jeans", 5), new Product(2, "Men Jacket", 1)),
+					(saved, replaced) -> { });
+			TreeMap<Long, Long> quantities = new TreeMap<>();
+			quantities.put(1L, 2L);
+			quantities.put(2L, 3L);
+
+			// act & assert
+			assertThrows(ProductHasNotEnoughStockException.class,
+					() -> store.decrementStocks(quantities, changed -> { }));
+			assertEquals(5, store.findById(1).get().getStock());
+			assertEquals(1, store.findById(2).get().getStock());
+		}
+	}
+
+	@Test
+	void saveAll_nameIsTooLong_throwsInvalidCatalogException() throws IOException {
+		// assume
+		char[] name = new char[MappedProductStore.MAX_NAME_BYTES / 2 + 1];
+		Arrays.fill(name, 'ü');
+		try (MappedProductStore store = MappedProductStore.temporary()) {
+
+			// act & assert
+			assertThrows(InvalidCatalogException.class, () -> store
+					.saveAll(Collections.singletonList(new Product(1, new String(name), 1)), (saved, replaced) -> { }));
+			assertFalse(store.findById(1).isPresent());
+		}
+	}
+}
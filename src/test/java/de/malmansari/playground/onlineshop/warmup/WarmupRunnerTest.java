@@ -0,0 +1,70 @@
+package de.malmansari.playground.onlineshop.warmup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import de.malmansari.playground.onlineshop.availability.SoldOutRegistry;
+import de.malmansari.playground.onlineshop.model.Product;
+import de.malmansari.playground.onlineshop.search.ProductSearchIndex;
+import de.malmansari.playground.onlineshop.service.ProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+@ActiveProfiles("test")
+@SpringBootTest(properties = { "onlineshop.warmup.enabled=true", "onlineshop.warmup.iterations=10" })
+class WarmupRunnerTest {
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private ProductSearchIndex productSearchIndex;
+
+	@Autowired
+	private SoldOutRegistry soldOutRegistry;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	void run_atStartup_leavesNoTrace() {
+		// act
+		List<Product> products = StreamSupport.stream(productService.getAllProducts().spliterator(), false)
+				.collect(Collectors.toList());
+
+		// assert
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L),
+				products.stream().map(Product::getId).collect(Collectors.toList()));
+		assertTrue(products.stream().allMatch(product -> product.getStock() == 100));
+		assertEquals(0L, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM product WHERE id = ?", Long.class,
+				Long.MAX_VALUE));
+		assertTrue(productSearchIndex.search("warmup", true, false, 20).isEmpty());
+	}
+
+	@Test
+	void run_atStartup_isNeitherMeasuredNorPublished() {
+		// act
+		long orders = meterRegistry.find("onlineshop.service.calls").tag("method", "order").timers().stream()
+				.mapToLong(Timer::count)
+				.sum();
+
+		// assert
+		assertEquals(0, orders);
+		assertFalse(soldOutRegistry.isSoldOut(Long.MAX_VALUE));
+	}
+}